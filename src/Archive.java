@@ -0,0 +1,400 @@
+package b.gp;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Archive.java
+ *
+ * Write a snapshot of a commit as a zip or gzipped tar archive. Archives are
+ * streamed entry by entry straight from the object store, the archive for the
+ * head of a repository is additionally kept on disk so that it can be served
+ * without being generated again.
+ **/
+public class Archive{
+  public static final String TYPE_ZIP = "zip";
+  public static final String TYPE_TAR_GZ = "tar.gz";
+
+  private static final int TAR_BLOCK = 512;
+  private static final int TAR_NAME_LEN = 100;
+  private static final int BUFF_LEN = 64 * 1024;
+
+  private Git git;
+  private Git.Commit commit;
+  private String prefix;
+  private long time;
+
+  /**
+   * Archive()
+   *
+   * Prepare to archive a given commit.
+   *
+   * @param git The repository the commit belongs to.
+   * @param proj The project name, used to name the top level directory.
+   * @param commit The commit to be archived.
+   **/
+  public Archive(Git git, String proj, Git.Commit commit){
+    this.git = git;
+    this.commit = commit;
+    this.prefix = name(proj, commit) + "/";
+    this.time = commit.commit_date.getTime();
+  }
+
+  /**
+   * name()
+   *
+   * Get the name of an archive for a given commit, without the extension.
+   *
+   * @param proj The project name.
+   * @param commit The commit being archived.
+   * @return The archive name.
+   **/
+  public static String name(String proj, Git.Commit commit){
+    return proj + "-" + commit.hash.substring(0, 7);
+  }
+
+  /**
+   * write()
+   *
+   * Stream the archive to a given output.
+   *
+   * @param type The type of archive, either TYPE_ZIP or TYPE_TAR_GZ.
+   * @param os The output stream to write the archive to.
+   **/
+  public void write(String type, OutputStream os) throws IOException{
+    OutputStream out = new BufferedOutputStream(os, BUFF_LEN);
+    if(type.equals(TYPE_ZIP)){
+      ZipOutputStream zos = new ZipOutputStream(out);
+      zipTree(zos, commit.tree, prefix);
+      zos.finish();
+    }else{
+      GZIPOutputStream gos = new GZIPOutputStream(out, BUFF_LEN);
+      tarEntry(gos, prefix, 0755, '5', 0, null);
+      tarTree(gos, commit.tree, prefix);
+      /* End of archive marker is two empty blocks */
+      gos.write(new byte[TAR_BLOCK * 2]);
+      gos.finish();
+    }
+    out.flush();
+  }
+
+  /**
+   * zipTree()
+   *
+   * Recursively add the contents of a tree to a zip archive.
+   *
+   * @param zos The zip stream to write to.
+   * @param hash The hash of the tree to be added.
+   * @param path The path of the tree in the archive, ending in a slash.
+   **/
+  private void zipTree(ZipOutputStream zos, String hash, String path) throws IOException{
+    ZipEntry dir = new ZipEntry(path);
+    dir.setTime(time);
+    zos.putNextEntry(dir);
+    zos.closeEntry();
+    Git.Tree tree = git.tree(hash);
+    if(tree == null){
+      throw new IOException("Missing tree '" + hash + "'");
+    }
+    for(int x = 0; x < tree.entries.length; x++){
+      Git.TreeEntry e = tree.entries[x];
+      switch(e.mode & Git.TreeEntry.MODE_TYPE){
+        case Git.TreeEntry.MODE_TREE :
+          zipTree(zos, e.hash, path + e.name + "/");
+          break;
+        case Git.TreeEntry.MODE_MODULE :
+          /* Submodules are not part of this repository, leave them empty */
+          ZipEntry module = new ZipEntry(path + e.name + "/");
+          module.setTime(time);
+          zos.putNextEntry(module);
+          zos.closeEntry();
+          break;
+        default :
+          ZipEntry file = new ZipEntry(path + e.name);
+          file.setTime(time);
+          zos.putNextEntry(file);
+          blob(zos, e.hash);
+          zos.closeEntry();
+          break;
+      }
+    }
+  }
+
+  /**
+   * tarTree()
+   *
+   * Recursively add the contents of a tree to a tar archive.
+   *
+   * @param os The stream to write to.
+   * @param hash The hash of the tree to be added.
+   * @param path The path of the tree in the archive, ending in a slash.
+   **/
+  private void tarTree(OutputStream os, String hash, String path) throws IOException{
+    Git.Tree tree = git.tree(hash);
+    if(tree == null){
+      throw new IOException("Missing tree '" + hash + "'");
+    }
+    for(int x = 0; x < tree.entries.length; x++){
+      Git.TreeEntry e = tree.entries[x];
+      String name = path + e.name;
+      switch(e.mode & Git.TreeEntry.MODE_TYPE){
+        case Git.TreeEntry.MODE_TREE :
+          tarEntry(os, name + "/", 0755, '5', 0, null);
+          tarTree(os, e.hash, name + "/");
+          break;
+        case Git.TreeEntry.MODE_MODULE :
+          tarEntry(os, name + "/", 0755, '5', 0, null);
+          break;
+        case Git.TreeEntry.MODE_LINK :
+          byte[] link = git.readBlob(e.hash, BUFF_LEN);
+          if(link == null){
+            throw new IOException("Missing blob '" + e.hash + "'");
+          }
+          tarEntry(os, name, 0777, '2', 0, new String(link, StandardCharsets.UTF_8));
+          break;
+        default :
+          Git.Blob b = git.blob(e.hash);
+          if(b == null){
+            throw new IOException("Missing blob '" + e.hash + "'");
+          }
+          tarEntry(os, name, (e.mode & 0111) != 0 ? 0755 : 0644, '0', b.size, null);
+          blob(os, e.hash);
+          /* Pad the file out to a whole block */
+          int pad = (int)((TAR_BLOCK - (b.size % TAR_BLOCK)) % TAR_BLOCK);
+          os.write(new byte[pad]);
+          break;
+      }
+    }
+  }
+
+  /**
+   * tarEntry()
+   *
+   * Write the header for a tar entry. Names and link targets that don't fit
+   * in the header are written to a preceding extended header.
+   *
+   * @param os The stream to write to.
+   * @param name The path of the entry in the archive.
+   * @param mode The permissions of the entry.
+   * @param type The tar type flag of the entry.
+   * @param size The size of the data following the header.
+   * @param link The target of a symbolic link, otherwise NULL.
+   **/
+  private void tarEntry(
+    OutputStream os,
+    String name,
+    int mode,
+    char type,
+    long size,
+    String link
+  ) throws IOException{
+    byte[] n = name.getBytes(StandardCharsets.UTF_8);
+    byte[] l = link != null ? link.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    if(n.length > TAR_NAME_LEN || l.length > TAR_NAME_LEN){
+      StringBuilder pax = new StringBuilder();
+      if(n.length > TAR_NAME_LEN){
+        pax.append(paxRecord("path", name));
+      }
+      if(l.length > TAR_NAME_LEN){
+        pax.append(paxRecord("linkpath", link));
+      }
+      byte[] p = pax.toString().getBytes(StandardCharsets.UTF_8);
+      os.write(tarHeader("pax_header".getBytes(), 0644, 'x', p.length, new byte[0]));
+      os.write(p);
+      os.write(new byte[(TAR_BLOCK - (p.length % TAR_BLOCK)) % TAR_BLOCK]);
+    }
+    os.write(tarHeader(n, mode, type, size, l));
+  }
+
+  /**
+   * paxRecord()
+   *
+   * Format an extended header record, which is prefixed by its own length.
+   *
+   * @param key The record key.
+   * @param value The record value.
+   * @return The formatted record.
+   **/
+  private static String paxRecord(String key, String value){
+    int len = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+    int total = len + Integer.toString(len).length();
+    /* Adding the length may have added another digit */
+    if(Integer.toString(total).length() != Integer.toString(len).length()){
+      total++;
+    }
+    return total + " " + key + "=" + value + "\n";
+  }
+
+  /**
+   * tarHeader()
+   *
+   * Build a single ustar header block.
+   *
+   * @param name The name of the entry, truncated if too long.
+   * @param mode The permissions of the entry.
+   * @param type The tar type flag of the entry.
+   * @param size The size of the data following the header.
+   * @param link The target of a symbolic link, truncated if too long.
+   * @return The header block.
+   **/
+  private byte[] tarHeader(byte[] name, int mode, char type, long size, byte[] link){
+    byte[] h = new byte[TAR_BLOCK];
+    System.arraycopy(name, 0, h, 0, Math.min(name.length, TAR_NAME_LEN));
+    octal(h, 100, 8, mode);
+    octal(h, 108, 8, 0);
+    octal(h, 116, 8, 0);
+    octal(h, 124, 12, size);
+    octal(h, 136, 12, time / 1000);
+    h[156] = (byte)type;
+    System.arraycopy(link, 0, h, 157, Math.min(link.length, TAR_NAME_LEN));
+    System.arraycopy("ustar\u000000".getBytes(), 0, h, 257, 8);
+    /* Checksum is calculated with the checksum field set to spaces */
+    for(int x = 148; x < 156; x++){
+      h[x] = ' ';
+    }
+    long sum = 0;
+    for(int x = 0; x < h.length; x++){
+      sum += h[x] & 0xFF;
+    }
+    octal(h, 148, 7, sum);
+    return h;
+  }
+
+  /**
+   * octal()
+   *
+   * Write a NULL terminated, zero padded octal number into a header.
+   *
+   * @param h The header to write into.
+   * @param off The offset of the field.
+   * @param len The length of the field, including the NULL terminator.
+   * @param val The value to be written.
+   **/
+  private static void octal(byte[] h, int off, int len, long val){
+    for(int x = off + len - 2; x >= off; x--){
+      h[x] = (byte)('0' + (val & 7));
+      val >>>= 3;
+    }
+    h[off + len - 1] = 0;
+  }
+
+  /**
+   * blob()
+   *
+   * Stream the entire contents of a blob.
+   *
+   * @param os The stream to write to.
+   * @param hash The hash of the blob.
+   **/
+  private void blob(OutputStream os, String hash) throws IOException{
+    Git.Blob b = git.blob(hash);
+    if(b == null || git.writeBlob(hash, os, 0, b.size) != b.size){
+      throw new IOException("Unable to read blob '" + hash + "'");
+    }
+  }
+
+  /**
+   * open()
+   *
+   * Open the cached archive of a given commit if there is one.
+   *
+   * @param git The repository the commit belongs to.
+   * @param commit The commit of interest.
+   * @param type The type of archive, either TYPE_ZIP or TYPE_TAR_GZ.
+   * @return The opened archive file, otherwise NULL if not cached.
+   **/
+  public static FileInputStream open(Git git, Git.Commit commit, String type){
+    try{
+      return new FileInputStream(new File(git.cacheDir(), commit.hash + "." + type));
+    }catch(IOException e){
+      return null;
+    }
+  }
+
+  /**
+   * cache()
+   *
+   * Ensure that the archives for the head of a repository are cached on disk,
+   * removing any archives cached for a previous head. Archives are written to
+   * a temporary file first so that a partial archive is never served.
+   *
+   * @param git The repository to be cached.
+   * @param proj The project name.
+   **/
+  public static void cache(Git git, String proj) throws IOException{
+    Git.Commit head = git.getHead();
+    if(head == null){
+      return;
+    }
+    File dir = git.cacheDir();
+    if(!dir.isDirectory() && !dir.mkdirs()){
+      throw new IOException("Unable to create '" + dir + "'");
+    }
+    String[] types = new String[]{ TYPE_ZIP, TYPE_TAR_GZ };
+    for(int x = 0; x < types.length; x++){
+      File f = new File(dir, head.hash + "." + types[x]);
+      if(f.isFile()){
+        continue;
+      }
+      File tmp = new File(dir, head.hash + "." + types[x] + ".tmp");
+      FileOutputStream fos = new FileOutputStream(tmp);
+      try{
+        (new Archive(git, proj, head)).write(types[x], fos);
+      }finally{
+        fos.close();
+      }
+      if(!tmp.renameTo(f)){
+        tmp.delete();
+        throw new IOException("Unable to store '" + f + "'");
+      }
+    }
+    /* Remove archives of older heads */
+    File[] old = dir.listFiles();
+    for(int x = 0; old != null && x < old.length; x++){
+      String n = old[x].getName();
+      if(!n.startsWith(head.hash) && (n.endsWith("." + TYPE_ZIP) || n.endsWith("." + TYPE_TAR_GZ))){
+        old[x].delete();
+      }
+    }
+  }
+
+  /**
+   * transfer()
+   *
+   * Send an opened archive to an output, closing the archive once done. The
+   * output is a stream rather than a socket channel, so the file channel still
+   * copies the archive through a buffer on the heap, but without having to
+   * hold all of it.
+   *
+   * @param fis The opened archive file.
+   * @param os The output stream to write the archive to.
+   **/
+  public static void transfer(FileInputStream fis, OutputStream os) throws IOException{
+    try{
+      FileChannel fc = fis.getChannel();
+      WritableByteChannel out = Channels.newChannel(os);
+      long size = fc.size();
+      long pos = 0;
+      while(pos < size){
+        long n = fc.transferTo(pos, size - pos, out);
+        if(n <= 0){
+          break;
+        }
+        pos += n;
+      }
+    }finally{
+      fis.close();
+    }
+  }
+}
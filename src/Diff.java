@@ -0,0 +1,472 @@
+package b.gp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Diff.java
+ *
+ * Compute the difference between two sequences of lines in process, using
+ * the linear space variant of Myers' O(ND) algorithm. Lines are numbered
+ * first so that only integers are compared, and lines only found on one side
+ * are dropped before searching as they can never be kept. Very different
+ * regions stop searching for the shortest edit after a fixed cost and are
+ * split at the furthest point reached instead.
+ **/
+public class Diff{
+  private static final int COST_MAX = 1024;
+
+  private int[] a;
+  private int[] b;
+  private int[] res;
+  private int[] vf;
+  private int[] vb;
+
+  /**
+   * Diff()
+   *
+   * Prepare to compare two sequences of lines.
+   *
+   * @param a The old lines.
+   * @param b The new lines.
+   **/
+  private Diff(int[] a, int[] b){
+    this.a = a;
+    this.b = b;
+    res = new int[b.length];
+    Arrays.fill(res, -1);
+    int max = (a.length + b.length + 1) / 2 + 2;
+    vf = new int[2 * max + 1];
+    vb = new int[2 * max + 1];
+  }
+
+  /**
+   * match()
+   *
+   * Find a shortest edit between two sequences of lines.
+   *
+   * @param a The old lines.
+   * @param b The new lines.
+   * @return For each new line, the index of the old line it is kept from,
+   * otherwise -1 if it was inserted. Kept lines are in ascending order.
+   **/
+  public static int[] match(String[] a, String[] b){
+    HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    int[] na = number(a, ids);
+    int[] nb = number(b, ids);
+    /* Keep only the lines found on both sides, remembering where they were */
+    boolean[] inA = new boolean[ids.size()];
+    boolean[] inB = new boolean[ids.size()];
+    for(int x = 0; x < na.length; x++){
+      inA[na[x]] = true;
+    }
+    for(int x = 0; x < nb.length; x++){
+      inB[nb[x]] = true;
+    }
+    int[] posA = new int[na.length];
+    int[] posB = new int[nb.length];
+    int lenA = 0;
+    int lenB = 0;
+    for(int x = 0; x < na.length; x++){
+      if(inB[na[x]]){
+        posA[lenA] = x;
+        na[lenA++] = na[x];
+      }
+    }
+    for(int x = 0; x < nb.length; x++){
+      if(inA[nb[x]]){
+        posB[lenB] = x;
+        nb[lenB++] = nb[x];
+      }
+    }
+    Diff d = new Diff(Arrays.copyOf(na, lenA), Arrays.copyOf(nb, lenB));
+    d.lcs(0, lenA, 0, lenB);
+    int[] res = new int[b.length];
+    Arrays.fill(res, -1);
+    for(int x = 0; x < lenB; x++){
+      if(d.res[x] >= 0){
+        res[posB[x]] = posA[d.res[x]];
+      }
+    }
+    return res;
+  }
+
+  /**
+   * unified()
+   *
+   * Write the difference between two sequences of lines as unified diff
+   * hunks.
+   *
+   * @param out The buffer to write the hunks to.
+   * @param a The old lines.
+   * @param b The new lines.
+   * @param context The number of unchanged lines to show around changes.
+   **/
+  public static void unified(StringBuilder out, String[] a, String[] b, int context){
+    unified(out, a, b, context, a, b);
+  }
+
+  /**
+   * unified()
+   *
+   * Write the difference between two sequences of lines as unified diff
+   * hunks, writing each line from a second form of the sequences, such as
+   * the lines rendered as HTML.
+   *
+   * @param out The buffer to write the hunks to.
+   * @param a The old lines.
+   * @param b The new lines.
+   * @param context The number of unchanged lines to show around changes.
+   * @param outA The old lines as written, one per old line.
+   * @param outB The new lines as written, one per new line.
+   **/
+  public static void unified(
+    StringBuilder out,
+    String[] a,
+    String[] b,
+    int context,
+    String[] outA,
+    String[] outB
+  ){
+    int[] mb = match(a, b);
+    int[] ma = new int[a.length];
+    Arrays.fill(ma, -1);
+    for(int x = 0; x < mb.length; x++){
+      if(mb[x] >= 0){
+        ma[mb[x]] = x;
+      }
+    }
+    /* Build the edit script, as old and new index pairs with -1 for none */
+    int[] opA = new int[a.length + b.length];
+    int[] opB = new int[a.length + b.length];
+    int ops = 0;
+    for(int x = 0, y = 0; x < a.length || y < b.length;){
+      if(x < a.length && ma[x] < 0){
+        opA[ops] = x++;
+        opB[ops++] = -1;
+      }else if(y < b.length && mb[y] < 0){
+        opA[ops] = -1;
+        opB[ops++] = y++;
+      }else{
+        opA[ops] = x++;
+        opB[ops++] = y++;
+      }
+    }
+    /* Group changes that are close enough to share context */
+    for(int x = 0; x < ops;){
+      while(x < ops && opA[x] >= 0 && opB[x] >= 0){
+        ++x;
+      }
+      if(x >= ops){
+        break;
+      }
+      int start = Math.max(0, x - context);
+      int end = x;
+      for(int y = x; y < ops; y++){
+        if(opA[y] < 0 || opB[y] < 0){
+          end = y + 1;
+        }else if(y - end >= context * 2){
+          break;
+        }
+      }
+      end = Math.min(ops, end + context);
+      /* Hunk header counts the old and new lines covered */
+      int aStart = -1;
+      int bStart = -1;
+      int aLen = 0;
+      int bLen = 0;
+      for(int y = start; y < end; y++){
+        if(opA[y] >= 0){
+          aStart = aStart < 0 ? opA[y] : aStart;
+          ++aLen;
+        }
+        if(opB[y] >= 0){
+          bStart = bStart < 0 ? opB[y] : bStart;
+          ++bLen;
+        }
+      }
+      out.append("@@ -");
+      out.append(aLen > 0 ? aStart + 1 : hunkStart(opA, start));
+      out.append(aLen != 1 ? "," + aLen : "");
+      out.append(" +");
+      out.append(bLen > 0 ? bStart + 1 : hunkStart(opB, start));
+      out.append(bLen != 1 ? "," + bLen : "");
+      out.append(" @@\n");
+      for(int y = start; y < end; y++){
+        if(opA[y] >= 0 && opB[y] >= 0){
+          out.append(' ');
+          out.append(outB[opB[y]]);
+        }else if(opA[y] >= 0){
+          out.append('-');
+          out.append(outA[opA[y]]);
+        }else{
+          out.append('+');
+          out.append(outB[opB[y]]);
+        }
+        out.append('\n');
+      }
+      x = end;
+    }
+  }
+
+  /**
+   * hunkStart()
+   *
+   * Get the line number a hunk without any lines on one side starts after.
+   *
+   * @param op The indexes of that side of the edit script.
+   * @param start The start of the hunk in the edit script.
+   * @return The line number of the last line before the hunk, otherwise 0.
+   **/
+  private static int hunkStart(int[] op, int start){
+    for(int x = start - 1; x >= 0; x--){
+      if(op[x] >= 0){
+        return op[x] + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * lines()
+   *
+   * Split text into lines, without the line endings.
+   *
+   * @param s The text, otherwise NULL.
+   * @return The lines, a trailing line ending does not start a new line.
+   **/
+  public static String[] lines(String s){
+    if(s == null || s.length() <= 0){
+      return new String[0];
+    }
+    String[] ls = s.split("\n", -1);
+    return s.endsWith("\n") ? Arrays.copyOf(ls, ls.length - 1) : ls;
+  }
+
+  /**
+   * number()
+   *
+   * Give each distinct line a number.
+   *
+   * @param lines The lines.
+   * @param ids The numbers given so far, updated.
+   * @return The number of each line.
+   **/
+  private static int[] number(String[] lines, HashMap<String, Integer> ids){
+    int[] res = new int[lines.length];
+    for(int x = 0; x < lines.length; x++){
+      Integer id = ids.get(lines[x]);
+      if(id == null){
+        id = ids.size();
+        ids.put(lines[x], id);
+      }
+      res[x] = id;
+    }
+    return res;
+  }
+
+  /**
+   * lcs()
+   *
+   * Match the lines of a region, splitting it at the middle snake.
+   *
+   * @param aLo The start of the old region.
+   * @param aHi The end of the old region, exclusive.
+   * @param bLo The start of the new region.
+   * @param bHi The end of the new region, exclusive.
+   **/
+  private void lcs(int aLo, int aHi, int bLo, int bHi){
+    /* Common prefix and suffix need no searching */
+    while(aLo < aHi && bLo < bHi && a[aLo] == b[bLo]){
+      res[bLo++] = aLo++;
+    }
+    while(aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]){
+      res[--bHi] = --aHi;
+    }
+    if(aLo >= aHi || bLo >= bHi){
+      return;
+    }
+    int[] s = snake(aLo, aHi, bLo, bHi);
+    lcs(aLo, s[0], bLo, s[1]);
+    for(int x = s[0], y = s[1]; x < s[2]; x++, y++){
+      res[y] = x;
+    }
+    lcs(s[2], aHi, s[3], bHi);
+  }
+
+  /**
+   * snake()
+   *
+   * Find the middle snake of a region by searching forwards and backwards
+   * at the same time until the paths overlap.
+   *
+   * @param aLo The start of the old region.
+   * @param aHi The end of the old region, exclusive.
+   * @param bLo The start of the new region.
+   * @param bHi The end of the new region, exclusive.
+   * @return The start and end of the snake as absolute old and new indexes.
+   **/
+  private int[] snake(int aLo, int aHi, int bLo, int bHi){
+    int n = aHi - aLo;
+    int m = bHi - bLo;
+    int delta = n - m;
+    boolean odd = (delta & 1) != 0;
+    int max = (n + m + 1) / 2;
+    int off = max + 1;
+    vf[off + 1] = 0;
+    vb[off + 1] = 0;
+    int bestX = 0;
+    int bestY = 0;
+    for(int d = 0; d <= max; d++){
+      /* Too costly, settle for the furthest point reached so far */
+      if(d > COST_MAX){
+        return new int[]{ aLo + bestX, bLo + bestY, aLo + bestX, bLo + bestY };
+      }
+      /* Forward search */
+      for(int k = -d; k <= d; k += 2){
+        int x = k == -d || (k != d && vf[off + k - 1] < vf[off + k + 1]) ?
+          vf[off + k + 1] : vf[off + k - 1] + 1;
+        int y = x - k;
+        int x0 = x;
+        int y0 = y;
+        while(x < n && y < m && a[aLo + x] == b[bLo + y]){
+          ++x;
+          ++y;
+        }
+        vf[off + k] = x;
+        if(x + y > bestX + bestY && x <= n && y >= 0 && y <= m){
+          bestX = x;
+          bestY = y;
+        }
+        if(odd && k >= delta - (d - 1) && k <= delta + (d - 1) && x + vb[off + delta - k] >= n){
+          return new int[]{ aLo + x0, bLo + y0, aLo + x, bLo + y };
+        }
+      }
+      /* Backward search, on the reversed region */
+      for(int k = -d; k <= d; k += 2){
+        int x = k == -d || (k != d && vb[off + k - 1] < vb[off + k + 1]) ?
+          vb[off + k + 1] : vb[off + k - 1] + 1;
+        int y = x - k;
+        int x0 = x;
+        int y0 = y;
+        while(x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]){
+          ++x;
+          ++y;
+        }
+        vb[off + k] = x;
+        if(!odd && delta - k >= -d && delta - k <= d && x + vf[off + delta - k] >= n){
+          return new int[]{ aHi - x, bHi - y, aHi - x0, bHi - y0 };
+        }
+      }
+    }
+    /* Unreachable, the searches always meet */
+    return new int[]{ aLo, bLo, aLo, bLo };
+  }
+
+  /**
+   * assurt()
+   *
+   * A very simple assertion method for testing that the difference isn't
+   * regressing.
+   *
+   * @param r The result to test.
+   * @return Pass through for the result value.
+   **/
+  private static boolean assurt(boolean r){
+    System.out.println(
+      "[" + (r ? "PASS" : "FAIL") + "] " +
+      Thread.currentThread().getStackTrace()[2].getClassName() + "->" +
+      Thread.currentThread().getStackTrace()[2].getMethodName() + "::" +
+      Thread.currentThread().getStackTrace()[2].getLineNumber()
+    );
+    return r;
+  }
+
+  /**
+   * test()
+   *
+   * Test that the difference is valid and as short as possible, by checking
+   * random sequences against a simple dynamic programming solution. The
+   * result of each test and a summary is printed to the standard out, as well
+   * as a boolean indicating test success.
+   *
+   * @return The result of performing the tests, true if success, otherwise
+   * false.
+   **/
+  public static boolean test(){
+    boolean r = true;
+    r &= assurt(Arrays.equals(match(new String[0], new String[]{ "a" }), new int[]{ -1 }));
+    r &= assurt(Arrays.equals(match(new String[]{ "a" }, new String[0]), new int[0]));
+    r &= assurt(Arrays.equals(
+      match(new String[]{ "a", "b", "c" }, new String[]{ "a", "x", "c", "d" }),
+      new int[]{ 0, -1, 2, -1 }
+    ));
+    r &= assurt(Arrays.equals(lines("a\nb\n"), new String[]{ "a", "b" }));
+    r &= assurt(Arrays.equals(lines("a\n\nb"), new String[]{ "a", "", "b" }));
+    r &= assurt(lines("").length == 0);
+    Random rand = new Random(1);
+    boolean ok = true;
+    for(int t = 0; t < 500 && ok; t++){
+      String[] a = new String[rand.nextInt(30)];
+      String[] b = new String[rand.nextInt(30)];
+      for(int x = 0; x < a.length; x++){
+        a[x] = "" + (char)('a' + rand.nextInt(4));
+      }
+      for(int x = 0; x < b.length; x++){
+        b[x] = "" + (char)('a' + rand.nextInt(4));
+      }
+      int[] m = match(a, b);
+      /* Kept lines must be equal and in order */
+      int kept = 0;
+      int last = -1;
+      for(int x = 0; x < m.length; x++){
+        if(m[x] >= 0){
+          ok &= m[x] > last && a[m[x]].equals(b[x]);
+          last = m[x];
+          ++kept;
+        }
+      }
+      /* As many lines must be kept as the longest common subsequence */
+      int[][] dp = new int[a.length + 1][b.length + 1];
+      for(int x = a.length - 1; x >= 0; x--){
+        for(int y = b.length - 1; y >= 0; y--){
+          dp[x][y] = a[x].equals(b[y]) ? dp[x + 1][y + 1] + 1 : Math.max(dp[x + 1][y], dp[x][y + 1]);
+        }
+      }
+      ok &= kept == dp[0][0];
+    }
+    r &= assurt(ok);
+    /* Unified hunks */
+    StringBuilder u = new StringBuilder();
+    unified(u, lines("a\nb\nc\nd\ne\nf\ng\nh\n"), lines("a\nB\nc\nd\ne\nf\ng\nh\ni\n"), 1);
+    r &= assurt(u.toString().equals("@@ -1,3 +1,3 @@\n a\n-b\n+B\n c\n@@ -8 +8,2 @@\n h\n+i\n"));
+    u.setLength(0);
+    unified(u, new String[0], new String[]{ "x" }, 3);
+    r &= assurt(u.toString().equals("@@ -0,0 +1 @@\n+x\n"));
+    u.setLength(0);
+    unified(u, new String[]{ "x" }, new String[]{ "x" }, 3);
+    r &= assurt(u.length() == 0);
+    /* Very different sequences still give a valid result */
+    String[] a = new String[20000];
+    String[] b = new String[20000];
+    for(int x = 0; x < a.length; x++){
+      a[x] = "" + rand.nextInt(100);
+      b[x] = "" + rand.nextInt(100);
+    }
+    int[] m = match(a, b);
+    ok = true;
+    int last = -1;
+    for(int x = 0; x < m.length; x++){
+      if(m[x] >= 0){
+        ok &= m[x] > last && a[m[x]].equals(b[x]);
+        last = m[x];
+      }
+    }
+    r &= assurt(ok);
+    /* Print result */
+    System.out.println("");
+    System.out.println("  Tests " + (r ? "PASSED" : "FAILED"));
+    return r;
+  }
+}
@@ -4,14 +4,25 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.IOException;
-import java.math.BigInteger;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.TimeZone;
-import java.util.zip.DataFormatException;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Git.java
@@ -19,33 +30,17 @@ import java.util.zip.Inflater;
  * Wrapper for the git command line.
  **/
 public class Git{
-  /**
-   * IndexEntry.Git.java
-   *
-   * A data structure for the index entries.
-   **/
-  public class IndexEntry{
-    public long ctime_s;
-    public long ctime_n;
-    public long mtime_s;
-    public long mtime_n;
-    public long dev;
-    public long ino;
-    public long mode;
-    public long uid;
-    public long gid;
-    public long size;
-    public String hash;
-    public int flags;
-    public String path;
-  }
-
   /**
    * TreeEntry.Git.java
    *
    * A data structure for the tree entries.
    **/
   public class TreeEntry{
+    public static final int MODE_TREE = 040000;
+    public static final int MODE_LINK = 0120000;
+    public static final int MODE_MODULE = 0160000;
+    public static final int MODE_TYPE = 0170000;
+
     public int mode;
     public String name;
     public String hash;
@@ -61,15 +56,27 @@ public class Git{
     public TreeEntry[] entries;
   }
 
+  /**
+   * Change.Git.java
+   *
+   * A path that differs between two trees.
+   **/
+  public class Change{
+    public String path;
+    public TreeEntry before;
+    public TreeEntry after;
+  }
+
   /**
    * Commit.Git.java
    *
    * A data structure for the commits.
    **/
   public class Commit{
+    public int id;
     public String hash;
     public String tree;
-    public String parent;
+    public String[] parents;
     public String author;
     public String author_email;
     public Date author_date;
@@ -77,6 +84,8 @@ public class Git{
     public String commit_email;
     public Date commit_date;
     public String subject;
+    /* Raw message, only held until the commit has been indexed */
+    public String message;
   }
 
   /**
@@ -85,66 +94,508 @@ public class Git{
    * A data structure for the blobs.
    **/
   public class Blob{
-    /* TODO: Figure out valid blob structure. */
+    public String hash;
+    public long size;
+  }
+
+  /**
+   * ObjectStream.Git.java
+   *
+   * Stream the contents of a loose object. The object header is read on
+   * creation so that the type is known before any of the body is inflated, the
+   * body is then only inflated as it is read. The inflater is borrowed from a
+   * shared pool and returned when the stream is closed.
+   **/
+  private static class ObjectStream extends InflaterInputStream{
+    public String type;
+    public long size;
+    private boolean open;
+
+    /**
+     * ObjectStream()
+     *
+     * Open a loose object and read the object header.
+     *
+     * @param file The loose object file to be read.
+     **/
+    public ObjectStream(File file) throws IOException{
+      super(new FileInputStream(file), inflaterGet(), GIT_BUFF_LEN);
+      open = true;
+      try{
+        /* Read the header up until the NULL character */
+        byte[] head = new byte[GIT_HEAD_MAX];
+        int len = 0;
+        for(int b = read(); b > 0; b = read()){
+          if(len >= head.length){
+            throw new IOException("Object header too long");
+          }
+          head[len++] = (byte)b;
+        }
+        /* Parse the header */
+        int split = indexOf(head, 0, len, (byte)' ');
+        if(split < 0){
+          throw new IOException("Bad object header");
+        }
+        type = new String(head, 0, split);
+        try{
+          size = Long.parseLong(new String(head, split + 1, len - split - 1));
+        }catch(NumberFormatException e){
+          throw new IOException("Bad object size");
+        }
+      }catch(IOException e){
+        /* Corrupt or truncated objects still return the inflater */
+        close();
+        throw e;
+      }
+    }
+
+    /**
+     * readBody()
+     *
+     * Inflate the entire body of the object into memory.
+     *
+     * @return The body of the object.
+     **/
+    public byte[] readBody() throws IOException{
+      if(size > Integer.MAX_VALUE){
+        throw new IOException("Object too large to be read into memory");
+      }
+      byte[] body = new byte[(int)size];
+      int ptr = 0;
+      while(ptr < body.length){
+        int len = read(body, ptr, body.length - ptr);
+        if(len < 0){
+          throw new IOException("Object body truncated");
+        }
+        ptr += len;
+      }
+      return body;
+    }
+
+    /**
+     * close()
+     *
+     * Close the underlying file and return the inflater to the pool.
+     **/
+    @Override
+    public void close() throws IOException{
+      if(open){
+        open = false;
+        super.close();
+        inflaterPut(inf);
+      }
+    }
+  }
+
+  /**
+   * ObjectSet.Git.java
+   *
+   * A collection of parsed objects, used to gather the results of ingestion
+   * tasks before they are merged.
+   **/
+  private class ObjectSet{
+    public HashMap<String, Tree> trees = new HashMap<String, Tree>();
+    public HashMap<String, Commit> commits = new HashMap<String, Commit>();
+    public HashMap<String, Blob> blobs = new HashMap<String, Blob>();
+    public HashMap<String, String> tags = new HashMap<String, String>();
+
+    /**
+     * merge()
+     *
+     * Merge another set of objects into this set.
+     *
+     * @param o The set of objects to be merged in.
+     **/
+    public void merge(ObjectSet o){
+      trees.putAll(o.trees);
+      commits.putAll(o.commits);
+      blobs.putAll(o.blobs);
+      tags.putAll(o.tags);
+    }
+  }
+
+  /**
+   * ObjectTask.Git.java
+   *
+   * Read a range of the loose object fan-out directories. Each directory is
+   * independent, so the range is split until a single directory remains and
+   * the results are merged on the way back up.
+   **/
+  private class ObjectTask extends RecursiveTask<ObjectSet>{
+    private static final long serialVersionUID = 1L;
+
+    private File[] dirs;
+    private int start;
+    private int end;
+
+    /**
+     * ObjectTask()
+     *
+     * Setup the task for a range of fan-out directories.
+     *
+     * @param dirs The list of all fan-out directories.
+     * @param start The first directory to be read (inclusive).
+     * @param end The last directory to be read (exclusive).
+     **/
+    public ObjectTask(File[] dirs, int start, int end){
+      this.dirs = dirs;
+      this.start = start;
+      this.end = end;
+    }
+
+    /**
+     * compute()
+     *
+     * Read the objects in this range, splitting the work if required.
+     *
+     * @return The objects found in this range.
+     **/
+    @Override
+    protected ObjectSet compute(){
+      /* Read a single directory directly */
+      if(end - start <= 1){
+        ObjectSet set = new ObjectSet();
+        if(start < end){
+          readObjects(dirs[start], set);
+        }
+        return set;
+      }
+      /* Otherwise split the work in half */
+      int mid = (start + end) >>> 1;
+      ObjectTask left = new ObjectTask(dirs, start, mid);
+      left.fork();
+      ObjectSet set = (new ObjectTask(dirs, mid, end)).compute();
+      set.merge(left.join());
+      return set;
+    }
+  }
+
+  /**
+   * History.Git.java
+   *
+   * The history of a reference in git log order, stored as a flat array of
+   * commit IDs so that any page is a direct slice. Commits are walked once with
+   * a priority queue ordered by commit date, newest first.
+   **/
+  private class History{
+    /**
+     * Entry.History.Git.java
+     *
+     * A queued commit, remembering the order it was queued in so that commits
+     * with the same date come out in the same order as git log.
+     **/
+    private class Entry{
+      public Commit commit;
+      public long time;
+      public int seq;
+    }
+
+    public Commit[] table;
+    public int[] order;
+    public boolean[] seen;
+
+    /**
+     * History()
+     *
+     * Walk the entire history from a given commit.
+     *
+     * @param table The commits of the snapshot, indexed by ID.
+     * @param commits The commits of the snapshot, indexed by hash.
+     * @param hash The commit to begin walking from.
+     **/
+    public History(Commit[] table, HashMap<String, Commit> commits, String hash){
+      this.table = table;
+      PriorityQueue<Entry> queue = new PriorityQueue<Entry>(GIT_PAGE_SIZE, new Comparator<Entry>(){
+        public int compare(Entry a, Entry b){
+          if(a.time != b.time){
+            return a.time < b.time ? 1 : -1;
+          }
+          return a.seq - b.seq;
+        }
+      });
+      seen = new boolean[table.length];
+      int[] res = new int[GIT_PAGE_SIZE];
+      int len = 0;
+      int seq = 0;
+      /* Seed the walk */
+      Commit c = hash != null ? commits.get(hash) : null;
+      if(c != null){
+        seen[c.id] = true;
+        queue.add(entry(c, seq++));
+      }
+      /* Walk until we run out */
+      while(queue.size() > 0){
+        c = queue.poll().commit;
+        if(len >= res.length){
+          res = Arrays.copyOf(res, res.length * 2);
+        }
+        res[len++] = c.id;
+        for(int x = 0; x < c.parents.length; x++){
+          Commit p = commits.get(c.parents[x]);
+          if(p != null && !seen[p.id]){
+            seen[p.id] = true;
+            queue.add(entry(p, seq++));
+          }
+        }
+      }
+      order = Arrays.copyOf(res, len);
+    }
+
+    /**
+     * entry()
+     *
+     * Create a queue entry for a commit.
+     *
+     * @param c The commit to be queued.
+     * @param seq The order the commit was queued in.
+     * @return The queue entry.
+     **/
+    private Entry entry(Commit c, int seq){
+      Entry e = new Entry();
+      e.commit = c;
+      e.time = c.commit_date != null ? c.commit_date.getTime() : 0;
+      e.seq = seq;
+      return e;
+    }
+
+    /**
+     * get()
+     *
+     * Get a range of the history.
+     *
+     * @param start The offset of the first commit.
+     * @param res The array to fill with commits, left NULL past the end.
+     **/
+    public void get(int start, Commit[] res){
+      for(int x = 0; x < res.length && start + x < order.length; x++){
+        res[x] = table[order[start + x]];
+      }
+    }
   }
 
   private static final int GIT_MAX_INPUT = 256 * 256;
+  private static final int GIT_BUFF_LEN = 4096;
+  private static final int GIT_HEAD_MAX = 32;
+  private static final int GIT_INFLATER_MAX = 64;
+  private static final int GIT_STREAM_LEN = 64 * 1024;
+  private static final int GIT_BLOB_CACHE_ITEM = 256 * 1024;
+  private static final long GIT_BLOB_CACHE_MAX = 16 * 1024 * 1024;
+  private static final int GIT_BLAME_MAX = 1024 * 1024;
+  private static final long GIT_BLAME_CACHE_MAX = 1024 * 1024;
   private static final int GIT_HASH_DIGEST_RAW = 20;
   private static final int GIT_HASH_DIGEST_STR = 40;
-  private static final int GIT_INDEX_VAR_LEN = 4;
   private static final int GIT_INDEX_INT_LEN = 2;
-  private static final int GIT_INDEX_ENTRY_LEN = (GIT_INDEX_VAR_LEN * 10) +
-                                                  GIT_HASH_DIGEST_RAW     +
-                                                  GIT_INDEX_VAR_LEN;
   private static final int GIT_PAGE_SIZE = 16;
-  private static final int GIT_PAGE_MAX = 256 * 256;
+  private static final int GIT_SYMREF_MAX = 4;
+  private static final int GIT_PEEL_MAX = 4;
+  private static final int STATE_IDLE = 0;
+  private static final int STATE_LOADING = 1;
+  private static final int STATE_READY = 2;
+
+  private static ArrayList<Inflater> inflaters = new ArrayList<Inflater>();
 
   private File dir;
+  private File gitDir;
   private boolean pull;
-  private long lastUpdate;
-  private IndexEntry[] entries;
-  private HashMap<String, String> refs;
-  private HashMap<String, Tree> trees;
-  private HashMap<String, Commit> commits;
-  private HashMap<String, Blob> blobs;
-  private ArrayList<Commit> pages;
+  private ExecutorService loader;
+  private volatile long lastUpdate;
+  private volatile long lastAccess;
+  private volatile int state;
+  private volatile TreeMap<String, String> refs;
+  private volatile String headRef;
+  private volatile HashMap<String, Tree> trees;
+  private volatile HashMap<String, Commit> commits;
+  private volatile Commit[] table;
+  private volatile HashMap<String, Blob> blobs;
+  private HashMap<String, History> histories;
+  private LinkedHashMap<String, byte[]> blobCache;
+  private long blobCacheSize;
+  private Search search;
+  private Search pathIndex;
+  private Stats stats;
+  private LinkedHashMap<String, String[]> blameCache;
+  private long blameCacheSize;
 
   /**
    * Git()
    *
-   * Initialize the Git class and setup Git for read-only operations.
+   * Initialize the Git class and setup Git for read-only operations. The
+   * repository is registered cheaply and not read until activate() is called.
    *
    * @param dir The directory of the Git repository.
    * @param pull Whether this Git repository should pull when requested to do
    * so.
+   * @param loader The pool used to load the repository when activated.
    **/
-  public Git(File dir, boolean pull){
+  public Git(File dir, boolean pull, ExecutorService loader){
     /* Store variables internally */
     this.dir = dir;
+    /* Bare repositories hold the git data in the directory itself */
+    File dotGit = new File(dir, ".git");
+    this.gitDir = dotGit.isDirectory() ? dotGit : dir;
     this.pull = pull;
+    this.loader = loader;
     /* Initialize once */
     this.lastUpdate = System.currentTimeMillis();
-    this.entries = null;
-    this.refs = new HashMap<String, String>();
-    this.trees = new HashMap<String, Tree>();
-    this.commits = new HashMap<String, Commit>();
-    this.blobs = new HashMap<String, Blob>();
-    this.pages = null;
-    unpack();
-    update();
+    this.lastAccess = lastUpdate;
+    this.state = STATE_IDLE;
+    clear();
+  }
+
+  /**
+   * activate()
+   *
+   * Mark the repository as in use and, if it isn't already in memory, start
+   * loading it in the background.
+   **/
+  public synchronized void activate(){
+    lastAccess = System.currentTimeMillis();
+    if(state == STATE_IDLE){
+      state = STATE_LOADING;
+      loader.submit(new Runnable(){
+        public void run(){
+          load();
+        }
+      });
+    }
+  }
+
+  /**
+   * touch()
+   *
+   * Mark the repository as in use without loading it.
+   **/
+  public void touch(){
+    lastAccess = System.currentTimeMillis();
+  }
+
+  /**
+   * evict()
+   *
+   * Release the RAM state of the repository if it has not been used for a
+   * given amount of time. It will be loaded again on next activation.
+   *
+   * @param idle The time in milliseconds the repository must be idle for.
+   * @return True if the repository was evicted, otherwise false.
+   **/
+  public synchronized boolean evict(long idle){
+    if(state != STATE_READY || System.currentTimeMillis() - lastAccess < idle){
+      return false;
+    }
+    state = STATE_IDLE;
+    clear();
+    return true;
+  }
+
+  /**
+   * ready()
+   *
+   * Check whether the repository has been loaded.
+   *
+   * @return True if the repository is loaded, otherwise false.
+   **/
+  public boolean ready(){
+    return state == STATE_READY;
+  }
+
+  /**
+   * loading()
+   *
+   * Check whether the repository is currently being loaded.
+   *
+   * @return True if the repository is loading, otherwise false.
+   **/
+  public boolean loading(){
+    return state == STATE_LOADING;
+  }
+
+  /**
+   * load()
+   *
+   * Unpack and read the repository. This is an expensive operation and is run
+   * on the loader pool, the repository reports itself as ready once complete.
+   * A failed load drops whatever was partially read and returns to idle, so
+   * that the next activation tries again.
+   **/
+  private void load(){
+    long start = System.currentTimeMillis();
+    try{
+      unpack();
+      read();
+    }catch(Exception e){
+      Main.warn("Failed to load '" + dir + "'");
+      synchronized(this){
+        clear();
+        state = STATE_IDLE;
+      }
+      return;
+    }
+    synchronized(this){
+      state = STATE_READY;
+    }
+    Main.log(
+      "Loaded '" + dir + "' in " + (System.currentTimeMillis() - start) + "ms"
+    );
+  }
+
+  /**
+   * clear()
+   *
+   * Reset the RAM state of the repository to be empty.
+   **/
+  private void clear(){
+    refs = new TreeMap<String, String>();
+    headRef = null;
+    trees = new HashMap<String, Tree>();
+    commits = new HashMap<String, Commit>();
+    table = new Commit[0];
+    blobs = new HashMap<String, Blob>();
+    histories = new HashMap<String, History>();
+    /* Blobs never change, but are released with the rest of the state */
+    blobCache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    blobCacheSize = 0;
+    search = new Search();
+    pathIndex = new Search();
+    stats = new Stats();
+    blameCache = new LinkedHashMap<String, String[]>(16, 0.75f, true);
+    blameCacheSize = 0;
   }
 
   /**
    * update()
    *
    * Update the RAM state of the repository. This is an expensive operation and
-   * should only be called after a pull.
+   * should only be called after a pull. If the repository is not in memory, it
+   * is only marked as changed. If reading fails the partial state is dropped
+   * and the repository is loaded again on next activation.
    **/
   public void update(){
-    readIndex();
-    readRefs(new File(dir.getAbsolutePath() + "/.git/refs"), "");
+    if(ready()){
+      try{
+        read();
+      }catch(RuntimeException e){
+        synchronized(this){
+          clear();
+          state = STATE_IDLE;
+        }
+        lastUpdate = System.currentTimeMillis();
+        throw e;
+      }
+    }else{
+      lastUpdate = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * read()
+   *
+   * Read the RAM state of the repository from disk.
+   **/
+  private void read(){
+    readRefs();
     readObjects();
-    readPages(commits.get(refs.get("heads_master")));
+    readIndexes();
+    histories = new HashMap<String, History>();
     lastUpdate = System.currentTimeMillis();
   }
 
@@ -166,7 +617,7 @@ public class Git{
    * to save space, but this really slows down searching.
    **/
   private void unpack(){
-    File d = new File(dir.getAbsolutePath() + "/.git/objects/pack");
+    File d = new File(gitDir.getAbsolutePath() + "/objects/pack");
     /* Make sure it's readable */
     if(d.exists() && d.isDirectory() && d.canRead()){
       Main.log("Unpacking required for '" + dir + "'");
@@ -190,489 +641,1240 @@ public class Git{
     }else{
       Main.log("Didn't find any objects to unpack");
     }
-    /* Refs can only be unpacked with help from remote */
-    if(pull){
-      Main.log("Unpacking refs for '" + dir + "'");
-      /* Get a list of tags */
-      String[] tags = new String(exec(new String[]{"git", "tag", "-l"})).split("\n");
-      /* Loop over tags and delete them */
-      for(int x = 0; x < tags.length; x++){
-        exec(new String[]{"git", "tag", "-d", tags[x]});
-      }
-      /* Pull tags from remote */
-      exec(new String[]{"git", "fetch", "--tags"});
-    }else{
-      Main.log("Unable to unpack refs for '" + dir + "'");
-    }
   }
 
   /**
-   * readIndex()
+   * readRefs()
    *
-   * Read the Git index and update the entries list.
+   * Read the packed and loose references into a sorted table, loose
+   * references taking priority. Symbolic references, including HEAD, are
+   * resolved to the hash they point at.
    **/
-  private void readIndex(){
-    entries = null;
-    /* Attempt to read the index */
-    int dataPtr = 0;
-    byte[] data = readFile(new File(dir.getAbsolutePath() + "/.git/index"), -1);
-    /* Make sure we read something and it seems valid */
-    if(data == null || data.length < GIT_INDEX_VAR_LEN * 3){
-      Main.warn("Unable to load git index");
-      return;
+  private void readRefs(){
+    TreeMap<String, String> table = new TreeMap<String, String>();
+    HashMap<String, String> symbolic = new HashMap<String, String>();
+    /* Read packed references first */
+    byte[] packed = readFile(new File(gitDir.getAbsolutePath() + "/packed-refs"), -1);
+    if(packed != null){
+      String[] lines = new String(packed).split("\n");
+      String last = null;
+      for(int x = 0; x < lines.length; x++){
+        /* Skip comments and anything too short */
+        if(lines[x].length() <= GIT_HASH_DIGEST_STR || lines[x].charAt(0) == '#'){
+          continue;
+        }
+        /* Peeled annotated tags point at the commit instead */
+        if(lines[x].charAt(0) == '^'){
+          String peeled = lines[x].substring(1, GIT_HASH_DIGEST_STR + 1);
+          if(last != null && validCommit(peeled)){
+            table.put(last, peeled);
+          }
+          continue;
+        }
+        String hash = lines[x].substring(0, GIT_HASH_DIGEST_STR);
+        last = lines[x].substring(GIT_HASH_DIGEST_STR + 1).trim();
+        if(validCommit(hash)){
+          table.put(last, hash);
+        }
+      }
     }
-    /* Get header variable signature */
-    String sig = new String(data, dataPtr, GIT_INDEX_VAR_LEN);
-    dataPtr += GIT_INDEX_VAR_LEN;
-    /* Get header variable version */
-    long ver = getLong(data, dataPtr);
-    dataPtr += GIT_INDEX_VAR_LEN;
-    /* Get header variable entry number */
-    long num = getLong(data, dataPtr);
-    dataPtr += GIT_INDEX_VAR_LEN;
-    /* Check the header data */
-    if(!sig.equals("DIRC") || ver != 2){
-      Main.warn("Bad index signature or version");
-      return;
+    /* Loose references override packed ones */
+    readRefs(new File(gitDir.getAbsolutePath() + "/refs"), "refs", table, symbolic);
+    readRefs(new File(gitDir.getAbsolutePath() + "/HEAD"), "HEAD", table, symbolic);
+    /* Resolve symbolic references, allowing for a short chain */
+    String head = symbolic.get("HEAD");
+    for(int x = 0; x < GIT_SYMREF_MAX && symbolic.size() > 0; x++){
+      for(String name : symbolic.keySet().toArray(new String[0])){
+        String target = symbolic.get(name);
+        if(table.containsKey(target)){
+          table.put(name, table.get(target));
+          symbolic.remove(name);
+        }
+      }
     }
-    /* Search for the entries */
-    entries = new IndexEntry[(int)num];
-    int ePtr = 0;
-    while(
-      dataPtr + GIT_INDEX_ENTRY_LEN < data.length - GIT_HASH_DIGEST_RAW &&
-      ePtr < num
-    ){
-      entries[ePtr] = new IndexEntry();
-      int entryStart = dataPtr;
-      /* Read standard entry header */
-      entries[ePtr].ctime_s = getLong(data, dataPtr);
-      dataPtr += GIT_INDEX_VAR_LEN;
-      entries[ePtr].ctime_n = getLong(data, dataPtr);
-      dataPtr += GIT_INDEX_VAR_LEN;
-      entries[ePtr].mtime_s = getLong(data, dataPtr);
-      dataPtr += GIT_INDEX_VAR_LEN;
-      entries[ePtr].mtime_n = getLong(data, dataPtr);
-      dataPtr += GIT_INDEX_VAR_LEN;
-      entries[ePtr].dev = getLong(data, dataPtr);
-      dataPtr += GIT_INDEX_VAR_LEN;
-      entries[ePtr].ino = getLong(data, dataPtr);
-      dataPtr += GIT_INDEX_VAR_LEN;
-      entries[ePtr].mode = getLong(data, dataPtr);
-      dataPtr += GIT_INDEX_VAR_LEN;
-      entries[ePtr].uid = getLong(data, dataPtr);
-      dataPtr += GIT_INDEX_VAR_LEN;
-      entries[ePtr].gid = getLong(data, dataPtr);
-      dataPtr += GIT_INDEX_VAR_LEN;
-      entries[ePtr].size = getLong(data, dataPtr);
-      dataPtr += GIT_INDEX_VAR_LEN;
-      entries[ePtr].hash = getHashRaw(data, dataPtr);
-      dataPtr += GIT_HASH_DIGEST_RAW;
-      entries[ePtr].flags = getShort(data, dataPtr);
-      dataPtr += GIT_INDEX_INT_LEN;
-      entries[ePtr].path = PageBuilder.sanitize(getString(data, dataPtr, '\0'));
-      dataPtr += entries[ePtr].path.length();
-      /* Finally, increase the counter */
-      ++ePtr;
-      int entryLen = dataPtr - entryStart;
-      dataPtr += (((entryLen + 8) >> 3) << 3) - entryLen;
-    }
-    /* Check that we loaded all the entries correctly */
-    if(ePtr != num){
-      Main.warn("Bad number of entries expected: " + num + ", got: " + ePtr);
-    }
-    /* Get digest */
-    String dig = getHashRaw(data, (data.length - 1) - GIT_HASH_DIGEST_RAW);
+    /* Swap in the new table */
+    refs = table;
+    headRef = head;
   }
 
   /**
    * readRefs()
    *
-   * Recursively read the references and store in a mapping.
+   * Recursively read the loose references and store in a mapping.
    *
-   * @param d The directory to read for references.
-   * @param pre The string prefix for the reference.
+   * @param d The file or directory to read for references.
+   * @param name The full name of the reference.
+   * @param table The table to store direct references in.
+   * @param symbolic The table to store symbolic references in.
    **/
-  private void readRefs(File d, String pre){
+  private void readRefs(
+    File d,
+    String name,
+    TreeMap<String, String> table,
+    HashMap<String, String> symbolic
+  ){
     /* Make sure it's readable */
     if(d.exists() && d.canRead()){
       /* Do we need to keep searching? */
       if(d.isDirectory()){
         File[] childs = d.listFiles();
-        for(int x = 0; x < childs.length; x++){
-          readRefs(childs[x], d.getName() + '_');
+        for(int x = 0; childs != null && x < childs.length; x++){
+          readRefs(childs[x], name + "/" + childs[x].getName(), table, symbolic);
         }
       /* Found a reference, add it */
       }else{
         byte data[] = readFile(d, -1);
-        refs.put(pre + d.getName(), getHash(data, 0));
+        if(data == null){
+          return;
+        }
+        String ref = new String(data).trim();
+        if(ref.startsWith("ref: ")){
+          symbolic.put(name, ref.substring(5).trim());
+        }else if(validCommit(ref)){
+          table.put(name, ref);
+        }
       }
     }else{
       Main.warn("Unable to read reference '" + d.toString() + "'");
     }
   }
 
-
   /**
    * readObjects()
    *
-   * Read the objects and update their respective lists.
+   * Read the objects and update their respective lists. The fan-out
+   * directories are read in parallel and merged once all have completed.
    **/
   private void readObjects(){
-    /* Setup common variables */
-    byte[] buff = new byte[GIT_MAX_INPUT];
-    /* Get list of objects and loop over them */
-    File[] objectsPre = new File(dir.getAbsolutePath() + "/.git/objects").listFiles();
-    for(int x = 0; x < objectsPre.length; x++){
-      File d = objectsPre[x];
-      /* Make sure we have something valid */
-      if(d.exists() && d.isDirectory() && d.canRead() && d.getName().length() == 2){
-        String pre = d.getName();
-        /* Now loop over actual objects */
-        File[] objectsPost = d.listFiles();
-        for(int y = 0; y < objectsPost.length; y++){
-          File o = objectsPost[y];
-          /* Make sure we have a valid file now */
-          if(o.exists() && o.isFile() && o.canRead()){
-            String objectHash = pre + o.getName();
-            byte[] data = readFile(o, -1);
-            /* Decompress the object */
-            Inflater decomp = new Inflater();
-            decomp.setInput(data);
-            int len = 0;
-            try{
-              len = decomp.inflate(buff);
-            }catch(DataFormatException e){
-              Main.warn("Error whilst decompressing data");
-            }
-            /* Check if we finished */
-            if(!decomp.finished()){
-              Main.warn("Decompression failed, object too long");
-              Main.log("Bad hash '" + objectHash + "'");
-            }
-            /* Parse the object */
-            int buffPtr = 0;
-            String type = getString(buff, buffPtr, ' ');
-            buffPtr += type.length() + 1;
-            String num = getString(buff, buffPtr, '\0');
-            buffPtr += num.length() + 1;
-            switch(type){
-              case "tree" :
-                Tree t = new Tree();
-                t.hash = objectHash;
-                /* Check we have the minimum for another loop */
-                ArrayList<TreeEntry> teArr = new ArrayList<TreeEntry>();
-                while(buffPtr + GIT_INDEX_INT_LEN < len && buffPtr < buff.length){
-                  TreeEntry te = new TreeEntry();
-                  /* Read entry */
-                  String mode = getString(buff, buffPtr, ' ');
-                  buffPtr += mode.length() + 1;
-                  te.mode = Integer.parseInt(mode, 8);
-                  te.name = PageBuilder.sanitize(getString(buff, buffPtr, '\0'));
-                  buffPtr += te.name.length() + 1;
-                  te.hash = getHashRaw(buff, buffPtr);
-                  buffPtr += GIT_HASH_DIGEST_RAW;
-                  /* Store entry */
-                  teArr.add(te);
-                }
-                /* Store tree entries in tree and add tree to map */
-                t.entries = teArr.toArray(new TreeEntry[0]);
-                trees.put(t.hash, t);
-                break;
-              case "commit" :
-                Commit c = new Commit();
-                c.hash = objectHash;
-                /* Read header values until blank line */
-                while(buffPtr < len && buffPtr < buff.length){
-                  /* Read entire line and skip it */
-                  String line = getString(buff, buffPtr, '\n');
-                  buffPtr += line.length() + 1;
-                  /* Check if blank line found, go to next stage */
-                  if(line.length() <= 0){
-                    break;
-                  }
-                  /* Get line label */
-                  String label = getString(line.getBytes(), 0, ' ');
-                  line = line.substring(label.length() + 1);
-                  /* Figure out which header value we process */
-                  switch(label){
-                    case "tree" :
-                      c.tree = line;
-                      break;
-                    case "parent" :
-                      c.parent = line;
-                      break;
-                    case "author" :
-                      c.author = PageBuilder.sanitize(
-                        line.substring(0, line.indexOf('<') - 1)
-                      );
-                      c.author_email = PageBuilder.sanitize(line.substring(
-                        line.indexOf('<') + 1, line.indexOf('>')
-                      ));
-                      Calendar aCal = Calendar.getInstance(
-                        TimeZone.getTimeZone(line.substring(line.lastIndexOf(' ')))
-                      );
-                      aCal.setTimeInMillis(
-                        Long.parseLong(
-                          line.substring(line.indexOf('>') + 2,
-                          line.lastIndexOf(' ')
-                        )
-                      ) * 1000L);
-                      c.author_date = aCal.getTime();
-                      break;
-                    case "committer" :
-                      c.commit = PageBuilder.sanitize(
-                        line.substring(0, line.indexOf('<') - 1)
-                      );
-                      c.commit_email = PageBuilder.sanitize(line.substring(
-                        line.indexOf('<') + 1, line.indexOf('>')
-                      ));
-                      Calendar cCal = Calendar.getInstance(
-                        TimeZone.getTimeZone(line.substring(line.lastIndexOf(' ')))
-                      );
-                      cCal.setTimeInMillis(
-                        Long.parseLong(
-                          line.substring(line.indexOf('>') + 2,
-                          line.lastIndexOf(' ')
-                        )
-                      ) * 1000L);
-                      c.commit_date = cCal.getTime();
-                      break;
-                  }
-                }
-                /* Set the subject and store the commit */
-                c.subject = PageBuilder.sanitize(getString(buff, buffPtr, '\n'));
-                commits.put(c.hash, c);
-                break;
-              case "blob" :
-                /* TODO: Implement blobs. */
-                break;
-              default :
-                Main.warn("Unknown object type");
-                break;
-            }
-          }
-        }
-      }
+    /* Get list of object directories */
+    File[] objectsPre = new File(gitDir.getAbsolutePath() + "/objects").listFiles();
+    if(objectsPre == null){
+      Main.warn("Unable to read objects for '" + dir + "'");
+      return;
     }
+    /* Read them across the pool and swap in the result */
+    ObjectSet set = ForkJoinPool.commonPool().invoke(
+      new ObjectTask(objectsPre, 0, objectsPre.length)
+    );
+    /* Assign each commit an ID, so history can be stored as primitive arrays */
+    Commit[] t = set.commits.values().toArray(new Commit[0]);
+    for(int x = 0; x < t.length; x++){
+      t[x].id = x;
+    }
+    trees = set.trees;
+    commits = set.commits;
+    table = t;
+    blobs = set.blobs;
+    peelRefs(set.tags);
   }
 
   /**
-   * readPages()
+   * peelRefs()
    *
-   * Pre-compute the location of pages for this git repository.
+   * Point references to annotated tags at the commit they tag instead.
+   * Packed references are usually peeled already, loose ones never are.
    *
-   * @param commit The starting commit to begin generating pages from.
+   * @param tags The object each annotated tag points at, indexed by hash.
    **/
-  private void readPages(Commit commit){
-    pages = new ArrayList<Commit>();
-    /* Keep going until all hashes found or we exhaust resources */
-    for(int x = 0; commit != null && x < GIT_PAGE_MAX; x++){
-      /* Save this page */
-      pages.add(commit);
-      /* Jump forward */
-      for(int i = 0; commit != null && i < GIT_PAGE_SIZE; i++){
-        commit = commits.get(commit.parent);
+  private void peelRefs(HashMap<String, String> tags){
+    if(tags.size() <= 0){
+      return;
+    }
+    TreeMap<String, String> table = new TreeMap<String, String>(refs);
+    for(Map.Entry<String, String> e : table.entrySet()){
+      String hash = e.getValue();
+      /* Tags of tags are allowed, follow a short chain */
+      for(int x = 0; x < GIT_PEEL_MAX && tags.containsKey(hash); x++){
+        hash = tags.get(hash);
       }
+      e.setValue(hash);
     }
+    refs = table;
   }
 
   /**
-   * getString()
+   * readObjects()
    *
-   * Get a String value from a raw data stream.
+   * Read the objects in a single fan-out directory.
    *
-   * @param data The data buffer to be read.
-   * @param i The offset into the data stream to be converted.
-   * @param d The delimiting character.
-   * @return The String value retrieved.
+   * @param d The fan-out directory to be read.
+   * @param set The set to store the parsed objects in.
    **/
-  private static String getString(byte[] data, int i, char d){
-    int e = i;
-    while(e < data.length && data[e] != d){
-      ++e;
+  private void readObjects(File d, ObjectSet set){
+    /* Make sure we have something valid */
+    if(d.exists() && d.isDirectory() && d.canRead() && d.getName().length() == 2){
+      String pre = d.getName();
+      /* Now loop over actual objects */
+      File[] objectsPost = d.listFiles();
+      for(int y = 0; objectsPost != null && y < objectsPost.length; y++){
+        File o = objectsPost[y];
+        /* Make sure we have a valid file now */
+        if(o.exists() && o.isFile() && o.canRead()){
+          readObject(pre + o.getName(), o, set);
+        }
+      }
     }
-    return new String(data, i, e - i);
   }
 
   /**
-   * getShort()
+   * readObject()
    *
-   * Get a short value from a raw data stream.
+   * Read a single loose object and store it in the relevant list. Only the
+   * object header is needed to decide what to do, so blob bodies are never
+   * inflated here. Objects that cannot be read or parsed are skipped.
    *
-   * @param data The data buffer to be read.
-   * @param i The offset into the data stream to be converted.
-   * @return The short value retrieved.
+   * @param objectHash The hash of the object.
+   * @param o The loose object file.
+   * @param set The set to store the parsed object in.
    **/
-  private static int getShort(byte[] data, int i){
-    byte[] var = new byte[GIT_INDEX_INT_LEN];
-    System.arraycopy(data, i, var, 0, GIT_INDEX_INT_LEN);
-    return new BigInteger(1, var).intValue();
+  private void readObject(String objectHash, File o, ObjectSet set){
+    ObjectStream os = null;
+    try{
+      os = new ObjectStream(o);
+      switch(os.type){
+        case "tree" :
+          Tree t = readTree(objectHash, os.readBody());
+          set.trees.put(t.hash, t);
+          break;
+        case "commit" :
+          Commit c = readCommit(objectHash, os.readBody());
+          set.commits.put(c.hash, c);
+          break;
+        case "blob" :
+          Blob b = new Blob();
+          b.hash = objectHash;
+          b.size = os.size;
+          set.blobs.put(b.hash, b);
+          break;
+        case "tag" :
+          /* Remember what annotated tags point at, to peel references */
+          byte[] body = os.readBody();
+          String target = body.length > 7 ? getString(body, 7, '\n') : "";
+          if(new String(body, 0, Math.min(7, body.length)).equals("object ") && validCommit(target)){
+            set.tags.put(objectHash, target);
+          }
+          break;
+        default :
+          Main.warn("Unknown object type");
+          break;
+      }
+    }catch(IOException e){
+      Main.warn("Error whilst decompressing data");
+      Main.log("Bad hash '" + objectHash + "'");
+    }catch(RuntimeException e){
+      /* A malformed body only loses this object, not the whole repository */
+      Main.warn("Unable to parse object");
+      Main.log("Bad hash '" + objectHash + "'");
+    }
+    /* Make sure the inflater makes it back to the pool */
+    if(os != null){
+      try{
+        os.close();
+      }catch(IOException e){
+        /* Do nothing */
+      }
+    }
   }
 
   /**
-   * getLong()
+   * readTree()
    *
-   * Get a long value from a raw data stream.
+   * Parse the body of a tree object.
    *
-   * @param data The data buffer to be read.
-   * @param i The offset into the data stream to be converted.
-   * @return The long value retrieved.
+   * @param objectHash The hash of the tree object.
+   * @param buff The inflated body of the tree object.
+   * @return The parsed tree.
    **/
-  private static long getLong(byte[] data, int i){
-    byte[] var = new byte[GIT_INDEX_VAR_LEN];
-    System.arraycopy(data, i, var, 0, GIT_INDEX_VAR_LEN);
-    return new BigInteger(1, var).longValue();
+  private Tree readTree(String objectHash, byte[] buff){
+    Tree t = new Tree();
+    t.hash = objectHash;
+    int buffPtr = 0;
+    /* Check we have the minimum for another loop */
+    ArrayList<TreeEntry> teArr = new ArrayList<TreeEntry>();
+    while(buffPtr + GIT_INDEX_INT_LEN < buff.length){
+      TreeEntry te = new TreeEntry();
+      /* Read entry */
+      int modeEnd = indexOf(buff, buffPtr, buff.length, (byte)' ');
+      int nameEnd = indexOf(buff, modeEnd + 1, buff.length, (byte)'\0');
+      if(modeEnd < 0 || nameEnd < 0 || nameEnd + GIT_HASH_DIGEST_RAW > buff.length){
+        Main.warn("Bad tree entry in '" + objectHash + "'");
+        break;
+      }
+      te.mode = Integer.parseInt(new String(buff, buffPtr, modeEnd - buffPtr), 8);
+      te.name = new String(buff, modeEnd + 1, nameEnd - modeEnd - 1);
+      buffPtr = nameEnd + 1;
+      te.hash = getHashRaw(buff, buffPtr);
+      buffPtr += GIT_HASH_DIGEST_RAW;
+      /* Store entry */
+      teArr.add(te);
+    }
+    /* Store tree entries in tree */
+    t.entries = teArr.toArray(new TreeEntry[0]);
+    return t;
   }
 
   /**
-   * getHashRaw()
+   * readCommit()
    *
-   * Get a hash value from a raw data stream.
+   * Parse the body of a commit object.
    *
-   * @param data The data buffer to be read.
-   * @param i The offset into the data stream to be converted.
-   * @return The hash value retrieved.
+   * @param objectHash The hash of the commit object.
+   * @param buff The inflated body of the commit object.
+   * @return The parsed commit.
    **/
-  private static String getHashRaw(byte[] data, int i){
-    byte[] var = new byte[GIT_HASH_DIGEST_RAW];
-    System.arraycopy(data, i, var, 0, GIT_HASH_DIGEST_RAW);
-    return new BigInteger(1, var).toString(16);
+  private Commit readCommit(String objectHash, byte[] buff){
+    Commit c = new Commit();
+    c.hash = objectHash;
+    c.parents = new String[0];
+    int buffPtr = 0;
+    /* Read header values until blank line */
+    while(buffPtr < buff.length){
+      /* Read entire line and skip it */
+      int lineEnd = indexOf(buff, buffPtr, buff.length, (byte)'\n');
+      lineEnd = lineEnd >= 0 ? lineEnd : buff.length;
+      String line = new String(buff, buffPtr, lineEnd - buffPtr);
+      buffPtr = lineEnd + 1;
+      /* Check if blank line found, go to next stage */
+      if(line.length() <= 0){
+        break;
+      }
+      /* Get line label, skipping continuation lines */
+      String label = getString(line.getBytes(), 0, ' ');
+      if(label.length() >= line.length()){
+        continue;
+      }
+      line = line.substring(label.length() + 1);
+      /* Figure out which header value we process */
+      switch(label){
+        case "tree" :
+          c.tree = line;
+          break;
+        case "parent" :
+          String[] ps = new String[c.parents.length + 1];
+          System.arraycopy(c.parents, 0, ps, 0, c.parents.length);
+          ps[c.parents.length] = line;
+          c.parents = ps;
+          break;
+        case "author" :
+          c.author = PageBuilder.sanitize(
+            line.substring(0, line.indexOf('<') - 1)
+          );
+          c.author_email = PageBuilder.sanitize(line.substring(
+            line.indexOf('<') + 1, line.indexOf('>')
+          ));
+          Calendar aCal = Calendar.getInstance(
+            TimeZone.getTimeZone(line.substring(line.lastIndexOf(' ')))
+          );
+          aCal.setTimeInMillis(
+            Long.parseLong(
+              line.substring(line.indexOf('>') + 2,
+              line.lastIndexOf(' ')
+            )
+          ) * 1000L);
+          c.author_date = aCal.getTime();
+          break;
+        case "committer" :
+          c.commit = PageBuilder.sanitize(
+            line.substring(0, line.indexOf('<') - 1)
+          );
+          c.commit_email = PageBuilder.sanitize(line.substring(
+            line.indexOf('<') + 1, line.indexOf('>')
+          ));
+          Calendar cCal = Calendar.getInstance(
+            TimeZone.getTimeZone(line.substring(line.lastIndexOf(' ')))
+          );
+          cCal.setTimeInMillis(
+            Long.parseLong(
+              line.substring(line.indexOf('>') + 2,
+              line.lastIndexOf(' ')
+            )
+          ) * 1000L);
+          c.commit_date = cCal.getTime();
+          break;
+      }
+    }
+    /* Set the subject */
+    if(buffPtr < buff.length){
+      c.subject = PageBuilder.sanitize(getString(buff, buffPtr, '\n'));
+      c.message = new String(buff, buffPtr, buff.length - buffPtr, StandardCharsets.UTF_8);
+    }else{
+      c.subject = "";
+      c.message = "";
+    }
+    return c;
   }
 
   /**
-   * getHash()
+   * readIndexes()
    *
-   * Get a hash value from a raw data stream.
-   *
-   * @param data The data buffer to be read.
-   * @param i The offset into the data stream to be converted.
-   * @return The hash value retrieved.
+   * Add any commits not yet indexed to the message and path indexes, oldest
+   * first, then release the messages. The changed paths of a commit are found
+   * by comparing its tree with that of its first parent.
    **/
-  private static String getHash(byte[] data, int i){
-    if(i + GIT_HASH_DIGEST_STR < data.length){
-      return new String(data, i, GIT_HASH_DIGEST_STR);
-    }else{
-      return null;
+  private void readIndexes(){
+    Commit[] t = table;
+    ArrayList<Commit> fresh = new ArrayList<Commit>();
+    for(int x = 0; x < t.length; x++){
+      if(t[x].message != null && !search.contains(t[x].hash)){
+        fresh.add(t[x]);
+      }
+    }
+    fresh.sort(new Comparator<Commit>(){
+      public int compare(Commit a, Commit b){
+        long ta = a.commit_date != null ? a.commit_date.getTime() : 0;
+        long tb = b.commit_date != null ? b.commit_date.getTime() : 0;
+        return Long.compare(ta, tb);
+      }
+    });
+    ArrayList<Change> changed = new ArrayList<Change>();
+    for(int x = 0; x < fresh.size(); x++){
+      Commit c = fresh.get(x);
+      search.add(c.hash, c.message);
+      stats.add(c.author, c.author_date != null ? c.author_date : new Date(0));
+      Commit p = c.parents.length > 0 ? commits.get(c.parents[0]) : null;
+      changed.clear();
+      diffTrees("", p != null ? p.tree : null, c.tree, changed, true);
+      String[] keys = new String[changed.size()];
+      for(int y = 0; y < keys.length; y++){
+        keys[y] = changed.get(y).path;
+      }
+      pathIndex.addKeys(c.hash, keys);
+    }
+    for(int x = 0; x < t.length; x++){
+      t[x].message = null;
     }
   }
 
   /**
-   * readFile()
+   * diffTrees()
    *
-   * Read binary file from disk and return binary array.
+   * Find the paths that differ between two trees. Subtrees with the same hash
+   * are identical and are skipped without being read.
    *
-   * @param file The file to be read.
-   * @param len The maximum number of bytes to be read, if set to a number less
-   * than zero no limit is set.
-   * @return The byte array containing the file, otherwise NULL.
+   * @param prefix The path of the trees, empty or ending in a forward slash.
+   * @param a The hash of the old tree, otherwise NULL.
+   * @param b The hash of the new tree, otherwise NULL.
+   * @param res The list to add the changes to.
+   * @param dirs True if changed directories should be listed as well as the
+   * changes within them.
    **/
-  private static byte[] readFile(File file, int len){
-    byte[] buff = null;
-    try{
-      FileInputStream fis = new FileInputStream(file);
-      /* If we have been told to limit then limit */
-      if(len >= 0){
-        len = file.length() < len ? (int)(file.length()) : len;
-      }else{
-        len = (int)(file.length());
+  private void diffTrees(String prefix, String a, String b, ArrayList<Change> res, boolean dirs){
+    Tree ta = a != null ? trees.get(a) : null;
+    Tree tb = b != null ? trees.get(b) : null;
+    TreeEntry[] ea = ta != null ? ta.entries : new TreeEntry[0];
+    TreeEntry[] eb = tb != null ? tb.entries : new TreeEntry[0];
+    HashMap<String, TreeEntry> old = new HashMap<String, TreeEntry>();
+    for(int x = 0; x < ea.length; x++){
+      old.put(ea[x].name, ea[x]);
+    }
+    for(int x = 0; x < eb.length; x++){
+      TreeEntry o = old.remove(eb[x].name);
+      if(o != null && o.hash.equals(eb[x].hash) && o.mode == eb[x].mode){
+        continue;
       }
-      buff = new byte[len];
-      fis.read(buff);
-      fis.close();
-    }catch(IOException e){
-      buff = null;
+      diffEntry(prefix, o, eb[x], res, dirs);
+    }
+    /* Whatever remains was removed */
+    for(TreeEntry o : old.values()){
+      diffEntry(prefix, o, null, res, dirs);
     }
-    return buff;
   }
 
   /**
-   * entries()
+   * diffEntry()
    *
-   * Get a list of entries being tracked by this repository.
+   * Record a changed tree entry, descending into directories.
    *
-   * @param rootOnly If true, only root level entries are returned.
-   * @return A list of entries tracked by this repository.
+   * @param prefix The path of the entry's tree, empty or ending in a forward
+   * slash.
+   * @param a The old entry, otherwise NULL.
+   * @param b The new entry, otherwise NULL.
+   * @param res The list to add the changes to.
+   * @param dirs True if changed directories should be listed.
    **/
-  public String[] entries(boolean rootOnly){
-    ArrayList<String> ents = new ArrayList<String>();
-    for(int x = 0; x < entries.length; x++){
-      if(!rootOnly || (rootOnly && !entries[x].path.contains("/"))){
-        ents.add(dir.getAbsolutePath() + "/" + entries[x].path);
-      }
+  private void diffEntry(String prefix, TreeEntry a, TreeEntry b, ArrayList<Change> res, boolean dirs){
+    String path = prefix + (a != null ? a.name : b.name);
+    boolean dirA = a != null && (a.mode & TreeEntry.MODE_TYPE) == TreeEntry.MODE_TREE;
+    boolean dirB = b != null && (b.mode & TreeEntry.MODE_TYPE) == TreeEntry.MODE_TREE;
+    if(dirs || (!dirA && a != null) || (!dirB && b != null)){
+      Change c = new Change();
+      c.path = path;
+      c.before = dirA && !dirs ? null : a;
+      c.after = dirB && !dirs ? null : b;
+      res.add(c);
+    }
+    if(dirA || dirB){
+      diffTrees(path + "/", dirA ? a.hash : null, dirB ? b.hash : null, res, dirs);
     }
-    return ents.toArray(new String[0]);
   }
 
   /**
-   * log()
+   * history()
    *
-   * Get a list of commits, otherwise an empty list.
+   * Get the history for a given reference, walking it on first use.
    *
-   * @param page The start of the commits to be returned..
-   * @return Array of commits.
+   * @param ref The full name of the reference.
+   * @return The history, otherwise NULL if the reference doesn't exist.
    **/
-  public Commit[] log(int page){
-    Commit[] res = new Commit[GIT_PAGE_SIZE];
-    /* Try to find a page */
-    if(page < pages.size() && pages.get(page) != null){
-      /* Store start of page */
-      Commit c = pages.get(page);
-      /* Now find additional commits */
-      for(int x = 0; c != null && x < res.length; x++){
-        /* Store this result */
-        res[x] = c;
-        /* Load next result */
-        c = commits.get(c.parent);
+  private History history(String ref){
+    HashMap<String, History> h = histories;
+    if(!refs.containsKey(ref)){
+      return null;
+    }
+    synchronized(h){
+      History res = h.get(ref);
+      if(res == null){
+        res = new History(table, commits, refs.get(ref));
+        h.put(ref, res);
       }
+      return res;
     }
-    return res;
   }
 
   /**
-   * commit()
+   * getString()
    *
-   * Get specific information about a given commit.
+   * Get a String value from a raw data stream.
    *
-   * @param hash The commit hash.
-   * @return The commit object, otherwise NULL.
+   * @param data The data buffer to be read.
+   * @param i The offset into the data stream to be converted.
+   * @param d The delimiting character.
+   * @return The String value retrieved.
    **/
-  public Commit commit(String hash){
-    return commits.get(hash);
+  private static String getString(byte[] data, int i, char d){
+    int e = i;
+    while(e < data.length && data[e] != d){
+      ++e;
+    }
+    return new String(data, i, e - i);
   }
 
   /**
-   * diff()
+   * indexOf()
    *
-   * Get a code difference for a given commit.
+   * Find the first occurrence of a byte in a raw data stream.
    *
-   * @param commit The commit name.
-   * @return The raw diff.
+   * @param data The data buffer to be searched.
+   * @param i The offset to begin searching from.
+   * @param e The offset to stop searching at.
+   * @param d The byte to be searched for.
+   * @return The offset of the byte, otherwise -1.
    **/
-  public String diff(String commit){
-    /* Validate the commit to ensure no arbitrary command execution */
-    if(!validCommit(commit)){
-      Main.warn("Bad commit string");
-      return new String();
+  private static int indexOf(byte[] data, int i, int e, byte d){
+    for(; i < e; i++){
+      if(data[i] == d){
+        return i;
+      }
     }
-    byte[] buff = exec(
-      new String[]{
-        "git",
-        "show",
-        commit
+    return -1;
+  }
+
+  /**
+   * inflaterGet()
+   *
+   * Borrow an inflater from the pool, otherwise create a new one.
+   *
+   * @return An inflater ready for use.
+   **/
+  private static Inflater inflaterGet(){
+    synchronized(inflaters){
+      if(inflaters.size() > 0){
+        return inflaters.remove(inflaters.size() - 1);
       }
-    );
-    if(buff != null){
-      if(buff.length >= GIT_MAX_INPUT){
-        return new String(buff) + "\n\n[-- DIFF TOO LONG --]";
+    }
+    return new Inflater();
+  }
+
+  /**
+   * inflaterPut()
+   *
+   * Return an inflater to the pool. If the pool is already full the native
+   * resources of the inflater are released.
+   *
+   * @param inf The inflater to be returned.
+   **/
+  private static void inflaterPut(Inflater inf){
+    inf.reset();
+    synchronized(inflaters){
+      if(inflaters.size() < GIT_INFLATER_MAX){
+        inflaters.add(inf);
+        return;
+      }
+    }
+    inf.end();
+  }
+
+  /**
+   * getHashRaw()
+   *
+   * Get a hash value from a raw data stream.
+   *
+   * @param data The data buffer to be read.
+   * @param i The offset into the data stream to be converted.
+   * @return The hash value retrieved.
+   **/
+  private static String getHashRaw(byte[] data, int i){
+    StringBuilder sb = new StringBuilder(GIT_HASH_DIGEST_STR);
+    for(int x = i; x < i + GIT_HASH_DIGEST_RAW; x++){
+      sb.append(Character.forDigit((data[x] >> 4) & 0xF, 16));
+      sb.append(Character.forDigit(data[x] & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * getHash()
+   *
+   * Get a hash value from a raw data stream.
+   *
+   * @param data The data buffer to be read.
+   * @param i The offset into the data stream to be converted.
+   * @return The hash value retrieved.
+   **/
+  private static String getHash(byte[] data, int i){
+    if(i + GIT_HASH_DIGEST_STR < data.length){
+      return new String(data, i, GIT_HASH_DIGEST_STR);
+    }else{
+      return null;
+    }
+  }
+
+  /**
+   * readFile()
+   *
+   * Read binary file from disk and return binary array.
+   *
+   * @param file The file to be read.
+   * @param len The maximum number of bytes to be read, if set to a number less
+   * than zero no limit is set.
+   * @return The byte array containing the file, otherwise NULL.
+   **/
+  private static byte[] readFile(File file, int len){
+    byte[] buff = null;
+    try{
+      FileInputStream fis = new FileInputStream(file);
+      /* If we have been told to limit then limit */
+      if(len >= 0){
+        len = file.length() < len ? (int)(file.length()) : len;
       }else{
-        return new String(buff);
+        len = (int)(file.length());
+      }
+      buff = new byte[len];
+      fis.read(buff);
+      fis.close();
+    }catch(IOException e){
+      buff = null;
+    }
+    return buff;
+  }
+
+  /**
+   * log()
+   *
+   * Get a list of commits from HEAD, otherwise an empty list.
+   *
+   * @param page The start of the commits to be returned..
+   * @return Array of commits.
+   **/
+  public Commit[] log(int page){
+    return log("HEAD", page);
+  }
+
+  /**
+   * log()
+   *
+   * Get a list of commits from a given reference, otherwise an empty list.
+   *
+   * @param ref The full name of the reference to start from.
+   * @param page The start of the commits to be returned..
+   * @return Array of commits.
+   **/
+  public Commit[] log(String ref, int page){
+    Commit[] res = new Commit[GIT_PAGE_SIZE];
+    History h = history(ref);
+    if(h != null && page >= 0 && page < Integer.MAX_VALUE / GIT_PAGE_SIZE){
+      h.get(page * GIT_PAGE_SIZE, res);
+    }
+    return res;
+  }
+
+  /**
+   * changes()
+   *
+   * Find the files that differ between two trees. Subtrees with the same
+   * hash are skipped without being read, so the cost depends on the size of
+   * the change rather than the size of the trees.
+   *
+   * @param a The hash of the old tree, otherwise NULL.
+   * @param b The hash of the new tree, otherwise NULL.
+   * @return The changed files sorted by path, with NULL entries where a
+   * file was added or removed.
+   **/
+  public ArrayList<Change> changes(String a, String b){
+    ArrayList<Change> res = new ArrayList<Change>();
+    diffTrees("", a, b, res, false);
+    res.sort(new Comparator<Change>(){
+      public int compare(Change x, Change y){
+        return x.path.compareTo(y.path);
+      }
+    });
+    return res;
+  }
+
+  /**
+   * range()
+   *
+   * Get the commits reachable from one commit but not from another, as
+   * "git log a..b" would list them. Both sides are walked newest first and
+   * the walk stops once only commits reachable from the excluded side are
+   * left that are no older than those listed, so commits sharing a timestamp
+   * are still excluded correctly.
+   *
+   * @param from The hash of the commit whose history is excluded.
+   * @param to The hash of the commit whose history is listed.
+   * @param max The maximum number of commits to be returned.
+   * @return The commits, newest first.
+   **/
+  public Commit[] range(String from, String to, int max){
+    ArrayList<Commit> res = new ArrayList<Commit>();
+    final HashMap<String, Integer> flags = new HashMap<String, Integer>();
+    PriorityQueue<Commit> queue = new PriorityQueue<Commit>(16, new Comparator<Commit>(){
+      public int compare(Commit a, Commit b){
+        long ta = a.commit_date != null ? a.commit_date.getTime() : 0;
+        long tb = b.commit_date != null ? b.commit_date.getTime() : 0;
+        return Long.compare(tb, ta);
+      }
+    });
+    HashSet<String> queued = new HashSet<String>();
+    /* Count the queued commits only reachable from the listed side */
+    int live = 0;
+    String[] starts = new String[]{ from, to };
+    for(int x = 0; x < starts.length; x++){
+      Commit c = commits.get(starts[x]);
+      if(c != null){
+        flags.put(c.hash, (flags.containsKey(c.hash) ? flags.get(c.hash) : 0) | (x + 1));
+        if(queued.add(c.hash)){
+          queue.add(c);
+        }
+      }
+    }
+    for(String h : queued){
+      live += flags.get(h) == 2 ? 1 : 0;
+    }
+    ArrayList<Commit> listed = new ArrayList<Commit>();
+    long oldest = Long.MAX_VALUE;
+    while(
+      !queue.isEmpty() &&
+      (live > 0 || (queue.peek().commit_date != null && queue.peek().commit_date.getTime() >= oldest))
+    ){
+      Commit c = queue.poll();
+      queued.remove(c.hash);
+      int f = flags.get(c.hash);
+      if(f == 2){
+        --live;
+        listed.add(c);
+        oldest = Math.min(oldest, c.commit_date != null ? c.commit_date.getTime() : 0);
+      }
+      for(int x = 0; x < c.parents.length; x++){
+        Commit p = commits.get(c.parents[x]);
+        if(p == null){
+          continue;
+        }
+        int old = flags.containsKey(p.hash) ? flags.get(p.hash) : 0;
+        int nf = old | f;
+        if(nf == old){
+          continue;
+        }
+        flags.put(p.hash, nf);
+        if(queued.contains(p.hash)){
+          live += (nf == 2 ? 1 : 0) - (old == 2 ? 1 : 0);
+        }else{
+          queued.add(p.hash);
+          queue.add(p);
+          live += nf == 2 ? 1 : 0;
+        }
+      }
+    }
+    /* Commits may have been reached from the excluded side since listed */
+    for(int x = 0; x < listed.size() && res.size() < max; x++){
+      if(flags.get(listed.get(x).hash) == 2){
+        res.add(listed.get(x));
+      }
+    }
+    return res.toArray(new Commit[0]);
+  }
+
+  /**
+   * revision()
+   *
+   * Find the commit named by a hash, HEAD, a branch or a tag.
+   *
+   * @param name The name of the commit.
+   * @return The commit, otherwise NULL.
+   **/
+  public Commit revision(String name){
+    if(validCommit(name)){
+      return commits.get(name);
+    }else if(name.equals("HEAD")){
+      return getHead();
+    }else if(getRef("refs/heads/" + name) != null){
+      return commits.get(getRef("refs/heads/" + name));
+    }else if(getRef("refs/tags/" + name) != null){
+      return commits.get(getRef("refs/tags/" + name));
+    }
+    return null;
+  }
+
+  /**
+   * stats()
+   *
+   * Get the activity statistics of the repository, kept up to date as new
+   * commits are read.
+   *
+   * @return The statistics.
+   **/
+  public Stats stats(){
+    return stats;
+  }
+
+  /**
+   * search()
+   *
+   * Search the commit messages of the repository.
+   *
+   * @param query The words that must all appear in the message.
+   * @param max The maximum number of results.
+   * @return The matching commits, newest first.
+   **/
+  public Commit[] search(String query, int max){
+    String[] hashes = search.find(query, max);
+    ArrayList<Commit> res = new ArrayList<Commit>();
+    for(int x = 0; x < hashes.length; x++){
+      Commit c = commits.get(hashes[x]);
+      if(c != null){
+        res.add(c);
+      }
+    }
+    return res.toArray(new Commit[0]);
+  }
+
+  /**
+   * pathLog()
+   *
+   * Get a page of the commits that changed a path, across all references.
+   *
+   * @param path The path, without leading or trailing forward slashes.
+   * @param page The page of commits to be returned.
+   * @return Array of commits, newest first.
+   **/
+  public Commit[] pathLog(String path, int page){
+    Commit[] res = new Commit[GIT_PAGE_SIZE];
+    if(page >= 0 && page < Integer.MAX_VALUE / GIT_PAGE_SIZE){
+      String[] hashes = pathIndex.lookup(path, page * GIT_PAGE_SIZE, GIT_PAGE_SIZE);
+      for(int x = 0; x < hashes.length; x++){
+        res[x] = commits.get(hashes[x]);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * pathLog()
+   *
+   * Get every commit that changed a path, across all references. The index
+   * is decoded once, for callers that filter the commits themselves.
+   *
+   * @param path The path, without leading or trailing forward slashes.
+   * @return Array of commits, newest first.
+   **/
+  public Commit[] pathLog(String path){
+    String[] hashes = pathIndex.lookup(path, 0, Integer.MAX_VALUE);
+    Commit[] res = new Commit[hashes.length];
+    for(int x = 0; x < hashes.length; x++){
+      res[x] = commits.get(hashes[x]);
+    }
+    return res;
+  }
+
+  /**
+   * numPathCommits()
+   *
+   * Get the number of commits that changed a path.
+   *
+   * @param path The path, without leading or trailing forward slashes.
+   * @return The number of commits.
+   **/
+  public int numPathCommits(String path){
+    return pathIndex.count(path);
+  }
+
+  /**
+   * tree()
+   *
+   * Get a given tree.
+   *
+   * @param hash The tree hash.
+   * @return The tree object, otherwise NULL.
+   **/
+  public Tree tree(String hash){
+    return trees.get(hash);
+  }
+
+  /**
+   * blob()
+   *
+   * Get the details of a given blob.
+   *
+   * @param hash The blob hash.
+   * @return The blob object, otherwise NULL.
+   **/
+  public Blob blob(String hash){
+    return blobs.get(hash);
+  }
+
+  /**
+   * resolve()
+   *
+   * Find the entry at a given path below a commit or tree.
+   *
+   * @param hash The commit or tree hash to begin from.
+   * @param path The path to find, separated by forward slashes. An empty path
+   * refers to the root tree.
+   * @return The entry at the path, otherwise NULL.
+   **/
+  public TreeEntry resolve(String hash, String path){
+    Commit c = commits.get(hash);
+    TreeEntry te = new TreeEntry();
+    te.mode = TreeEntry.MODE_TREE;
+    te.name = "";
+    te.hash = c != null ? c.tree : hash;
+    if(trees.get(te.hash) == null){
+      return null;
+    }
+    String[] parts = path != null ? path.split("/") : new String[0];
+    for(int x = 0; x < parts.length; x++){
+      /* Skip empty parts, allowing for double and trailing slashes */
+      if(parts[x].length() <= 0){
+        continue;
+      }
+      Tree t = (te.mode & TreeEntry.MODE_TYPE) == TreeEntry.MODE_TREE ? trees.get(te.hash) : null;
+      if(t == null){
+        return null;
+      }
+      te = null;
+      for(int i = 0; i < t.entries.length; i++){
+        if(t.entries[i].name.equals(parts[x])){
+          te = t.entries[i];
+          break;
+        }
+      }
+      if(te == null){
+        return null;
+      }
+    }
+    return te;
+  }
+
+  /**
+   * readBlob()
+   *
+   * Inflate the start of a blob from the object store.
+   *
+   * @param hash The blob hash.
+   * @param max The maximum number of bytes to be read.
+   * @return The blob data, otherwise NULL.
+   **/
+  public byte[] readBlob(String hash, int max){
+    ObjectStream os = openObject(hash);
+    if(os == null){
+      return null;
+    }
+    byte[] data = null;
+    try{
+      if(os.type.equals("blob")){
+        data = new byte[(int)Math.min(os.size, max)];
+        int ptr = 0;
+        while(ptr < data.length){
+          int len = os.read(data, ptr, data.length - ptr);
+          if(len < 0){
+            break;
+          }
+          ptr += len;
+        }
+        data = ptr < data.length ? Arrays.copyOf(data, ptr) : data;
+      }
+      os.close();
+    }catch(IOException e){
+      Main.warn("Unable to read blob '" + hash + "'");
+      data = null;
+    }
+    return data;
+  }
+
+  /**
+   * cachedBlob()
+   *
+   * Get the entire contents of a small blob, keeping recently used blobs
+   * inflated in a size-bounded cache. As blobs are addressed by their content
+   * they never need to be invalidated.
+   *
+   * @param hash The blob hash.
+   * @return The blob data, otherwise NULL if not found or too large to cache.
+   **/
+  public byte[] cachedBlob(String hash){
+    LinkedHashMap<String, byte[]> bc = blobCache;
+    synchronized(bc){
+      byte[] data = bc.get(hash);
+      if(data != null){
+        return data;
+      }
+    }
+    Blob b = blobs.get(hash);
+    if(b == null || b.size > GIT_BLOB_CACHE_ITEM){
+      return null;
+    }
+    byte[] data = readBlob(hash, GIT_BLOB_CACHE_ITEM);
+    if(data == null || data.length != b.size){
+      return null;
+    }
+    synchronized(bc){
+      if(bc.put(hash, data) == null){
+        blobCacheSize += data.length;
+      }
+      /* Drop the least recently used blobs until we fit */
+      while(blobCacheSize > GIT_BLOB_CACHE_MAX && !bc.isEmpty()){
+        String oldest = bc.keySet().iterator().next();
+        blobCacheSize -= bc.remove(oldest).length;
+      }
+    }
+    return data;
+  }
+
+  /**
+   * blame()
+   *
+   * Find the commit each line of a file was last changed by, following first
+   * parents. Line origins are cached per path and blob, so a file is only
+   * compared with the versions since the last version blamed, and the path
+   * index means only commits that changed the path are inspected.
+   *
+   * @param hash The commit hash.
+   * @param path The path of the file, without leading or trailing forward
+   * slashes.
+   * @return The commit hash for each line, otherwise NULL if not a file or
+   * too large.
+   **/
+  public String[] blame(String hash, String path){
+    Commit cur = commits.get(hash);
+    TreeEntry te = cur != null ? resolve(cur.hash, path) : null;
+    if(te == null || (te.mode & TreeEntry.MODE_TYPE) == TreeEntry.MODE_TREE){
+      return null;
+    }
+    String blob = te.hash;
+    String[] origins = blameGet(path, blob);
+    if(origins != null){
+      return origins;
+    }
+    HashSet<String> touched = new HashSet<String>(
+      Arrays.asList(pathIndex.lookup(path, 0, Integer.MAX_VALUE))
+    );
+    /* Walk back to the last version already blamed, or to the first version */
+    ArrayList<Commit> at = new ArrayList<Commit>();
+    ArrayList<String> versions = new ArrayList<String>();
+    String prev = null;
+    for(;;){
+      Commit p = cur.parents.length > 0 ? commits.get(cur.parents[0]) : null;
+      if(p != null && !touched.contains(cur.hash)){
+        cur = p;
+        continue;
+      }
+      TreeEntry pe = p != null ? resolve(p.hash, path) : null;
+      String pb = pe != null && (pe.mode & TreeEntry.MODE_TYPE) != TreeEntry.MODE_TREE ? pe.hash : null;
+      if(pb != null && pb.equals(blob)){
+        cur = p;
+        continue;
+      }
+      /* This commit introduced the current version */
+      at.add(cur);
+      versions.add(blob);
+      if(pb == null){
+        break;
+      }
+      prev = pb;
+      origins = blameGet(path, pb);
+      if(origins != null){
+        break;
+      }
+      blob = pb;
+      cur = p;
+    }
+    /* Attribute the lines of each version, oldest first */
+    String[] prevLines = new String[0];
+    if(origins != null){
+      prevLines = blameLines(prev);
+      if(prevLines == null || prevLines.length != origins.length){
+        return null;
       }
     }else{
-      Main.warn("Command failed to run");
-      return new String();
+      origins = new String[0];
+    }
+    for(int x = versions.size() - 1; x >= 0; x--){
+      String[] lines = blameLines(versions.get(x));
+      if(lines == null){
+        return null;
+      }
+      int[] m = Diff.match(prevLines, lines);
+      String[] o = new String[lines.length];
+      for(int y = 0; y < o.length; y++){
+        o[y] = m[y] >= 0 ? origins[m[y]] : at.get(x).hash;
+      }
+      blamePut(path, versions.get(x), o);
+      prevLines = lines;
+      origins = o;
+    }
+    return origins;
+  }
+
+  /**
+   * blameLines()
+   *
+   * Read the lines of a blob to be blamed.
+   *
+   * @param hash The blob hash.
+   * @return The lines, otherwise NULL if not found or too large.
+   **/
+  private String[] blameLines(String hash){
+    Blob b = blobs.get(hash);
+    if(b == null || b.size > GIT_BLAME_MAX){
+      return null;
+    }
+    byte[] data = readBlob(hash, GIT_BLAME_MAX);
+    return data != null ? Diff.lines(new String(data, StandardCharsets.UTF_8)) : null;
+  }
+
+  /**
+   * blameGet()
+   *
+   * Get the cached line origins of a version of a file.
+   *
+   * @param path The path of the file.
+   * @param blob The blob hash.
+   * @return The commit hash for each line, otherwise NULL if not cached.
+   **/
+  private String[] blameGet(String path, String blob){
+    LinkedHashMap<String, String[]> bc = blameCache;
+    synchronized(bc){
+      return bc.get(path + "\0" + blob);
     }
   }
 
+  /**
+   * blamePut()
+   *
+   * Cache the line origins of a version of a file, dropping the least
+   * recently used entries to keep the number of lines held bounded.
+   *
+   * @param path The path of the file.
+   * @param blob The blob hash.
+   * @param origins The commit hash for each line.
+   **/
+  private void blamePut(String path, String blob, String[] origins){
+    LinkedHashMap<String, String[]> bc = blameCache;
+    synchronized(bc){
+      String[] old = bc.put(path + "\0" + blob, origins);
+      blameCacheSize += origins.length - (old != null ? old.length : 0);
+      while(blameCacheSize > GIT_BLAME_CACHE_MAX && bc.size() > 1){
+        String oldest = bc.keySet().iterator().next();
+        blameCacheSize -= bc.remove(oldest).length;
+      }
+    }
+  }
+
+  /**
+   * writeBlob()
+   *
+   * Stream a range of a blob to an output, inflating through a fixed size
+   * buffer so that the blob is never held in memory as a whole.
+   *
+   * @param hash The blob hash.
+   * @param out The output to write the blob data to.
+   * @param start The offset of the first byte to be written.
+   * @param len The number of bytes to be written.
+   * @return The number of bytes written, otherwise -1 if the blob could not
+   * be opened.
+   **/
+  public long writeBlob(String hash, OutputStream out, long start, long len) throws IOException{
+    ObjectStream os = openObject(hash);
+    if(os == null){
+      return -1;
+    }
+    long done = 0;
+    try{
+      if(!os.type.equals("blob")){
+        return -1;
+      }
+      /* Inflate and discard everything before the range */
+      while(start > 0){
+        long s = os.skip(start);
+        if(s <= 0){
+          return done;
+        }
+        start -= s;
+      }
+      byte[] buff = new byte[GIT_STREAM_LEN];
+      while(done < len){
+        int n = os.read(buff, 0, (int)Math.min(buff.length, len - done));
+        if(n < 0){
+          break;
+        }
+        out.write(buff, 0, n);
+        done += n;
+      }
+    }finally{
+      os.close();
+    }
+    return done;
+  }
+
+  /**
+   * openObject()
+   *
+   * Open a loose object for streaming.
+   *
+   * @param hash The object hash.
+   * @return The object stream with the header read, otherwise NULL.
+   **/
+  private ObjectStream openObject(String hash){
+    if(!validCommit(hash)){
+      return null;
+    }
+    File o = new File(
+      gitDir.getAbsolutePath() + "/objects/" +
+      hash.substring(0, 2) + "/" + hash.substring(2)
+    );
+    if(!o.isFile()){
+      return null;
+    }
+    try{
+      return new ObjectStream(o);
+    }catch(IOException e){
+      Main.warn("Unable to open object '" + hash + "'");
+      return null;
+    }
+  }
+
+  /**
+   * commit()
+   *
+   * Get specific information about a given commit.
+   *
+   * @param hash The commit hash.
+   * @return The commit object, otherwise NULL.
+   **/
+  public Commit commit(String hash){
+    return commits.get(hash);
+  }
+
   /**
    * fetch()
    *
@@ -723,6 +1925,21 @@ public class Git{
     }
   }
 
+  /**
+   * reachable()
+   *
+   * Check whether a commit is in the history of a given reference.
+   *
+   * @param ref The full name of the reference.
+   * @param c The commit to be checked.
+   * @return True if the commit is reachable from the reference, otherwise
+   * false.
+   **/
+  public boolean reachable(String ref, Commit c){
+    History h = history(ref);
+    return h != null && c.id >= 0 && c.id < h.seen.length && h.seen[c.id];
+  }
+
   /**
    * numCommits()
    *
@@ -734,6 +1951,30 @@ public class Git{
     return commits.size();
   }
 
+  /**
+   * numCommits()
+   *
+   * Get the number of commits in the history of a given reference.
+   *
+   * @param ref The full name of the reference.
+   * @return The number of commits reachable from the reference.
+   **/
+  public int numCommits(String ref){
+    History h = history(ref);
+    return h != null ? h.order.length : 0;
+  }
+
+  /**
+   * pageSize()
+   *
+   * Get the number of commits per page of history.
+   *
+   * @return The number of commits per page.
+   **/
+  public static int pageSize(){
+    return GIT_PAGE_SIZE;
+  }
+
   /**
    * getHead()
    *
@@ -742,7 +1983,60 @@ public class Git{
    * @return The head commit, otherwise NULL.
    **/
   public Commit getHead(){
-    return commits.get(refs.get("heads_master"));
+    return commits.get(refs.get("HEAD"));
+  }
+
+  /**
+   * getHeadRef()
+   *
+   * Get the name of the reference HEAD points at.
+   *
+   * @return The full reference name, otherwise NULL if HEAD is detached.
+   **/
+  public String getHeadRef(){
+    return headRef;
+  }
+
+  /**
+   * getRefs()
+   *
+   * Get the references starting with a given prefix, in sorted order.
+   *
+   * @param prefix The prefix to match, i.e. "refs/heads/".
+   * @return The matching full reference names.
+   **/
+  public String[] getRefs(String prefix){
+    ArrayList<String> res = new ArrayList<String>();
+    for(Map.Entry<String, String> e : refs.tailMap(prefix).entrySet()){
+      if(!e.getKey().startsWith(prefix)){
+        break;
+      }
+      res.add(e.getKey());
+    }
+    return res.toArray(new String[0]);
+  }
+
+  /**
+   * getRef()
+   *
+   * Get the hash a reference points at.
+   *
+   * @param name The full reference name.
+   * @return The hash, otherwise NULL.
+   **/
+  public String getRef(String name){
+    return refs.get(name);
+  }
+
+  /**
+   * cacheDir()
+   *
+   * Get the directory used to store generated files for this repository.
+   *
+   * @return The cache directory, which may not exist yet.
+   **/
+  public File cacheDir(){
+    return new File(gitDir, "gitpage");
   }
 
   /**
@@ -0,0 +1,775 @@
+package b.gp;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Grep.java
+ *
+ * Search the contents of the files at the head of a repository. A trigram
+ * index of the head blobs is kept on disk next to the repository and memory
+ * mapped, so only files containing every trigram of the query are scanned.
+ * The index is keyed by blob hash, when the head moves only the blobs not
+ * already indexed are read.
+ *
+ * The index file is laid out as a header, the sorted blob hashes, the sorted
+ * trigram table and finally the postings of blob numbers for each trigram.
+ **/
+public class Grep{
+  /**
+   * Match.Grep.java
+   *
+   * A line matching a search.
+   **/
+  public static class Match{
+    public String path;
+    public int line;
+    public String text;
+  }
+
+  /**
+   * Budget.Grep.java
+   *
+   * A line of text that stops a regular expression once it has read too many
+   * characters, so that a pathological expression cannot stall the server.
+   **/
+  private static class Budget implements CharSequence{
+    public String s;
+    public long steps;
+
+    /**
+     * Budget()
+     *
+     * Wrap a line of text.
+     *
+     * @param s The line of text.
+     * @param steps The number of characters that may be read.
+     **/
+    public Budget(String s, long steps){
+      this.s = s;
+      this.steps = steps;
+    }
+
+    @Override
+    public char charAt(int i){
+      if(--steps < 0){
+        throw new IllegalStateException("Search budget exceeded");
+      }
+      return s.charAt(i);
+    }
+
+    @Override
+    public int length(){
+      return s.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end){
+      return s.subSequence(start, end);
+    }
+
+    @Override
+    public String toString(){
+      return s;
+    }
+  }
+
+  public static final String FILE_NAME = "grep.idx";
+
+  private static final int MAGIC = 0x47504731;
+  private static final int HASH_LEN = 40;
+  private static final int HEAD_LEN = 4 + HASH_LEN + 4 + 4;
+  private static final int TRIGRAM_LEN = 12;
+  private static final int FILE_MAX = 1024 * 1024;
+  private static final int BINARY_CHECK = 8000;
+  private static final int LINE_MAX = 256;
+  private static final long STEPS_MAX = 64 * 1024 * 1024;
+  private static final long SCAN_MAX = 32 * 1024 * 1024;
+
+  private static HashMap<String, Grep> indexes = new HashMap<String, Grep>();
+
+  private MappedByteBuffer map;
+  private String head;
+  private int numBlobs;
+  private int numTrigrams;
+  private int trigramStart;
+  private int postingStart;
+
+  /**
+   * Grep()
+   *
+   * Read the header of a mapped index.
+   *
+   * @param map The mapped index file.
+   **/
+  private Grep(MappedByteBuffer map) throws IOException{
+    this.map = map;
+    if(map.capacity() < HEAD_LEN || map.getInt(0) != MAGIC){
+      throw new IOException("Bad index");
+    }
+    head = hash(4);
+    numBlobs = map.getInt(4 + HASH_LEN);
+    numTrigrams = map.getInt(4 + HASH_LEN + 4);
+    trigramStart = HEAD_LEN + numBlobs * HASH_LEN;
+    postingStart = trigramStart + numTrigrams * TRIGRAM_LEN;
+    if(numBlobs < 0 || numTrigrams < 0 || postingStart > map.capacity()){
+      throw new IOException("Bad index");
+    }
+  }
+
+  /**
+   * map()
+   *
+   * Get the index of a repository, regardless of the head it was built for.
+   * The index file is only mapped the first time, after that the mapping is
+   * kept until update() writes a new index.
+   *
+   * @param git The repository.
+   * @return The index, otherwise NULL if there is no valid index.
+   **/
+  private static Grep map(Git git){
+    File f = new File(git.cacheDir(), FILE_NAME);
+    synchronized(indexes){
+      Grep g = indexes.get(f.getPath());
+      if(g != null){
+        return g;
+      }
+    }
+    Grep g = map(f);
+    if(g != null){
+      synchronized(indexes){
+        indexes.put(f.getPath(), g);
+      }
+    }
+    return g;
+  }
+
+  /**
+   * map()
+   *
+   * Map an index file.
+   *
+   * @param f The index file.
+   * @return The index, otherwise NULL if there is no valid index.
+   **/
+  private static Grep map(File f){
+    if(!f.isFile()){
+      return null;
+    }
+    try{
+      RandomAccessFile raf = new RandomAccessFile(f, "r");
+      try{
+        return new Grep(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+      }finally{
+        /* The mapping remains valid once the file is closed */
+        raf.close();
+      }
+    }catch(IOException e){
+      return null;
+    }
+  }
+
+  /**
+   * open()
+   *
+   * Map the index of a repository if it is up to date with the head.
+   *
+   * @param git The repository.
+   * @return The index, otherwise NULL.
+   **/
+  public static Grep open(Git git){
+    Git.Commit c = git.getHead();
+    Grep g = map(git);
+    return c != null && g != null && g.head.equals(c.hash) ? g : null;
+  }
+
+  /**
+   * update()
+   *
+   * Ensure the index of a repository is up to date with the head. Postings
+   * of blobs still at the head are carried over from the previous index and
+   * only new blobs are read. The index is written to a temporary file first,
+   * so a partial index is never mapped.
+   *
+   * @param git The repository to be indexed.
+   **/
+  public static void update(Git git) throws IOException{
+    Git.Commit c = git.getHead();
+    if(c == null){
+      return;
+    }
+    Grep old = map(git);
+    if(old != null && old.head.equals(c.hash)){
+      return;
+    }
+    /* Number the blobs of the head in hash order */
+    ArrayList<String[]> files = new ArrayList<String[]>();
+    files(git, c.tree, "", files);
+    TreeSet<String> sorted = new TreeSet<String>();
+    for(int x = 0; x < files.size(); x++){
+      Git.Blob b = git.blob(files.get(x)[1]);
+      if(b != null && b.size <= FILE_MAX){
+        sorted.add(b.hash);
+      }
+    }
+    String[] blobs = sorted.toArray(new String[0]);
+    HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    for(int x = 0; x < blobs.length; x++){
+      ids.put(blobs[x], x);
+    }
+    /* Collect pairs of trigram and blob number */
+    long[] pairs = new long[1024];
+    int len = 0;
+    HashSet<String> done = new HashSet<String>();
+    if(old != null){
+      int[] remap = new int[old.numBlobs];
+      for(int x = 0; x < old.numBlobs; x++){
+        String h = old.hash(HEAD_LEN + x * HASH_LEN);
+        Integer id = ids.get(h);
+        remap[x] = id != null ? id : -1;
+        if(id != null){
+          done.add(h);
+        }
+      }
+      for(int x = 0; x < old.numTrigrams; x++){
+        int t = old.map.getInt(old.trigramStart + x * TRIGRAM_LEN);
+        int off = old.map.getInt(old.trigramStart + x * TRIGRAM_LEN + 4);
+        int num = old.map.getInt(old.trigramStart + x * TRIGRAM_LEN + 8);
+        for(int y = 0; y < num; y++){
+          int id = remap[old.map.getInt(old.postingStart + (off + y) * 4)];
+          if(id >= 0){
+            if(len >= pairs.length){
+              pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            pairs[len++] = ((long)t << 32) | id;
+          }
+        }
+      }
+    }
+    for(int x = 0; x < blobs.length; x++){
+      if(done.contains(blobs[x])){
+        continue;
+      }
+      int[] ts = trigrams(git.readBlob(blobs[x], FILE_MAX));
+      if(len + ts.length > pairs.length){
+        pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, len + ts.length));
+      }
+      for(int y = 0; y < ts.length; y++){
+        pairs[len++] = ((long)ts[y] << 32) | x;
+      }
+    }
+    Arrays.sort(pairs, 0, len);
+    /* Write the new index */
+    File dir = git.cacheDir();
+    if(!dir.isDirectory() && !dir.mkdirs()){
+      throw new IOException("Unable to create '" + dir + "'");
+    }
+    File f = new File(dir, FILE_NAME);
+    File tmp = new File(dir, FILE_NAME + ".tmp");
+    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try{
+      int numTrigrams = 0;
+      for(int x = 0; x < len; x++){
+        if(x == 0 || (pairs[x] >>> 32) != (pairs[x - 1] >>> 32)){
+          ++numTrigrams;
+        }
+      }
+      dos.writeInt(MAGIC);
+      dos.write(c.hash.getBytes(StandardCharsets.US_ASCII));
+      dos.writeInt(blobs.length);
+      dos.writeInt(numTrigrams);
+      for(int x = 0; x < blobs.length; x++){
+        dos.write(blobs[x].getBytes(StandardCharsets.US_ASCII));
+      }
+      for(int x = 0; x < len;){
+        int y = x;
+        while(y < len && (pairs[y] >>> 32) == (pairs[x] >>> 32)){
+          ++y;
+        }
+        dos.writeInt((int)(pairs[x] >>> 32));
+        dos.writeInt(x);
+        dos.writeInt(y - x);
+        x = y;
+      }
+      for(int x = 0; x < len; x++){
+        dos.writeInt((int)pairs[x]);
+      }
+    }finally{
+      dos.close();
+    }
+    if(!tmp.renameTo(f)){
+      tmp.delete();
+      throw new IOException("Unable to store '" + f + "'");
+    }
+    /* Swap in the new index, the old mapping stays valid for any search using it */
+    Grep g = map(f);
+    synchronized(indexes){
+      if(g != null){
+        indexes.put(f.getPath(), g);
+      }else{
+        indexes.remove(f.getPath());
+      }
+    }
+  }
+
+  /**
+   * candidates()
+   *
+   * Find the blobs containing all of the given trigrams.
+   *
+   * @param ts The trigrams of the query.
+   * @return The hashes of the blobs, otherwise NULL if every blob is a
+   * candidate.
+   **/
+  public HashSet<String> candidates(int[] ts){
+    if(ts.length <= 0){
+      return null;
+    }
+    int[] res = null;
+    int len = 0;
+    for(int x = 0; x < ts.length && (res == null || len > 0); x++){
+      /* Binary search the trigram table */
+      int lo = 0;
+      int hi = numTrigrams - 1;
+      int found = -1;
+      while(lo <= hi){
+        int mid = (lo + hi) >>> 1;
+        int t = map.getInt(trigramStart + mid * TRIGRAM_LEN);
+        if(t < ts[x]){
+          lo = mid + 1;
+        }else if(t > ts[x]){
+          hi = mid - 1;
+        }else{
+          found = mid;
+          break;
+        }
+      }
+      if(found < 0){
+        len = 0;
+        break;
+      }
+      int off = map.getInt(trigramStart + found * TRIGRAM_LEN + 4);
+      int num = map.getInt(trigramStart + found * TRIGRAM_LEN + 8);
+      if(res == null){
+        res = new int[num];
+        for(int y = 0; y < num; y++){
+          res[y] = map.getInt(postingStart + (off + y) * 4);
+        }
+        len = num;
+        continue;
+      }
+      /* Intersect the sorted postings with the candidates so far */
+      int n = 0;
+      int y = 0;
+      for(int z = 0; z < len; z++){
+        while(y < num && map.getInt(postingStart + (off + y) * 4) < res[z]){
+          ++y;
+        }
+        if(y < num && map.getInt(postingStart + (off + y) * 4) == res[z]){
+          res[n++] = res[z];
+        }
+      }
+      len = n;
+    }
+    HashSet<String> hs = new HashSet<String>();
+    for(int x = 0; x < len; x++){
+      hs.add(hash(HEAD_LEN + res[x] * HASH_LEN));
+    }
+    return hs;
+  }
+
+  /**
+   * search()
+   *
+   * Search the files at the head of a repository for lines containing a
+   * string or matching a regular expression. The index is used to narrow the
+   * files scanned if it is up to date, otherwise every file is scanned up to
+   * a limited number of bytes.
+   *
+   * @param git The repository to be searched.
+   * @param q The string or regular expression to search for.
+   * @param regex True if the query is a regular expression.
+   * @param max The maximum number of matches.
+   * @return The matching lines, otherwise NULL if the query is invalid or too
+   * expensive.
+   **/
+  public static ArrayList<Match> search(Git git, String q, boolean regex, int max){
+    ArrayList<Match> res = new ArrayList<Match>();
+    Git.Commit c = git.getHead();
+    if(c == null || q.length() <= 0){
+      return res;
+    }
+    Pattern p = null;
+    if(regex){
+      try{
+        p = Pattern.compile(q);
+      }catch(PatternSyntaxException e){
+        return null;
+      }
+    }
+    Grep idx = open(git);
+    HashSet<String> cand = idx != null ? idx.candidates(queryTrigrams(q, regex)) : null;
+    ArrayList<String[]> files = new ArrayList<String[]>();
+    files(git, c.tree, "", files);
+    Budget budget = new Budget("", STEPS_MAX);
+    long scanned = 0;
+    try{
+      for(int x = 0; x < files.size() && res.size() < max; x++){
+        String[] f = files.get(x);
+        if(cand != null && !cand.contains(f[1])){
+          continue;
+        }
+        Git.Blob b = git.blob(f[1]);
+        byte[] data = b != null && b.size <= FILE_MAX ? git.readBlob(f[1], FILE_MAX) : null;
+        if(data == null || binary(data)){
+          continue;
+        }
+        /* Without narrowing, give up before reading the whole head */
+        scanned += data.length;
+        if(cand == null && scanned > SCAN_MAX){
+          return null;
+        }
+        String[] lines = new String(data, StandardCharsets.UTF_8).split("\n", -1);
+        for(int y = 0; y < lines.length && res.size() < max; y++){
+          boolean hit;
+          if(p != null){
+            budget.s = lines[y];
+            hit = p.matcher(budget).find();
+          }else{
+            hit = lines[y].contains(q);
+          }
+          if(hit){
+            Match m = new Match();
+            m.path = f[0];
+            m.line = y + 1;
+            m.text = lines[y].length() > LINE_MAX ? lines[y].substring(0, LINE_MAX) : lines[y];
+            res.add(m);
+          }
+        }
+      }
+    }catch(IllegalStateException e){
+      return null;
+    }
+    return res;
+  }
+
+  /**
+   * files()
+   *
+   * Recursively list the regular files below a tree.
+   *
+   * @param git The repository.
+   * @param hash The tree hash.
+   * @param prefix The path of the tree, empty or ending in a forward slash.
+   * @param res The list to add pairs of path and blob hash to.
+   **/
+  private static void files(Git git, String hash, String prefix, ArrayList<String[]> res){
+    Git.Tree t = git.tree(hash);
+    if(t == null){
+      return;
+    }
+    for(int x = 0; x < t.entries.length; x++){
+      Git.TreeEntry e = t.entries[x];
+      switch(e.mode & Git.TreeEntry.MODE_TYPE){
+        case Git.TreeEntry.MODE_TREE :
+          files(git, e.hash, prefix + e.name + "/", res);
+          break;
+        case Git.TreeEntry.MODE_LINK :
+        case Git.TreeEntry.MODE_MODULE :
+          /* Not file contents */
+          break;
+        default :
+          res.add(new String[]{ prefix + e.name, e.hash });
+          break;
+      }
+    }
+  }
+
+  /**
+   * hash()
+   *
+   * Read a hash from the index.
+   *
+   * @param off The offset of the hash.
+   * @return The hash.
+   **/
+  private String hash(int off){
+    byte[] b = new byte[HASH_LEN];
+    for(int x = 0; x < HASH_LEN; x++){
+      b[x] = map.get(off + x);
+    }
+    return new String(b, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * binary()
+   *
+   * Check whether the start of some data looks binary.
+   *
+   * @param data The data to be checked.
+   * @return True if binary, otherwise false.
+   **/
+  private static boolean binary(byte[] data){
+    for(int x = 0; x < data.length && x < BINARY_CHECK; x++){
+      if(data[x] == 0){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * trigrams()
+   *
+   * Get the unique trigrams of some data, ignoring ASCII case. Binary data
+   * has no trigrams.
+   *
+   * @param data The data, otherwise NULL.
+   * @return The sorted unique trigrams.
+   **/
+  private static int[] trigrams(byte[] data){
+    if(data == null || data.length < 3 || binary(data)){
+      return new int[0];
+    }
+    int[] ts = new int[data.length - 2];
+    for(int x = 0; x < ts.length; x++){
+      ts[x] = (lower(data[x]) << 16) | (lower(data[x + 1]) << 8) | lower(data[x + 2]);
+    }
+    Arrays.sort(ts);
+    int n = 0;
+    for(int x = 0; x < ts.length; x++){
+      if(n == 0 || ts[n - 1] != ts[x]){
+        ts[n++] = ts[x];
+      }
+    }
+    return Arrays.copyOf(ts, n);
+  }
+
+  /**
+   * queryTrigrams()
+   *
+   * Get the trigrams any match of a query must contain. For a regular
+   * expression only runs of plain characters that must appear are used, an
+   * alternation or a flag changing how characters match gives up on
+   * narrowing entirely.
+   *
+   * @param q The query.
+   * @param regex True if the query is a regular expression.
+   * @return The trigrams, empty if no narrowing is possible.
+   **/
+  public static int[] queryTrigrams(String q, boolean regex){
+    if(!regex){
+      return trigrams(q.getBytes(StandardCharsets.UTF_8));
+    }
+    if(q.indexOf('|') >= 0){
+      return new int[0];
+    }
+    /* Comments and case insensitive flags change what plain text matches */
+    for(int x = q.indexOf("(?"); x >= 0; x = q.indexOf("(?", x + 1)){
+      for(int y = x + 2; y < q.length() && (Character.isLetter(q.charAt(y)) || q.charAt(y) == '-'); y++){
+        if(q.charAt(y) == 'x' || q.charAt(y) == 'i'){
+          return new int[0];
+        }
+      }
+    }
+    TreeSet<Integer> res = new TreeSet<Integer>();
+    StringBuilder run = new StringBuilder();
+    for(int x = 0; x <= q.length(); x++){
+      char c = x < q.length() ? q.charAt(x) : '\\';
+      if(".^$[](){}*+?\\".indexOf(c) < 0){
+        run.append(c);
+        continue;
+      }
+      /* A quantified character may not appear */
+      if((c == '*' || c == '?' || c == '{') && run.length() > 0){
+        run.setLength(run.length() - 1);
+      }
+      int[] ts = trigrams(run.toString().getBytes(StandardCharsets.UTF_8));
+      for(int y = 0; y < ts.length; y++){
+        res.add(ts[y]);
+      }
+      run.setLength(0);
+      /* Skip escapes, classes, counts and groups, which are not plain text */
+      if(c == '\\'){
+        x = escapeEnd(q, x);
+      }else if(c == '{'){
+        while(x < q.length() && q.charAt(x) != '}'){
+          ++x;
+        }
+      }else if(c == '['){
+        while(x < q.length() && q.charAt(x) != ']'){
+          x = (q.charAt(x) == '\\' ? escapeEnd(q, x) : x) + 1;
+        }
+      }else if(c == '('){
+        /* The contents of a group may be quantified as a whole */
+        int depth = 0;
+        for(; x < q.length(); x++){
+          if(q.charAt(x) == '\\'){
+            x = escapeEnd(q, x);
+          }else if(q.charAt(x) == '('){
+            ++depth;
+          }else if(q.charAt(x) == ')' && --depth <= 0){
+            break;
+          }
+        }
+      }
+    }
+    int[] ts = new int[res.size()];
+    int n = 0;
+    for(Integer t : res){
+      ts[n++] = t;
+    }
+    return ts;
+  }
+
+  /**
+   * escapeEnd()
+   *
+   * Find the end of an escape sequence in a regular expression, including
+   * any hex, unicode, octal, property, named or quoted characters that
+   * follow the backslash.
+   *
+   * @param q The regular expression.
+   * @param x The offset of the backslash.
+   * @return The offset of the last character of the escape sequence.
+   **/
+  private static int escapeEnd(String q, int x){
+    int n = q.length();
+    if(x + 1 >= n){
+      return x;
+    }
+    char c = q.charAt(++x);
+    int e;
+    switch(c){
+      case 'x' :
+      case 'p' :
+      case 'P' :
+      case 'N' :
+        if(x + 1 < n && q.charAt(x + 1) == '{'){
+          e = q.indexOf('}', x);
+          return e >= 0 ? e : n - 1;
+        }
+        return Math.min(x + (c == 'x' ? 2 : 1), n - 1);
+      case 'k' :
+        e = q.indexOf('>', x);
+        return e >= 0 ? e : n - 1;
+      case 'u' :
+        return Math.min(x + 4, n - 1);
+      case 'c' :
+        return Math.min(x + 1, n - 1);
+      case '0' :
+        for(int y = 0; y < 3 && x + 1 < n && q.charAt(x + 1) >= '0' && q.charAt(x + 1) <= '7'; y++){
+          ++x;
+        }
+        return x;
+      case 'Q' :
+        e = q.indexOf("\\E", x);
+        return e >= 0 ? e + 1 : n - 1;
+      default :
+        return x;
+    }
+  }
+
+  /**
+   * lower()
+   *
+   * Convert a byte to an unsigned value, folding ASCII upper case.
+   *
+   * @param b The byte.
+   * @return The folded value.
+   **/
+  private static int lower(byte b){
+    int c = b & 0xFF;
+    return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+  }
+
+  /**
+   * assurt()
+   *
+   * A very simple assertion method for testing that the search isn't
+   * regressing.
+   *
+   * @param r The result to test.
+   * @return Pass through for the result value.
+   **/
+  private static boolean assurt(boolean r){
+    System.out.println(
+      "[" + (r ? "PASS" : "FAIL") + "] " +
+      Thread.currentThread().getStackTrace()[2].getClassName() + "->" +
+      Thread.currentThread().getStackTrace()[2].getMethodName() + "::" +
+      Thread.currentThread().getStackTrace()[2].getLineNumber()
+    );
+    return r;
+  }
+
+  /**
+   * test()
+   *
+   * Test that the query trigrams never exclude a matching file. The result of
+   * each test and a summary is printed to the standard out, as well as a
+   * boolean indicating test success.
+   *
+   * @return The result of performing the tests, true if success, otherwise
+   * false.
+   **/
+  public static boolean test(){
+    boolean r = true;
+    r &= assurt(queryTrigrams("ab", false).length == 0);
+    r &= assurt(Arrays.equals(queryTrigrams("abcd", false), queryTrigrams("ABCD", false)));
+    r &= assurt(queryTrigrams("abcd", false).length == 2);
+    r &= assurt(queryTrigrams("abcd", true).length == 2);
+    r &= assurt(queryTrigrams("ab|cd", true).length == 0);
+    r &= assurt(queryTrigrams("a\\dbc", true).length == 0);
+    r &= assurt(queryTrigrams("abcd*", true).length == 1);
+    r &= assurt(queryTrigrams("[abcd]e", true).length == 0);
+    r &= assurt(queryTrigrams("(abcd)?xyz", true).length == 1);
+    r &= assurt(queryTrigrams("foo.*bar", true).length == 2);
+    r &= assurt(queryTrigrams("abcd{2,3}xyz", true).length == 2);
+    r &= assurt(queryTrigrams("\\x41bcd\\u0041bcd\\0101bcd", true).length == 1);
+    r &= assurt(queryTrigrams("\\p{Lu}bcd\\QM(i)\\Ebcd", true).length == 1);
+    r &= assurt(queryTrigrams("(?i)abcd", true).length == 0);
+    r &= assurt(queryTrigrams("(?x)ab cd", true).length == 0);
+    /* Every query trigram must be a trigram of a matching line */
+    String line = "public static void Main(String[] args)";
+    String[] qs = new String[]{
+      "static\\s+void", "Main\\(Str", "(?i)MAIN", "[Pp]ublic",
+      "\\x4dain\\(", "\\u004dain\\(", "\\0115ain\\(", "\\p{Lu}ain\\(", "\\QMain(\\EString",
+      "\\x{4d}ain", "(?x) s t a t i c", "(?iu)pUBLIC"
+    };
+    int[] all = trigrams(line.getBytes(StandardCharsets.UTF_8));
+    for(int x = 0; x < qs.length; x++){
+      boolean ok = Pattern.compile(qs[x]).matcher(line).find();
+      int[] ts = queryTrigrams(qs[x], true);
+      for(int y = 0; y < ts.length; y++){
+        ok &= Arrays.binarySearch(all, ts[y]) >= 0;
+      }
+      r &= assurt(ok);
+    }
+    /* Pathological expressions are stopped */
+    boolean stopped = false;
+    try{
+      Pattern.compile("(.*a){20}").matcher(new Budget("aaaaaaaaaaaaaaaaaaaaaaaaaaac", 1000000)).find();
+    }catch(IllegalStateException e){
+      stopped = true;
+    }
+    r &= assurt(stopped);
+    /* Print result */
+    System.out.println("");
+    System.out.println("  Tests " + (r ? "PASSED" : "FAILED"));
+    return r;
+  }
+}
@@ -0,0 +1,460 @@
+package b.gp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+/**
+ * Highlight.java
+ *
+ * A lightweight syntax highlighter. The language is picked from the file
+ * name and the text is tokenized in a single pass into comments, strings,
+ * numbers and keywords, written as escaped HTML one line at a time. Spans
+ * are closed at the end of each line and reopened on the next, so every line
+ * stands alone and can be placed in a diff hunk or a blame row. Blobs never
+ * change, so the result is cached by blob hash and shared by every page
+ * showing the same blob.
+ **/
+public class Highlight{
+  /**
+   * Language.Highlight.java
+   *
+   * The lexical rules of a language.
+   **/
+  private static class Language{
+    public String name;
+    public String line;
+    public String blockStart;
+    public String blockEnd;
+    public String quotes;
+    public String multi;
+    public boolean triple;
+    public HashSet<String> keywords;
+
+    /**
+     * Language()
+     *
+     * Define a language.
+     *
+     * @param name The unique name of the language.
+     * @param line The start of a line comment, otherwise NULL.
+     * @param block The start and end of a block comment separated by a
+     * space, otherwise NULL.
+     * @param quotes The characters that start and end a string.
+     * @param multi The quotes whose strings may span lines.
+     * @param triple True if tripled quotes start a string spanning lines.
+     * @param keywords The keywords separated by spaces.
+     **/
+    public Language(
+      String name,
+      String line,
+      String block,
+      String quotes,
+      String multi,
+      boolean triple,
+      String keywords
+    ){
+      this.name = name;
+      this.line = line;
+      this.blockStart = block != null ? block.split(" ")[0] : null;
+      this.blockEnd = block != null ? block.split(" ")[1] : null;
+      this.quotes = quotes;
+      this.multi = multi;
+      this.triple = triple;
+      this.keywords = new HashSet<String>(Arrays.asList(keywords.split(" ")));
+    }
+  }
+
+  private static final long HIGHLIGHT_CACHE_MAX = 8 * 1024 * 1024;
+  private static final String SPAN_COMMENT = "hc";
+  private static final String SPAN_KEYWORD = "hk";
+  private static final String SPAN_NUMBER = "hn";
+  private static final String SPAN_STRING = "hs";
+  private static final HashMap<String, Language> LANGUAGES = new HashMap<String, Language>();
+  private static final LinkedHashMap<String, String[]> cache =
+    new LinkedHashMap<String, String[]>(16, 0.75f, true);
+  private static long cacheSize = 0;
+
+  static{
+    Language c = new Language(
+      "c", "//", "/* */", "\"'", "", false,
+      "auto bool break case char class const constexpr continue default " +
+      "delete do double else enum extern false float for goto if inline int " +
+      "long namespace new nullptr private protected public register return " +
+      "short signed sizeof static struct switch template this throw true try " +
+      "typedef typename union unsigned using virtual void volatile while"
+    );
+    Language java = new Language(
+      "java", "//", "/* */", "\"'", "", false,
+      "abstract assert boolean break byte case catch char class const " +
+      "continue default do double else enum extends false final finally float " +
+      "for goto if implements import instanceof int interface long native new " +
+      "null package private protected public record return short static " +
+      "strictfp super switch synchronized this throw throws transient true try " +
+      "var void volatile while"
+    );
+    Language js = new Language(
+      "js", "//", "/* */", "\"'`", "`", false,
+      "async await break case catch class const continue debugger default " +
+      "delete do else enum export extends false finally for function if " +
+      "implements import in instanceof interface let new null return static " +
+      "super switch this throw true try type typeof undefined var void while " +
+      "yield"
+    );
+    Language go = new Language(
+      "go", "//", "/* */", "\"'`", "`", false,
+      "break case chan const continue default defer else fallthrough false " +
+      "for func go goto if import interface map nil package range return " +
+      "select struct switch true type var"
+    );
+    Language rust = new Language(
+      "rust", "//", "/* */", "\"", "", false,
+      "as async await break const continue crate dyn else enum extern false " +
+      "fn for if impl in let loop match mod move mut pub ref return self Self " +
+      "static struct super trait true type unsafe use where while"
+    );
+    Language cs = new Language(
+      "cs", "//", "/* */", "\"'", "", false,
+      "abstract as base bool break byte case catch char checked class const " +
+      "continue decimal default delegate do double else enum event explicit " +
+      "extern false finally fixed float for foreach goto if implicit in int " +
+      "interface internal is lock long namespace new null object operator out " +
+      "override params private protected public readonly ref return sbyte " +
+      "sealed short sizeof static string struct switch this throw true try " +
+      "typeof uint ulong unchecked unsafe ushort using var virtual void " +
+      "volatile while"
+    );
+    Language py = new Language(
+      "py", "#", null, "\"'", "", true,
+      "and as assert async await break class continue def del elif else " +
+      "except False finally for from global if import in is lambda None " +
+      "nonlocal not or pass raise return self True try while with yield"
+    );
+    Language sh = new Language(
+      "sh", "#", null, "\"'", "\"'", false,
+      "break case continue do done elif else esac exit export fi for " +
+      "function if in local return then until while"
+    );
+    Language rb = new Language(
+      "rb", "#", null, "\"'", "", false,
+      "alias and begin break case class def defined do else elsif end ensure " +
+      "false for if in module next nil not or redo rescue retry return self " +
+      "super then true undef unless until when while yield"
+    );
+    Language conf = new Language(
+      "conf", "#", null, "\"'", "", false,
+      "false no null true yes"
+    );
+    Language css = new Language(
+      "css", null, "/* */", "\"'", "", false,
+      "important"
+    );
+    Language[] langs = new Language[]{ c, java, js, go, rust, cs, py, sh, rb, conf, css };
+    String[][] exts = new String[][]{
+      { ".c", ".h", ".cc", ".cpp", ".cxx", ".hh", ".hpp", ".hxx" },
+      { ".java" },
+      { ".js", ".mjs", ".cjs", ".jsx", ".ts", ".tsx" },
+      { ".go" },
+      { ".rs" },
+      { ".cs" },
+      { ".py" },
+      { ".sh", ".bash", ".mk", "Makefile", "makefile", "GNUmakefile" },
+      { ".rb" },
+      { ".yml", ".yaml", ".toml", ".ini", ".cfg", ".conf" },
+      { ".css" }
+    };
+    for(int x = 0; x < langs.length; x++){
+      for(int y = 0; y < exts[x].length; y++){
+        LANGUAGES.put(exts[x][y], langs[x]);
+      }
+    }
+  }
+
+  private Language lang;
+  private String s;
+  private ArrayList<String> lines;
+  private StringBuilder line;
+  private int nextLine;
+
+  /**
+   * Highlight()
+   *
+   * Prepare to highlight a text.
+   *
+   * @param lang The language of the text, otherwise NULL for plain text.
+   * @param s The text to be highlighted.
+   **/
+  private Highlight(Language lang, String s){
+    this.lang = lang;
+    this.s = s;
+    lines = new ArrayList<String>();
+    line = new StringBuilder();
+    nextLine = -1;
+  }
+
+  /**
+   * language()
+   *
+   * Find the language of a file from its name.
+   *
+   * @param path The path of the file.
+   * @return The language, otherwise NULL if not known.
+   **/
+  private static Language language(String path){
+    if(path == null){
+      return null;
+    }
+    String name = path.substring(path.lastIndexOf('/') + 1);
+    /* Whole names are kept as they are, extensions with their full stop */
+    Language l = LANGUAGES.get(name);
+    int dot = name.lastIndexOf('.');
+    return l != null || dot < 0 ? l : LANGUAGES.get(name.substring(dot));
+  }
+
+  /**
+   * html()
+   *
+   * Get the highlighted lines of a blob. The lines match those of
+   * Diff.lines(), so a trailing new line does not start another line.
+   *
+   * @param hash The blob hash the text was read from, otherwise NULL if the
+   * result should not be cached.
+   * @param path The path of the file, used to pick the language.
+   * @param s The text of the blob, possibly truncated.
+   * @return The HTML for each line.
+   **/
+  public static String[] html(String hash, String path, String s){
+    Language l = language(path);
+    if(l == null || hash == null){
+      return (new Highlight(l, s)).lines();
+    }
+    /* Truncated reads of a blob differ in length, keep them apart */
+    String key = hash + "/" + l.name + "/" + s.length();
+    synchronized(cache){
+      String[] res = cache.get(key);
+      if(res != null){
+        return res;
+      }
+    }
+    String[] res = (new Highlight(l, s)).lines();
+    long size = 0;
+    for(int x = 0; x < res.length; x++){
+      size += res[x].length();
+    }
+    synchronized(cache){
+      if(cache.put(key, res) == null){
+        cacheSize += size;
+      }
+      while(cacheSize > HIGHLIGHT_CACHE_MAX && cache.size() > 1){
+        String oldest = cache.keySet().iterator().next();
+        String[] old = cache.remove(oldest);
+        for(int x = 0; x < old.length; x++){
+          cacheSize -= old[x].length();
+        }
+      }
+    }
+    return res;
+  }
+
+  /**
+   * lines()
+   *
+   * Tokenize the text in a single pass.
+   *
+   * @return The HTML for each line.
+   **/
+  private String[] lines(){
+    int n = s.length();
+    int x = 0;
+    while(x < n){
+      char c = s.charAt(x);
+      int e;
+      if(lang == null){
+        emit(null, x, n);
+        break;
+      }else if(lang.line != null && s.startsWith(lang.line, x)){
+        e = s.indexOf('\n', x);
+        emit(SPAN_COMMENT, x, e < 0 ? n : e);
+        x = e < 0 ? n : e;
+      }else if(lang.blockStart != null && s.startsWith(lang.blockStart, x)){
+        e = s.indexOf(lang.blockEnd, x + lang.blockStart.length());
+        e = e < 0 ? n : e + lang.blockEnd.length();
+        emit(SPAN_COMMENT, x, e);
+        x = e;
+      }else if(lang.quotes.indexOf(c) >= 0){
+        String q = "" + c + c + c;
+        if(lang.triple && s.startsWith(q, x)){
+          e = s.indexOf(q, x + 3);
+          e = e < 0 ? n : e + 3;
+        }else{
+          boolean multi = lang.multi.indexOf(c) >= 0;
+          for(e = x + 1; e < n; e++){
+            char d = s.charAt(e);
+            if(d == '\\'){
+              ++e;
+            }else if(d == c){
+              ++e;
+              break;
+            }else if(d == '\n' && !multi){
+              break;
+            }
+          }
+          e = Math.min(e, n);
+        }
+        emit(SPAN_STRING, x, e);
+        x = e;
+      }else if(c >= '0' && c <= '9'){
+        for(e = x + 1; e < n; e++){
+          char d = s.charAt(e);
+          if(!Character.isLetterOrDigit(d) && d != '.' && d != '_'){
+            break;
+          }
+        }
+        emit(SPAN_NUMBER, x, e);
+        x = e;
+      }else if(Character.isJavaIdentifierStart(c)){
+        for(e = x + 1; e < n && Character.isJavaIdentifierPart(s.charAt(e)); e++);
+        emit(lang.keywords.contains(s.substring(x, e)) ? SPAN_KEYWORD : null, x, e);
+        x = e;
+      }else{
+        /* Gather everything that cannot start a token */
+        for(e = x + 1; e < n; e++){
+          char d = s.charAt(e);
+          if(
+            Character.isLetterOrDigit(d) || Character.isJavaIdentifierStart(d) ||
+            lang.quotes.indexOf(d) >= 0 ||
+            (lang.line != null && d == lang.line.charAt(0)) ||
+            (lang.blockStart != null && d == lang.blockStart.charAt(0))
+          ){
+            break;
+          }
+        }
+        emit(null, x, e);
+        x = e;
+      }
+    }
+    /* A trailing new line does not start another line */
+    if(n > 0 && s.charAt(n - 1) != '\n'){
+      lines.add(line.toString());
+    }
+    return lines.toArray(new String[0]);
+  }
+
+  /**
+   * emit()
+   *
+   * Write a token, ending the current line at each new line it contains. The
+   * next new line is only searched for again once a token passes it.
+   *
+   * @param span The class of the token, otherwise NULL for plain text.
+   * @param start The offset of the start of the token.
+   * @param end The offset of the end of the token.
+   **/
+  private void emit(String span, int start, int end){
+    while(start < end){
+      if(nextLine < start){
+        nextLine = s.indexOf('\n', start);
+        nextLine = nextLine < 0 ? s.length() : nextLine;
+      }
+      int e = Math.min(nextLine, end);
+      if(e > start){
+        if(span != null){
+          line.append("<span class=\"");
+          line.append(  span);
+          line.append(  "\">");
+        }
+        PageBuilder.sanitize(s.substring(start, e), line);
+        if(span != null){
+          line.append("</span>");
+        }
+      }
+      if(e < end){
+        lines.add(line.toString());
+        line.setLength(0);
+        ++e;
+      }
+      start = e;
+    }
+  }
+
+  /**
+   * assurt()
+   *
+   * A very simple assertion method for testing that the highlighter isn't
+   * regressing.
+   *
+   * @param r The result to test.
+   * @return Pass through for the result value.
+   **/
+  private static boolean assurt(boolean r){
+    System.out.println(
+      "[" + (r ? "PASS" : "FAIL") + "] " +
+      Thread.currentThread().getStackTrace()[2].getClassName() + "->" +
+      Thread.currentThread().getStackTrace()[2].getMethodName() + "::" +
+      Thread.currentThread().getStackTrace()[2].getLineNumber()
+    );
+    return r;
+  }
+
+  /**
+   * test()
+   *
+   * Test that the highlighter works as expected. The result of each test and
+   * a summary is printed to the standard out, as well as a boolean
+   * indicating test success.
+   *
+   * @return The result of performing the tests, true if success, otherwise
+   * false.
+   **/
+  public static boolean test(){
+    boolean r = true;
+    /* Lines match those of the diff */
+    String[] texts = new String[]{ "", "\n", "a", "a\n", "a\n\nb", "a\nb\n\n" };
+    for(int x = 0; x < texts.length; x++){
+      r &= assurt(html(null, "x.java", texts[x]).length == Diff.lines(texts[x]).length);
+      r &= assurt(Arrays.equals(html(null, "x", texts[x]), Diff.lines(texts[x])));
+    }
+    /* Tokens */
+    r &= assurt(Arrays.equals(
+      html(null, "A.java", "int x = 42; // <b>"),
+      new String[]{
+        "<span class=\"hk\">int</span> x = <span class=\"hn\">42</span>; " +
+        "<span class=\"hc\">// &lt;b&gt;</span>"
+      }
+    ));
+    r &= assurt(Arrays.equals(
+      html(null, "a.c", "s = \"a\\\"b\"; if"),
+      new String[]{ "s = <span class=\"hs\">&quot;a\\&quot;b&quot;</span>; <span class=\"hk\">if</span>" }
+    ));
+    r &= assurt(Arrays.equals(
+      html(null, "a.py", "x1 = 'if' # if"),
+      new String[]{ "x1 = <span class=\"hs\">&#39;if&#39;</span> <span class=\"hc\"># if</span>" }
+    ));
+    /* Block comments and long strings reopen on each line */
+    r &= assurt(Arrays.equals(
+      html(null, "a.c", "/* a\nb */ c"),
+      new String[]{ "<span class=\"hc\">/* a</span>", "<span class=\"hc\">b */</span> c" }
+    ));
+    r &= assurt(Arrays.equals(
+      html(null, "a.py", "\"\"\"a\n\nb\"\"\"\n"),
+      new String[]{ "<span class=\"hs\">&quot;&quot;&quot;a</span>", "", "<span class=\"hs\">b&quot;&quot;&quot;</span>" }
+    ));
+    /* Unterminated strings end with their line */
+    r &= assurt(Arrays.equals(
+      html(null, "a.java", "\"a\nb"),
+      new String[]{ "<span class=\"hs\">&quot;a</span>", "b" }
+    ));
+    r &= assurt(html(null, "src/Makefile", "# x")[0].contains("hc"));
+    r &= assurt(html(null, "go", "// x")[0].equals("// x"));
+    /* Cached by blob */
+    String[] a = html("0123", "a.c", "int a;\n");
+    r &= assurt(a == html("0123", "a.c", "int a;\n"));
+    r &= assurt(a != html("0123", "a.c", "int a;"));
+    /* Print result */
+    System.out.println("");
+    System.out.println("  Tests " + (r ? "PASSED" : "FAILED"));
+    return r;
+  }
+}
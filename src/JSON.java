@@ -2,6 +2,7 @@ package b.gp;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
 
 /**
@@ -10,6 +11,190 @@ import java.util.Scanner;
  * A single file JSON parser.
  **/
 public class JSON{
+  /**
+   * Writer.JSON.java
+   *
+   * Write JSON straight into a buffer as it is generated, rather than building
+   * a tree of JSON objects first. Output matches the compact form produced by
+   * toString(), with values escaped.
+   **/
+  public static class Writer{
+    private StringBuilder sb;
+    private char[] ends;
+    private boolean[] first;
+    private int depth;
+
+    /**
+     * Writer()
+     *
+     * Start writing JSON.
+     *
+     * @param sb The buffer to write to.
+     **/
+    public Writer(StringBuilder sb){
+      this.sb = sb;
+      this.ends = new char[8];
+      this.first = new boolean[8];
+      this.depth = 0;
+    }
+
+    /**
+     * obj()
+     *
+     * Open an object.
+     *
+     * @param key The key of the object, NULL if in an array or at the root.
+     * @return This writer.
+     **/
+    public Writer obj(String key){
+      return open(key, '{', '}');
+    }
+
+    /**
+     * arr()
+     *
+     * Open an array.
+     *
+     * @param key The key of the array, NULL if in an array or at the root.
+     * @return This writer.
+     **/
+    public Writer arr(String key){
+      return open(key, '[', ']');
+    }
+
+    /**
+     * end()
+     *
+     * Close the most recently opened object or array.
+     *
+     * @return This writer.
+     **/
+    public Writer end(){
+      if(depth > 0){
+        sb.append(ends[--depth]);
+      }
+      return this;
+    }
+
+    /**
+     * str()
+     *
+     * Write a String value.
+     *
+     * @param key The key of the value, NULL if in an array.
+     * @param val The value, NULL values are written as null.
+     * @return This writer.
+     **/
+    public Writer str(String key, String val){
+      key(key);
+      if(val != null){
+        escape(val);
+      }else{
+        sb.append("null");
+      }
+      return this;
+    }
+
+    /**
+     * num()
+     *
+     * Write a number value.
+     *
+     * @param key The key of the value, NULL if in an array.
+     * @param val The value.
+     * @return This writer.
+     **/
+    public Writer num(String key, long val){
+      key(key);
+      sb.append(val);
+      return this;
+    }
+
+    /**
+     * open()
+     *
+     * Open an object or array.
+     *
+     * @param key The key, NULL if in an array or at the root.
+     * @param start The opening character.
+     * @param end The matching closing character.
+     * @return This writer.
+     **/
+    private Writer open(String key, char start, char end){
+      key(key);
+      if(depth >= ends.length){
+        ends = Arrays.copyOf(ends, depth * 2);
+        first = Arrays.copyOf(first, depth * 2);
+      }
+      ends[depth] = end;
+      first[depth++] = true;
+      sb.append(start);
+      return this;
+    }
+
+    /**
+     * key()
+     *
+     * Write the separator and key before a value.
+     *
+     * @param key The key, NULL if in an array or at the root.
+     **/
+    private void key(String key){
+      if(depth > 0){
+        if(!first[depth - 1]){
+          sb.append(',');
+        }
+        first[depth - 1] = false;
+      }
+      if(key != null){
+        escape(key);
+        sb.append(':');
+      }
+    }
+
+    /**
+     * escape()
+     *
+     * Write a quoted and escaped String.
+     *
+     * @param s The String to be written.
+     **/
+    private void escape(String s){
+      sb.append('"');
+      int i = 0;
+      for(int x = 0; x < s.length(); x++){
+        char c = s.charAt(x);
+        if(c >= ' ' && c != '"' && c != '\\'){
+          continue;
+        }
+        sb.append(s, i, x);
+        switch(c){
+          case '"' :
+            sb.append("\\\"");
+            break;
+          case '\\' :
+            sb.append("\\\\");
+            break;
+          case '\n' :
+            sb.append("\\n");
+            break;
+          case '\r' :
+            sb.append("\\r");
+            break;
+          case '\t' :
+            sb.append("\\t");
+            break;
+          default :
+            sb.append(String.format("\\u%04x", (int)c));
+            break;
+        }
+        i = x + 1;
+      }
+      sb.append(s, i, s.length());
+      sb.append('"');
+    }
+  }
+
   private static final int TYPE_OBJ = 1;
   private static final int TYPE_ARR = 2;
   private static final int TYPE_STR = 3;
@@ -445,6 +630,28 @@ public class JSON{
       e.printStackTrace();
       r = false;
     }
+    /* Run writer tests */
+    StringBuilder sb = new StringBuilder();
+    (new Writer(sb))
+      .obj(null)
+        .str("a", "1")
+        .arr("b")
+          .str(null, "x\"y\\z\n")
+          .num(null, -2)
+          .obj(null).end()
+        .end()
+        .obj("c").str("d", null).end()
+      .end();
+    r &= assurt(sb.toString().equals("{\"a\":\"1\",\"b\":[\"x\\\"y\\\\z\\n\",-2,{}],\"c\":{\"d\":null}}"));
+    try{
+      sb.setLength(0);
+      (new Writer(sb)).obj(null).str("a", "1").arr("b").str(null, "x").end().end();
+      r &= assurt(new JSON(sb.toString()).toString().equals(sb.toString()));
+    }catch(Exception e){
+      System.out.println(">> Major Screw Up <<");
+      e.printStackTrace();
+      r = false;
+    }
     /* Print result */
     System.out.println("");
     System.out.println("  Tests " + (r ? "PASSED" : "FAILED"));
@@ -3,6 +3,8 @@ package b.gp;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Main.java
@@ -37,6 +39,10 @@ public class Main{
     /* Loop over the arguments */
     for(int x = 0; x < args.length; x++){
       switch(args[x]){
+        case "-b" :
+        case "--bench" :
+          x = bench(args, x);
+          break;
         case "-c" :
         case "--config" :
           x = config(args, x);
@@ -69,11 +75,21 @@ public class Main{
   /**
    * getRepos()
    *
-   * Get the repositories to be monitored.
+   * Get the repositories to be monitored. The repositories are loaded in the
+   * background so that the server can start whilst they are being read. If
+   * lazy loading is enabled, repositories are only loaded on first request.
    *
    * @return A HashMap of repositories found.
    **/
   private HashMap<String, Git> getRepos(){
+    /* Setup the pool to load repositories with */
+    int threads = Integer.parseInt(
+      config.get("maintain").get("load-threads").value("4")
+    );
+    boolean lazy = config.get("maintain").get("lazy-load").value("false").equals("true");
+    log("Repository load threads set to '" + threads + "'");
+    log("Repository lazy loading set to '" + lazy + "'");
+    ExecutorService loader = Executors.newFixedThreadPool(threads);
     /* Add repos to be monitored */
     HashMap<String, Git> repos = new HashMap<String, Git>();
     for(int x = 0; x < config.get("repos").length(); x++){
@@ -90,8 +106,11 @@ public class Main{
         log("Adding repository '" + d.getAbsolutePath() + "'");
         /* Get if we want the repo to be able to pull */
         boolean pull = entry.get("maintain").value("false").equals("true");
-        Git git = new Git(d.getAbsoluteFile(), pull);
+        Git git = new Git(d.getAbsoluteFile(), pull, loader);
         repos.put(entry.get("url").value(null), git);
+        if(!lazy){
+          git.activate();
+        }
       }else{
         Main.warn("Can't add repo '" + entry.get("url").value("NULL") + "'");
       }
@@ -135,6 +154,7 @@ public class Main{
     System.out.println("");
     System.out.println("  OPTions");
     System.out.println("");
+    System.out.println("    -b  --bench     Perform internal benchmarks");
     System.out.println("    -c  --config    Load a configuration file");
     System.out.println("                      <STR> Path to config file");
     System.out.println("    -h  --help      Display this help");
@@ -143,6 +163,22 @@ public class Main{
     return x;
   }
 
+  /**
+   * bench()
+   *
+   * Perform benchmarks and then exit.
+   *
+   * @param args The command line arguments.
+   * @param x The command line offset.
+   * @return The new command line offset.
+   **/
+  private int bench(String[] args, int x){
+    System.out.println("sanitize()");
+    PageBuilder.bench();
+    System.exit(0);
+    return x;
+  }
+
   /**
    * test()
    *
@@ -154,6 +190,12 @@ public class Main{
    **/
   private int test(String[] args, int x){
     JSON.test();
+    Markdown.test();
+    Search.test();
+    Grep.test();
+    Diff.test();
+    Highlight.test();
+    Stats.test();
     System.exit(0);
     return x;
   }
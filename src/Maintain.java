@@ -11,7 +11,11 @@ import java.util.HashMap;
  **/
 public class Maintain extends Thread{
   private int repoLoopMillis;
+  private long repoEvictMillis;
+  private boolean archiveCache;
+  private boolean grepIndex;
   private HashMap<String, Git> repos;
+  private HashMap<String, String> cachedHeads;
 
   /**
    * Maintain()
@@ -27,8 +31,20 @@ public class Maintain extends Thread{
       config.get("maintain").get("loop-wait-s").value("600000")
     );
     Main.log("Maintenance loop wait set to '" + repoLoopMillis + "'");
+    /* Get the idle time before eviction */
+    repoEvictMillis = 1000L * Integer.parseInt(
+      config.get("maintain").get("evict-idle-s").value("0")
+    );
+    Main.log("Maintenance evict idle set to '" + repoEvictMillis + "'");
+    /* Check whether head archives should be kept on disk */
+    archiveCache = config.get("maintain").get("archive-cache").value("false").equals("true");
+    Main.log("Maintenance archive cache set to '" + archiveCache + "'");
+    /* Check whether the head should be indexed for code search */
+    grepIndex = config.get("maintain").get("grep-index").value("false").equals("true");
+    Main.log("Maintenance grep index set to '" + grepIndex + "'");
     /* Add repos to be monitored */
     this.repos = repos;
+    cachedHeads = new HashMap<String, String>();
   }
 
   /**
@@ -50,6 +66,14 @@ public class Maintain extends Thread{
       long loopTimeout = System.currentTimeMillis() + repoLoopMillis;
       /* Check each repository */
       for(String key : repos.keySet()){
+        /* Release repositories that haven't been used in a while */
+        if(repoEvictMillis > 0 && repos.get(key).evict(repoEvictMillis)){
+          Main.log("Evicted idle repository '" + key + "'");
+        }
+        /* Skip repositories that are still loading */
+        if(repos.get(key).loading()){
+          continue;
+        }
         try{
           /* Check the repo for remote changes */
           if(repos.get(key).fetch().length() >= 4){
@@ -63,6 +87,26 @@ public class Maintain extends Thread{
         }catch(Exception e){
           Main.warn("Error checking repository '" + key + "'");
         }
+        /* Regenerate the generated files only once the head has moved */
+        Git.Commit head = repos.get(key).ready() ? repos.get(key).getHead() : null;
+        if(
+          (archiveCache || grepIndex) &&
+          head != null &&
+          !head.hash.equals(cachedHeads.get(key))
+        ){
+          try{
+            clean(repos.get(key));
+            if(archiveCache){
+              Archive.cache(repos.get(key), key);
+            }
+            if(grepIndex){
+              Grep.update(repos.get(key));
+            }
+            cachedHeads.put(key, head.hash);
+          }catch(Exception e){
+            Main.warn("Error generating files for '" + key + "'");
+          }
+        }
       }
       /* Wait until we can go again */
       long loopRemain = loopTimeout - System.currentTimeMillis();
@@ -76,4 +120,22 @@ public class Maintain extends Thread{
       }
     }
   }
+
+  /**
+   * clean()
+   *
+   * Remove temporary files left in the cache directory of a repository by
+   * an interrupted write. Only this thread writes to the cache directory, so
+   * any temporary file found is stale.
+   *
+   * @param git The repository to be cleaned.
+   **/
+  private static void clean(Git git){
+    File[] files = git.cacheDir().listFiles();
+    for(int x = 0; files != null && x < files.length; x++){
+      if(files[x].getName().endsWith(".tmp") && !files[x].delete()){
+        Main.warn("Unable to remove '" + files[x] + "'");
+      }
+    }
+  }
 }
@@ -0,0 +1,1457 @@
+package b.gp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+
+/**
+ * Markdown.java
+ *
+ * Render a subset of CommonMark to HTML in a single pass. Input is consumed a
+ * line at a time and output written as soon as a block is complete, so only
+ * the current paragraph is ever held. Raw HTML is not supported, all text is
+ * escaped.
+ **/
+public class Markdown{
+  /**
+   * Delim.Markdown.java
+   *
+   * A run of emphasis characters that may open or close emphasis.
+   **/
+  private static class Delim{
+    public char c;
+    public int count;
+    public int orig;
+    public boolean canOpen;
+    public boolean canClose;
+    public String open = "";
+    public String close = "";
+  }
+
+  private static final int BLOCK_NONE = 0;
+  private static final int BLOCK_PARA = 1;
+  private static final int BLOCK_FENCE = 2;
+  private static final int BLOCK_CODE = 3;
+  private static final int BLOCK_TABLE = 4;
+  private static final int BLOCK_QUOTE = 5;
+  private static final int BLOCK_LIST = 6;
+  private static final int TAB_STOP = 4;
+  private static final int ENTITY_MAX = 32;
+  private static final int LINK_DEPTH_MAX = 16;
+  private static final int BUFF_LEN = 4096;
+  private static final String[] URL_SCHEMES = new String[]{
+    "http",
+    "https",
+    "mailto",
+    "ftp"
+  };
+
+  private StringBuilder out;
+  private int block;
+  private boolean bare;
+  private StringBuilder para;
+  private int paraLines;
+  private char fenceChar;
+  private int fenceLen;
+  private int fenceIndent;
+  private int codeBlank;
+  private String[] align;
+  private Markdown child;
+  private boolean ordered;
+  private char listChar;
+  private int itemIndent;
+  private boolean blankSeen;
+  private boolean loose;
+  private boolean markOrdered;
+  private char markChar;
+  private int markStart;
+  private boolean markEmpty;
+
+  /**
+   * Markdown()
+   *
+   * Prepare to render Markdown.
+   *
+   * @param out Where the rendered HTML is written.
+   **/
+  public Markdown(StringBuilder out){
+    this(out, false);
+  }
+
+  /**
+   * Markdown()
+   *
+   * Prepare to render the contents of a block quote or list item.
+   *
+   * @param out Where the rendered HTML is written.
+   * @param bare If true, paragraphs are written without paragraph tags, as
+   * in a tight list.
+   **/
+  private Markdown(StringBuilder out, boolean bare){
+    this.out = out;
+    this.block = BLOCK_NONE;
+    this.bare = bare;
+    this.para = new StringBuilder();
+    this.paraLines = 0;
+  }
+
+  /**
+   * render()
+   *
+   * Render an entire Markdown document.
+   *
+   * @param s The Markdown document.
+   * @return The HTML.
+   **/
+  public static String render(String s){
+    StringBuilder sb = new StringBuilder(s.length() + (s.length() >> 2));
+    try{
+      (new Markdown(sb)).render(new StringReader(s));
+    }catch(IOException e){
+      /* Reading from a String cannot fail */
+    }
+    return sb.toString();
+  }
+
+  /**
+   * render()
+   *
+   * Render a stream of Markdown, splitting it into lines as it is read.
+   *
+   * @param in The stream to be read until exhausted.
+   **/
+  public void render(Reader in) throws IOException{
+    char[] buff = new char[BUFF_LEN];
+    StringBuilder line = new StringBuilder();
+    for(int len = in.read(buff); len >= 0; len = in.read(buff)){
+      for(int x = 0; x < len; x++){
+        char c = buff[x];
+        if(c == '\n'){
+          line(line.toString());
+          line.setLength(0);
+        }else if(c != '\r'){
+          line.append(c);
+        }
+      }
+    }
+    if(line.length() > 0){
+      line(line.toString());
+    }
+    finish();
+  }
+
+  /**
+   * line()
+   *
+   * Process the next line of the document.
+   *
+   * @param s The line, without the line ending.
+   **/
+  public void line(String s){
+    s = expand(s);
+    boolean blank = isBlank(s);
+    int ind = indent(s);
+    /* Continue the current container or leaf block if possible */
+    switch(block){
+      case BLOCK_FENCE :
+        if(ind < TAB_STOP && fenceRun(s, ind) >= fenceLen && isBlank(s.substring(ind + fenceRun(s, ind)))){
+          out.append("</code></pre>\n");
+          block = BLOCK_NONE;
+        }else{
+          escape(s.substring(Math.min(ind, fenceIndent)), 0, s.length() - Math.min(ind, fenceIndent), out);
+          out.append('\n');
+        }
+        return;
+      case BLOCK_CODE :
+        if(blank){
+          codeBlank++;
+          return;
+        }
+        if(ind >= TAB_STOP){
+          for(; codeBlank > 0; codeBlank--){
+            out.append('\n');
+          }
+          escape(s, TAB_STOP, s.length(), out);
+          out.append('\n');
+          return;
+        }
+        close();
+        break;
+      case BLOCK_TABLE :
+        if(!blank && s.indexOf('|') >= 0){
+          tableRow(s, "td");
+          return;
+        }
+        close();
+        break;
+      case BLOCK_QUOTE :
+        if(ind < TAB_STOP && !blank && s.charAt(ind) == '>'){
+          child.line(quoteStrip(s, ind));
+          return;
+        }
+        if(!blank && child.lazy(s)){
+          child.line(s);
+          return;
+        }
+        close();
+        break;
+      case BLOCK_LIST :
+        if(blank){
+          blankSeen = true;
+          child.line("");
+          return;
+        }
+        if(ind >= itemIndent){
+          /* Content after a blank line makes the list loose */
+          if(blankSeen){
+            loose = true;
+            child.bare = false;
+            blankSeen = false;
+          }
+          child.line(s.substring(itemIndent));
+          return;
+        }
+        int content = marker(s, ind);
+        if(content >= 0 && markOrdered == ordered && markChar == listChar){
+          child.finish();
+          out.append("</li>\n");
+          if(blankSeen){
+            loose = true;
+          }
+          item(s, content);
+          return;
+        }
+        if(!blankSeen && child.lazy(s)){
+          child.line(s);
+          return;
+        }
+        close();
+        break;
+    }
+    /* Blank lines end paragraphs */
+    if(blank){
+      close();
+      return;
+    }
+    /* Indented code cannot interrupt a paragraph */
+    if(ind >= TAB_STOP){
+      if(block == BLOCK_PARA){
+        para(s);
+      }else{
+        block = BLOCK_CODE;
+        codeBlank = 0;
+        out.append("<pre><code>");
+        escape(s, TAB_STOP, s.length(), out);
+        out.append('\n');
+      }
+      return;
+    }
+    char c = s.charAt(ind);
+    /* Setext headers turn the paragraph so far into a header */
+    if(block == BLOCK_PARA && (c == '=' || c == '-') && isRun(s, ind, c, false)){
+      String text = para.toString().trim();
+      para.setLength(0);
+      paraLines = 0;
+      block = BLOCK_NONE;
+      header(c == '=' ? 1 : 2, text);
+      return;
+    }
+    /* A single line paragraph followed by a delimiter row is a table */
+    if(block == BLOCK_PARA && paraLines == 1 && table(s)){
+      return;
+    }
+    /* Fenced code */
+    int run = fenceRun(s, ind);
+    if(run >= 3){
+      String info = s.substring(ind + run).trim();
+      if(c == '~' || info.indexOf('`') < 0){
+        close();
+        block = BLOCK_FENCE;
+        fenceChar = c;
+        fenceLen = run;
+        fenceIndent = ind;
+        out.append("<pre><code");
+        int space = info.indexOf(' ');
+        if(space >= 0){
+          info = info.substring(0, space);
+        }
+        if(info.length() > 0){
+          out.append(" class=\"language-");
+          escape(info, 0, info.length(), out);
+          out.append('"');
+        }
+        out.append('>');
+        return;
+      }
+    }
+    /* ATX headers */
+    if(c == '#'){
+      int level = 0;
+      while(ind + level < s.length() && s.charAt(ind + level) == '#'){
+        level++;
+      }
+      int end = ind + level;
+      if(level <= 6 && (end == s.length() || s.charAt(end) == ' ')){
+        close();
+        String text = s.substring(end).trim();
+        /* Remove the optional closing sequence */
+        int x = text.length();
+        while(x > 0 && text.charAt(x - 1) == '#'){
+          x--;
+        }
+        if(x == 0 || text.charAt(x - 1) == ' '){
+          text = text.substring(0, x).trim();
+        }
+        header(level, text);
+        return;
+      }
+    }
+    /* Thematic breaks */
+    if((c == '-' || c == '*' || c == '_') && isRun(s, ind, c, true)){
+      close();
+      out.append("<hr>\n");
+      return;
+    }
+    /* Block quotes */
+    if(c == '>'){
+      close();
+      block = BLOCK_QUOTE;
+      child = new Markdown(out, false);
+      out.append("<blockquote>\n");
+      child.line(quoteStrip(s, ind));
+      return;
+    }
+    /* Lists, which may only interrupt a paragraph if they have content */
+    int content = marker(s, ind);
+    if(content >= 0 && (block != BLOCK_PARA || (!markEmpty && (!markOrdered || markStart == 1)))){
+      close();
+      block = BLOCK_LIST;
+      ordered = markOrdered;
+      listChar = markChar;
+      blankSeen = false;
+      loose = false;
+      if(!ordered){
+        out.append("<ul>\n");
+      }else if(markStart != 1){
+        out.append("<ol start=\"");
+        out.append(markStart);
+        out.append("\">\n");
+      }else{
+        out.append("<ol>\n");
+      }
+      item(s, content);
+      return;
+    }
+    /* Everything else is paragraph text */
+    para(s);
+  }
+
+  /**
+   * finish()
+   *
+   * Close any blocks that are still open at the end of the document.
+   **/
+  public void finish(){
+    close();
+  }
+
+  /**
+   * close()
+   *
+   * Close the current block, writing out anything that was held back.
+   **/
+  private void close(){
+    switch(block){
+      case BLOCK_PARA :
+        String text = para.toString().trim();
+        if(!bare){
+          out.append("<p>");
+        }
+        inline(text, out, 0);
+        out.append(bare ? "\n" : "</p>\n");
+        para.setLength(0);
+        paraLines = 0;
+        break;
+      case BLOCK_FENCE :
+      case BLOCK_CODE :
+        out.append("</code></pre>\n");
+        break;
+      case BLOCK_TABLE :
+        out.append("</tbody></table>\n");
+        break;
+      case BLOCK_QUOTE :
+        child.finish();
+        child = null;
+        out.append("</blockquote>\n");
+        break;
+      case BLOCK_LIST :
+        child.finish();
+        child = null;
+        out.append(ordered ? "</li>\n</ol>\n" : "</li>\n</ul>\n");
+        break;
+    }
+    block = BLOCK_NONE;
+  }
+
+  /**
+   * lazy()
+   *
+   * Check whether a line can lazily continue an open paragraph, which is the
+   * case if it doesn't start a new block itself.
+   *
+   * @param s The line to be checked.
+   * @return True if the line continues the paragraph, otherwise false.
+   **/
+  private boolean lazy(String s){
+    switch(block){
+      case BLOCK_PARA :
+        int ind = indent(s);
+        if(ind >= TAB_STOP){
+          return true;
+        }
+        char c = s.charAt(ind);
+        return
+          fenceRun(s, ind) < 3                                             &&
+          c != '#' && c != '>'                                             &&
+          !((c == '-' || c == '*' || c == '_') && isRun(s, ind, c, true)) &&
+          !(marker(s, ind) >= 0 && !markEmpty);
+      case BLOCK_QUOTE :
+      case BLOCK_LIST :
+        return child.lazy(s);
+      default :
+        return false;
+    }
+  }
+
+  /**
+   * para()
+   *
+   * Add a line to the current paragraph.
+   *
+   * @param s The line to be added.
+   **/
+  private void para(String s){
+    if(block != BLOCK_PARA){
+      close();
+      block = BLOCK_PARA;
+    }
+    if(paraLines > 0){
+      para.append('\n');
+    }
+    para.append(s, indent(s), s.length());
+    paraLines++;
+  }
+
+  /**
+   * item()
+   *
+   * Start a new list item.
+   *
+   * @param s The line containing the list marker.
+   * @param content The column the item content starts at.
+   **/
+  private void item(String s, int content){
+    out.append("<li>");
+    itemIndent = content;
+    blankSeen = false;
+    child = new Markdown(out, !loose);
+    if(content < s.length()){
+      child.line(s.substring(content));
+    }
+  }
+
+  /**
+   * header()
+   *
+   * Write a header.
+   *
+   * @param level The header level, from one to six.
+   * @param text The header text.
+   **/
+  private void header(int level, String text){
+    out.append("<h");
+    out.append(level);
+    out.append('>');
+    inline(text, out, 0);
+    out.append("</h");
+    out.append(level);
+    out.append(">\n");
+  }
+
+  /**
+   * table()
+   *
+   * Check whether a line is a table delimiter row matching the header held in
+   * the paragraph, starting the table if so.
+   *
+   * @param s The line to be checked.
+   * @return True if a table was started, otherwise false.
+   **/
+  private boolean table(String s){
+    String head = para.toString();
+    if(head.indexOf('|') < 0 || s.indexOf('-') < 0){
+      return false;
+    }
+    String[] delims = cells(s);
+    String[] heads = cells(head);
+    if(delims.length != heads.length){
+      return false;
+    }
+    String[] a = new String[delims.length];
+    for(int x = 0; x < delims.length; x++){
+      String d = delims[x];
+      int l = d.startsWith(":") ? 1 : 0;
+      int r = d.length() > l && d.endsWith(":") ? 1 : 0;
+      if(d.length() - l - r <= 0 || !isRun(d.substring(l, d.length() - r), 0, '-', false)){
+        return false;
+      }
+      a[x] = l + r == 2 ? "center" : (r == 1 ? "right" : (l == 1 ? "left" : null));
+    }
+    para.setLength(0);
+    paraLines = 0;
+    align = a;
+    block = BLOCK_TABLE;
+    out.append("<table><thead>");
+    tableRow(head, "th");
+    out.append("</thead><tbody>");
+    return true;
+  }
+
+  /**
+   * tableRow()
+   *
+   * Write a table row, padding or truncating it to the width of the table.
+   *
+   * @param s The line containing the row.
+   * @param tag The tag to use for each cell.
+   **/
+  private void tableRow(String s, String tag){
+    String[] c = cells(s);
+    out.append("<tr>");
+    for(int x = 0; x < align.length; x++){
+      out.append('<');
+      out.append(tag);
+      if(align[x] != null){
+        out.append(" style=\"text-align:");
+        out.append(align[x]);
+        out.append('"');
+      }
+      out.append('>');
+      if(x < c.length){
+        inline(c[x], out, 0);
+      }
+      out.append("</");
+      out.append(tag);
+      out.append('>');
+    }
+    out.append("</tr>\n");
+  }
+
+  /**
+   * cells()
+   *
+   * Split a table row into its cells. Escaped pipes do not split cells.
+   *
+   * @param s The line containing the row.
+   * @return The trimmed cells.
+   **/
+  private static String[] cells(String s){
+    s = s.trim();
+    int start = s.startsWith("|") ? 1 : 0;
+    int end = s.length();
+    if(end > start && s.charAt(end - 1) == '|' && (end < 2 || s.charAt(end - 2) != '\\')){
+      end--;
+    }
+    ArrayList<String> res = new ArrayList<String>();
+    int a = start;
+    for(int x = start; x < end; x++){
+      char c = s.charAt(x);
+      if(c == '\\'){
+        x++;
+      }else if(c == '|'){
+        res.add(s.substring(a, x).trim());
+        a = x + 1;
+      }
+    }
+    res.add(s.substring(a, Math.min(end, s.length())).trim());
+    return res.toArray(new String[0]);
+  }
+
+  /**
+   * marker()
+   *
+   * Parse a list marker, storing the type of marker found.
+   *
+   * @param s The line to be checked.
+   * @param ind The indentation of the line.
+   * @return The column the item content starts at, otherwise -1 if the line
+   * is not a list item.
+   **/
+  private int marker(String s, int ind){
+    if(ind >= TAB_STOP || ind >= s.length()){
+      return -1;
+    }
+    int x = ind;
+    char c = s.charAt(x);
+    int start = 0;
+    if(c == '-' || c == '*' || c == '+'){
+      markOrdered = false;
+      x++;
+    }else if(c >= '0' && c <= '9'){
+      while(x < s.length() && x - ind < 9 && s.charAt(x) >= '0' && s.charAt(x) <= '9'){
+        start = start * 10 + (s.charAt(x) - '0');
+        x++;
+      }
+      if(x >= s.length() || (s.charAt(x) != '.' && s.charAt(x) != ')')){
+        return -1;
+      }
+      c = s.charAt(x);
+      markOrdered = true;
+      x++;
+    }else{
+      return -1;
+    }
+    if(x < s.length() && s.charAt(x) != ' '){
+      return -1;
+    }
+    int sp = 0;
+    while(x + sp < s.length() && s.charAt(x + sp) == ' '){
+      sp++;
+    }
+    markChar = c;
+    markStart = start;
+    markEmpty = x + sp >= s.length();
+    /* Content that is itself indented code starts after a single space */
+    return markEmpty || sp > TAB_STOP ? x + 1 : x + sp;
+  }
+
+  /**
+   * quoteStrip()
+   *
+   * Remove the block quote marker from a line.
+   *
+   * @param s The line starting with a block quote marker.
+   * @param ind The indentation of the marker.
+   * @return The line without the marker.
+   **/
+  private static String quoteStrip(String s, int ind){
+    int x = ind + 1;
+    if(x < s.length() && s.charAt(x) == ' '){
+      x++;
+    }
+    return s.substring(x);
+  }
+
+  /**
+   * fenceRun()
+   *
+   * Count the length of a code fence at the start of a line.
+   *
+   * @param s The line to be checked.
+   * @param ind The indentation of the line.
+   * @return The number of fence characters, zero if none.
+   **/
+  private int fenceRun(String s, int ind){
+    if(ind >= s.length()){
+      return 0;
+    }
+    char c = s.charAt(ind);
+    if(c != '`' && c != '~'){
+      return 0;
+    }
+    /* When inside a fence only the opening character can close it */
+    if(block == BLOCK_FENCE && c != fenceChar){
+      return 0;
+    }
+    int x = ind;
+    while(x < s.length() && s.charAt(x) == c){
+      x++;
+    }
+    return x - ind;
+  }
+
+  /**
+   * isRun()
+   *
+   * Check whether the rest of a line is made up of a given character.
+   *
+   * @param s The line to be checked.
+   * @param ind The offset to start checking from.
+   * @param c The character making up the run.
+   * @param rule If true, at least three characters are required and they may
+   * be separated by spaces, otherwise only trailing spaces are allowed.
+   * @return True if the line is a run, otherwise false.
+   **/
+  private static boolean isRun(String s, int ind, char c, boolean rule){
+    int n = 0;
+    boolean trail = false;
+    for(int x = ind; x < s.length(); x++){
+      char d = s.charAt(x);
+      if(d == c && !trail){
+        n++;
+      }else if(d == ' '){
+        trail = !rule;
+      }else{
+        return false;
+      }
+    }
+    return rule ? n >= 3 : n >= 1;
+  }
+
+  /**
+   * expand()
+   *
+   * Expand the tabs in the indentation of a line to spaces.
+   *
+   * @param s The line to be expanded.
+   * @return The expanded line.
+   **/
+  private static String expand(String s){
+    int x = 0;
+    while(x < s.length() && s.charAt(x) == ' '){
+      x++;
+    }
+    if(x >= s.length() || s.charAt(x) != '\t'){
+      return s;
+    }
+    StringBuilder sb = new StringBuilder(s.length() + TAB_STOP);
+    for(x = 0; x < s.length(); x++){
+      char c = s.charAt(x);
+      if(c == '\t'){
+        do{
+          sb.append(' ');
+        }while(sb.length() % TAB_STOP != 0);
+      }else if(c == ' '){
+        sb.append(' ');
+      }else{
+        break;
+      }
+    }
+    sb.append(s, x, s.length());
+    return sb.toString();
+  }
+
+  /**
+   * indent()
+   *
+   * Count the leading spaces of a line.
+   *
+   * @param s The line to be checked.
+   * @return The number of leading spaces.
+   **/
+  private static int indent(String s){
+    int x = 0;
+    while(x < s.length() && s.charAt(x) == ' '){
+      x++;
+    }
+    return x;
+  }
+
+  /**
+   * isBlank()
+   *
+   * Check whether a line only contains whitespace.
+   *
+   * @param s The line to be checked.
+   * @return True if blank, otherwise false.
+   **/
+  private static boolean isBlank(String s){
+    for(int x = 0; x < s.length(); x++){
+      if(s.charAt(x) != ' ' && s.charAt(x) != '\t'){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * inline()
+   *
+   * Render the inline content of a block, including code spans, links,
+   * images, emphasis and line breaks.
+   *
+   * @param s The text to be rendered.
+   * @param out Where the rendered HTML is written.
+   * @param depth The number of link labels this text is nested within.
+   **/
+  private static void inline(String s, StringBuilder out, int depth){
+    ArrayList<Object> parts = new ArrayList<Object>();
+    ArrayList<Delim> delims = new ArrayList<Delim>();
+    StringBuilder text = new StringBuilder(s.length());
+    int n = s.length();
+    int x = 0;
+    /* Find bracket pairs and failed code spans once, keeping this linear */
+    int[] brackets = s.indexOf('[') >= 0 ? brackets(s) : null;
+    long[] codeFail = new long[1];
+    while(x < n){
+      char c = s.charAt(x);
+      switch(c){
+        case '\\' :
+          if(x + 1 < n && isPunct(s.charAt(x + 1))){
+            escape(s, x + 1, x + 2, text);
+            x += 2;
+          }else if(x + 1 < n && s.charAt(x + 1) == '\n'){
+            text.append("<br>\n");
+            x += 2;
+          }else{
+            text.append(c);
+            x++;
+          }
+          break;
+        case '`' :
+          x = code(s, x, text, codeFail);
+          break;
+        case '*' :
+        case '_' :
+          int r = x;
+          while(r < n && s.charAt(r) == c){
+            r++;
+          }
+          Delim d = new Delim();
+          d.c = c;
+          d.count = r - x;
+          d.orig = d.count;
+          char prev = x > 0 ? s.charAt(x - 1) : ' ';
+          char next = r < n ? s.charAt(r) : ' ';
+          boolean left = !isSpace(next) && (!isPunct(next) || isSpace(prev) || isPunct(prev));
+          boolean right = !isSpace(prev) && (!isPunct(prev) || isSpace(next) || isPunct(next));
+          if(c == '*'){
+            d.canOpen = left;
+            d.canClose = right;
+          }else{
+            d.canOpen = left && (!right || isPunct(prev));
+            d.canClose = right && (!left || isPunct(next));
+          }
+          if(text.length() > 0){
+            parts.add(text.toString());
+            text.setLength(0);
+          }
+          parts.add(d);
+          delims.add(d);
+          x = r;
+          break;
+        case '!' :
+          if(x + 1 < n && s.charAt(x + 1) == '['){
+            int e = link(s, x + 1, brackets, text, true, depth);
+            if(e > 0){
+              x = e;
+              break;
+            }
+          }
+          text.append(c);
+          x++;
+          break;
+        case '[' :
+          int e = link(s, x, brackets, text, false, depth);
+          if(e > 0){
+            x = e;
+          }else{
+            text.append(c);
+            x++;
+          }
+          break;
+        case '<' :
+          x = autolink(s, x, text);
+          break;
+        case '&' :
+          x = entity(s, x, text);
+          break;
+        case '\n' :
+          /* Two trailing spaces make a hard line break */
+          int t = text.length();
+          while(t > 0 && text.charAt(t - 1) == ' '){
+            t--;
+          }
+          boolean hard = text.length() - t >= 2;
+          text.setLength(t);
+          text.append(hard ? "<br>\n" : "\n");
+          x++;
+          break;
+        default :
+          escape(s, x, x + 1, text);
+          x++;
+          break;
+      }
+    }
+    if(text.length() > 0){
+      parts.add(text.toString());
+    }
+    emphasis(delims);
+    for(int i = 0; i < parts.size(); i++){
+      Object p = parts.get(i);
+      if(p instanceof Delim){
+        Delim d = (Delim)p;
+        out.append(d.close);
+        for(int j = 0; j < d.count; j++){
+          out.append(d.c);
+        }
+        out.append(d.open);
+      }else{
+        out.append((String)p);
+      }
+    }
+  }
+
+  /**
+   * emphasis()
+   *
+   * Match emphasis delimiters, closest opener first. Delimiters are linked
+   * into a stack and unlinked once used up or passed over, and the lowest
+   * possible opener is remembered for each kind of closer, so that each
+   * delimiter is only searched past a bounded number of times.
+   *
+   * @param delims The delimiter runs in the order they appear.
+   **/
+  private static void emphasis(ArrayList<Delim> delims){
+    int n = delims.size();
+    int[] prev = new int[n];
+    int[] next = new int[n];
+    for(int x = 0; x < n; x++){
+      prev[x] = x - 1;
+      next[x] = x + 1 < n ? x + 1 : -1;
+    }
+    int[] bottom = new int[2 * 3 * 2];
+    for(int x = 0; x < bottom.length; x++){
+      bottom[x] = -1;
+    }
+    int c = n > 0 ? 0 : -1;
+    while(c >= 0){
+      Delim closer = delims.get(c);
+      if(!closer.canClose){
+        c = next[c];
+        continue;
+      }
+      int b = (closer.c == '*' ? 0 : 6) + (closer.orig % 3) * 2 + (closer.canOpen ? 1 : 0);
+      int o = prev[c];
+      for(; o > bottom[b]; o = prev[o]){
+        Delim d = delims.get(o);
+        if(d.c != closer.c || !d.canOpen){
+          continue;
+        }
+        /* The sum of the lengths can't be a multiple of three */
+        if(
+          (d.canClose || closer.canOpen)  &&
+          (d.orig + closer.orig) % 3 == 0 &&
+          (d.orig % 3 != 0 || closer.orig % 3 != 0)
+        ){
+          continue;
+        }
+        break;
+      }
+      if(o <= bottom[b]){
+        /* No opener for this kind of closer below here */
+        bottom[b] = prev[c];
+        int e = next[c];
+        if(!closer.canOpen){
+          unlink(c, prev, next);
+        }
+        c = e;
+        continue;
+      }
+      Delim opener = delims.get(o);
+      int use = opener.count >= 2 && closer.count >= 2 ? 2 : 1;
+      String tag = use == 2 ? "strong" : "em";
+      opener.count -= use;
+      closer.count -= use;
+      opener.open = "<" + tag + ">" + opener.open;
+      closer.close = closer.close + "</" + tag + ">";
+      /* Anything between the pair can no longer be matched */
+      next[o] = c;
+      prev[c] = o;
+      if(opener.count <= 0){
+        unlink(o, prev, next);
+      }
+      if(closer.count <= 0){
+        int e = next[c];
+        unlink(c, prev, next);
+        c = e;
+      }
+    }
+  }
+
+  /**
+   * unlink()
+   *
+   * Remove a delimiter from the stack used when matching emphasis.
+   *
+   * @param x The index of the delimiter to be removed.
+   * @param prev The index of the previous delimiter for each delimiter.
+   * @param next The index of the next delimiter for each delimiter.
+   **/
+  private static void unlink(int x, int[] prev, int[] next){
+    if(prev[x] >= 0){
+      next[prev[x]] = next[x];
+    }
+    if(next[x] >= 0){
+      prev[next[x]] = prev[x];
+    }
+  }
+
+  /**
+   * code()
+   *
+   * Render a code span, which ends at the next backtick run of the same
+   * length.
+   *
+   * @param s The text being rendered.
+   * @param x The offset of the opening backticks.
+   * @param text Where the rendered HTML is written.
+   * @param fail A mask of the run lengths already known to have no closing
+   * run, updated if this run has no closing run.
+   * @return The offset after the code span or the backticks.
+   **/
+  private static int code(String s, int x, StringBuilder text, long[] fail){
+    int r = x;
+    while(r < s.length() && s.charAt(r) == '`'){
+      r++;
+    }
+    int len = r - x;
+    long bit = len < 64 ? 1L << len : 0;
+    int e = (fail[0] & bit) != 0 ? -1 : r;
+    while(e >= 0 && (e = s.indexOf('`', e)) >= 0){
+      int f = e;
+      while(f < s.length() && s.charAt(f) == '`'){
+        f++;
+      }
+      if(f - e == len){
+        String code = s.substring(r, e).replace('\n', ' ');
+        if(
+          code.length() >= 2 && code.charAt(0) == ' ' &&
+          code.charAt(code.length() - 1) == ' ' && !isBlank(code)
+        ){
+          code = code.substring(1, code.length() - 1);
+        }
+        text.append("<code>");
+        escape(code, 0, code.length(), text);
+        text.append("</code>");
+        return f;
+      }
+      e = f;
+    }
+    /* No matching run, the backticks are literal */
+    fail[0] |= bit;
+    text.append(s, x, r);
+    return r;
+  }
+
+  /**
+   * link()
+   *
+   * Render an inline link or image of the form [text](url "title").
+   *
+   * @param s The text being rendered.
+   * @param x The offset of the opening bracket.
+   * @param brackets The offset of the matching bracket for each bracket.
+   * @param text Where the rendered HTML is written.
+   * @param image True if this is an image, otherwise a link.
+   * @param depth The number of link labels this link is nested within, past
+   * the limit the brackets are left as plain text.
+   * @return The offset after the link, otherwise -1 if not a link.
+   **/
+  private static int link(String s, int x, int[] brackets, StringBuilder text, boolean image, int depth){
+    int n = s.length();
+    int close = brackets[x];
+    if(depth >= LINK_DEPTH_MAX || close < 0 || close + 1 >= n || s.charAt(close + 1) != '('){
+      return -1;
+    }
+    /* Parse the destination */
+    int i = close + 2;
+    while(i < n && isSpace(s.charAt(i))){
+      i++;
+    }
+    int ds;
+    int de;
+    if(i < n && s.charAt(i) == '<'){
+      ds = i + 1;
+      de = s.indexOf('>', ds);
+      if(de < 0 || s.substring(ds, de).indexOf('\n') >= 0){
+        return -1;
+      }
+      i = de + 1;
+    }else{
+      ds = i;
+      int paren = 0;
+      for(; i < n; i++){
+        char c = s.charAt(i);
+        if(c == '\\' && i + 1 < n){
+          i++;
+        }else if(c == '('){
+          paren++;
+        }else if(c == ')'){
+          if(paren == 0){
+            break;
+          }
+          paren--;
+        }else if(isSpace(c)){
+          break;
+        }
+      }
+      de = i;
+    }
+    /* Parse the optional title */
+    while(i < n && isSpace(s.charAt(i))){
+      i++;
+    }
+    String title = null;
+    if(i < n && (s.charAt(i) == '"' || s.charAt(i) == '\'' || s.charAt(i) == '(')){
+      char end = s.charAt(i) == '(' ? ')' : s.charAt(i);
+      int te = i + 1;
+      while(te < n && s.charAt(te) != end){
+        te += s.charAt(te) == '\\' ? 2 : 1;
+      }
+      if(te >= n){
+        return -1;
+      }
+      title = unescape(s.substring(i + 1, te));
+      i = te + 1;
+      while(i < n && isSpace(s.charAt(i))){
+        i++;
+      }
+    }
+    if(i >= n || s.charAt(i) != ')'){
+      return -1;
+    }
+    String url = safeUrl(unescape(s.substring(ds, de)));
+    String label = s.substring(x + 1, close);
+    if(image){
+      text.append("<img src=\"");
+      escape(url, 0, url.length(), text);
+      text.append("\" alt=\"");
+      StringBuilder alt = new StringBuilder();
+      inline(label, alt, depth + 1);
+      /* Alt text is plain, drop any tags that were rendered */
+      text.append(alt.toString().replaceAll("<[^>]*>", "").replace("\"", "&quot;"));
+      text.append('"');
+    }else{
+      text.append("<a href=\"");
+      escape(url, 0, url.length(), text);
+      text.append('"');
+    }
+    if(title != null){
+      text.append(" title=\"");
+      escape(title, 0, title.length(), text);
+      text.append('"');
+    }
+    text.append('>');
+    if(!image){
+      inline(label, text, depth + 1);
+      text.append("</a>");
+    }
+    return i + 1;
+  }
+
+  /**
+   * brackets()
+   *
+   * Pair up the square brackets of some text, ignoring escaped brackets.
+   *
+   * @param s The text to be searched.
+   * @return For each opening bracket the offset of its closing bracket,
+   * otherwise -1.
+   **/
+  private static int[] brackets(String s){
+    int[] res = new int[s.length()];
+    int[] stack = new int[s.length()];
+    int top = 0;
+    for(int x = 0; x < s.length(); x++){
+      res[x] = -1;
+      char c = s.charAt(x);
+      if(c == '\\'){
+        if(++x < s.length()){
+          res[x] = -1;
+        }
+      }else if(c == '['){
+        stack[top++] = x;
+      }else if(c == ']' && top > 0){
+        res[stack[--top]] = x;
+      }
+    }
+    return res;
+  }
+
+  /**
+   * autolink()
+   *
+   * Render an autolink of the form <scheme:address>, otherwise a literal
+   * angle bracket.
+   *
+   * @param s The text being rendered.
+   * @param x The offset of the opening angle bracket.
+   * @param text Where the rendered HTML is written.
+   * @return The offset after the autolink or angle bracket.
+   **/
+  private static int autolink(String s, int x, StringBuilder text){
+    /* Autolinks can't contain spaces or brackets, so stop early */
+    int e = x + 1;
+    while(e < s.length() && s.charAt(e) != '>' && s.charAt(e) != '<' && !isSpace(s.charAt(e))){
+      e++;
+    }
+    if(e > x + 1 && e < s.length() && s.charAt(e) == '>'){
+      String url = s.substring(x + 1, e);
+      if(url.indexOf(':') > 0 && safeUrl(url) == url){
+        text.append("<a href=\"");
+        escape(url, 0, url.length(), text);
+        text.append("\">");
+        escape(url, 0, url.length(), text);
+        text.append("</a>");
+        return e + 1;
+      }
+    }
+    text.append("&lt;");
+    return x + 1;
+  }
+
+  /**
+   * entity()
+   *
+   * Pass through a valid entity or character reference, otherwise escape the
+   * ampersand.
+   *
+   * @param s The text being rendered.
+   * @param x The offset of the ampersand.
+   * @param text Where the rendered HTML is written.
+   * @return The offset after the reference or ampersand.
+   **/
+  private static int entity(String s, int x, StringBuilder text){
+    int i = x + 1;
+    boolean num = i < s.length() && s.charAt(i) == '#';
+    boolean hex = false;
+    if(num){
+      i++;
+      hex = i < s.length() && (s.charAt(i) == 'x' || s.charAt(i) == 'X');
+      if(hex){
+        i++;
+      }
+    }
+    int start = i;
+    while(i < s.length() && i - x < ENTITY_MAX){
+      char c = s.charAt(i);
+      boolean ok;
+      if(hex){
+        ok = Character.digit(c, 16) >= 0;
+      }else if(num){
+        ok = c >= '0' && c <= '9';
+      }else{
+        ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (i > start && c >= '0' && c <= '9');
+      }
+      if(!ok){
+        break;
+      }
+      i++;
+    }
+    if(i > start && i < s.length() && s.charAt(i) == ';'){
+      text.append(s, x, i + 1);
+      return i + 1;
+    }
+    text.append("&amp;");
+    return x + 1;
+  }
+
+  /**
+   * safeUrl()
+   *
+   * Only allow URLs that are relative or use a known safe scheme.
+   *
+   * @param url The URL to be checked.
+   * @return The URL if safe, otherwise a harmless replacement.
+   **/
+  private static String safeUrl(String url){
+    for(int x = 0; x < url.length(); x++){
+      char c = url.charAt(x);
+      if(c == ':'){
+        String scheme = url.substring(0, x).toLowerCase();
+        for(int i = 0; i < URL_SCHEMES.length; i++){
+          if(scheme.equals(URL_SCHEMES[i])){
+            return url;
+          }
+        }
+        return "#";
+      }
+      if(c == '/' || c == '?' || c == '#'){
+        break;
+      }
+    }
+    return url;
+  }
+
+  /**
+   * unescape()
+   *
+   * Remove backslash escapes from a String.
+   *
+   * @param s The String to be unescaped.
+   * @return The unescaped String.
+   **/
+  private static String unescape(String s){
+    if(s.indexOf('\\') < 0){
+      return s;
+    }
+    StringBuilder sb = new StringBuilder(s.length());
+    for(int x = 0; x < s.length(); x++){
+      char c = s.charAt(x);
+      if(c == '\\' && x + 1 < s.length() && isPunct(s.charAt(x + 1))){
+        c = s.charAt(++x);
+      }
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * escape()
+   *
+   * Escape part of a String for use in HTML text or attributes.
+   *
+   * @param s The String to be escaped.
+   * @param a The start offset, inclusive.
+   * @param b The end offset, exclusive.
+   * @param out Where the escaped String is written.
+   **/
+  private static void escape(String s, int a, int b, StringBuilder out){
+    for(int x = a; x < b; x++){
+      char c = s.charAt(x);
+      switch(c){
+        case '&' :
+          out.append("&amp;");
+          break;
+        case '<' :
+          out.append("&lt;");
+          break;
+        case '>' :
+          out.append("&gt;");
+          break;
+        case '"' :
+          out.append("&quot;");
+          break;
+        default :
+          out.append(c);
+          break;
+      }
+    }
+  }
+
+  /**
+   * isPunct()
+   *
+   * Check whether a character is ASCII punctuation.
+   *
+   * @param c The character to be checked.
+   * @return True if punctuation, otherwise false.
+   **/
+  private static boolean isPunct(char c){
+    return
+      (c >= '!' && c <= '/') || (c >= ':' && c <= '@') ||
+      (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+  }
+
+  /**
+   * isSpace()
+   *
+   * Check whether a character is whitespace.
+   *
+   * @param c The character to be checked.
+   * @return True if whitespace, otherwise false.
+   **/
+  private static boolean isSpace(char c){
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+
+  /**
+   * assurt()
+   *
+   * A very simple assertion method for testing that the Markdown renderer
+   * isn't regressing.
+   *
+   * @param r The result to test.
+   * @return Pass through for the result value.
+   **/
+  private static boolean assurt(boolean r){
+    System.out.println(
+      "[" + (r ? "PASS" : "FAIL") + "] " +
+      Thread.currentThread().getStackTrace()[2].getClassName() + "->" +
+      Thread.currentThread().getStackTrace()[2].getMethodName() + "::" +
+      Thread.currentThread().getStackTrace()[2].getLineNumber()
+    );
+    return r;
+  }
+
+  /**
+   * test()
+   *
+   * Test that the renderer works as expected. The result of each test and a
+   * summary is printed to the standard out, as well as a boolean indicating
+   * test success.
+   *
+   * @return The result of performing the tests, true if success, otherwise
+   * false.
+   **/
+  public static boolean test(){
+    /* Pairs of input and expected output */
+    String[] test = new String[]{
+      "# Title",
+      "<h1>Title</h1>\n",
+      "## Sub ##\ntext",
+      "<h2>Sub</h2>\n<p>text</p>\n",
+      "Title\n=====",
+      "<h1>Title</h1>\n",
+      "a\nb\n\nc",
+      "<p>a\nb</p>\n<p>c</p>\n",
+      "a  \nb",
+      "<p>a<br>\nb</p>\n",
+      "<b>&x & &amp;</b>",
+      "<p>&lt;b&gt;&amp;x &amp; &amp;&lt;/b&gt;</p>\n",
+      "*a* **b** ***c*** _d_ a_b_c",
+      "<p><em>a</em> <strong>b</strong> <em><strong>c</strong></em> <em>d</em> a_b_c</p>\n",
+      "*a **b** c*",
+      "<p><em>a <strong>b</strong> c</em></p>\n",
+      "**a*",
+      "<p>*<em>a</em></p>\n",
+      "`a <b>` ``x ` y``",
+      "<p><code>a &lt;b&gt;</code> <code>x ` y</code></p>\n",
+      "[a *b*](http://x.y/?a=1&b=2 \"t\") ![i](p.png)",
+      "<p><a href=\"http://x.y/?a=1&amp;b=2\" title=\"t\">a <em>b</em></a> <img src=\"p.png\" alt=\"i\"></p>\n",
+      "[x](javascript:alert(1)) <http://a.b> <c>",
+      "<p><a href=\"#\">x</a> <a href=\"http://a.b\">http://a.b</a> &lt;c&gt;</p>\n",
+      "\\*a\\* \\[b]",
+      "<p>*a* [b]</p>\n",
+      "```java\na < b\n\n```\nx",
+      "<pre><code class=\"language-java\">a &lt; b\n\n</code></pre>\n<p>x</p>\n",
+      "    code\n\n    more\ntext",
+      "<pre><code>code\n\nmore\n</code></pre>\n<p>text</p>\n",
+      "- a\n- b\n  - c\n- d",
+      "<ul>\n<li>a\n</li>\n<li>b\n<ul>\n<li>c\n</li>\n</ul>\n</li>\n<li>d\n</li>\n</ul>\n",
+      "3. a\n4. b\n\n   c",
+      "<ol start=\"3\">\n<li>a\n</li>\n<li>b\n<p>c</p>\n</li>\n</ol>\n",
+      "> a\nb\n> # c",
+      "<blockquote>\n<p>a\nb</p>\n<h1>c</h1>\n</blockquote>\n",
+      "a\n***\n---",
+      "<p>a</p>\n<hr>\n<hr>\n",
+      "| a | b |\n|:--|--:|\n| 1 | `\\|` |\nx",
+      "<table><thead><tr><th style=\"text-align:left\">a</th><th style=\"text-align:right\">b</th></tr>\n</thead><tbody><tr><td style=\"text-align:left\">1</td><td style=\"text-align:right\"><code>\\|</code></td></tr>\n</tbody></table>\n<p>x</p>\n",
+      "a | b\n-- | x",
+      "<p>a | b\n-- | x</p>\n"
+    };
+    boolean r = true;
+    for(int x = 0; x < test.length; x += 2){
+      String got = render(test[x]);
+      boolean a = assurt(got.equals(test[x + 1]));
+      if(!a){
+        System.out.println("  in:  '" + test[x] + "'");
+        System.out.println("  got: '" + got + "' !=");
+        System.out.println("  exp: '" + test[x + 1] + "'");
+      }
+      r &= a;
+    }
+    /* Deeply nested links stop nesting rather than overflow the stack */
+    String deep = render("[".repeat(BUFF_LEN) + "a" + "](x)".repeat(BUFF_LEN));
+    r &= assurt(deep.split("<a ", -1).length - 1 == LINK_DEPTH_MAX);
+    /* Many nested emphasis runs all match */
+    String em = render("*a _b ".repeat(BUFF_LEN) + "c_* ".repeat(BUFF_LEN));
+    r &= assurt(em.split("<em>", -1).length - 1 == BUFF_LEN * 2 && em.indexOf('*') < 0);
+    /* Print result */
+    System.out.println("");
+    System.out.println("  Tests " + (r ? "PASSED" : "FAILED"));
+    return r;
+  }
+}
@@ -1,12 +1,22 @@
 package b.gp;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.concurrent.TimeUnit;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Locale;
+import java.util.PriorityQueue;
 import java.util.Random;
-import java.util.Scanner;
+import java.util.TimeZone;
 
 /**
  * PageBuilder.java
@@ -30,16 +40,44 @@ public class PageBuilder{
   }
 
   /**
-   * MarkState.PageBuilder.java
+   * Activity.PageBuilder.java
    *
-   * Track the state of the simple markdown parser.
+   * A commit within the merged activity of all repositories.
    **/
-  private class MarkState{
-    public String line;
-    public boolean code = false;
+  private static class Activity{
+    public String proj;
+    public Git.Commit commit;
   }
 
   private static final long TIME_DAY_MS = 24 * 60 * 60 * 1000;
+  private static final int BLOB_VIEW_MAX = 256 * 1024;
+  private static final int BLOB_BINARY_CHECK = 8000;
+  private static final int SEARCH_MAX = 256;
+  private static final int GREP_MAX = 256;
+  private static final int COMPARE_MAX = 256;
+  private static final int DIFF_FILE_MAX = 1024 * 1024;
+  private static final int DIFF_MAX = 1024 * 1024;
+  private static final int DIFF_CONTEXT = 3;
+  private static final int DIFF_INLINE_MAX = 64 * 1024;
+  private static final int STATS_WEEKS = 53;
+  private static final int STATS_WEEKS_LIST = 12;
+  private static final int STATS_AUTHORS = 32;
+  private static final byte[][] RAW_MAGIC = new byte[][]{
+    { (byte)0x89, 'P', 'N', 'G' },
+    { 'G', 'I', 'F', '8' },
+    { (byte)0xFF, (byte)0xD8, (byte)0xFF },
+    { '%', 'P', 'D', 'F' },
+    { 'P', 'K', 3, 4 },
+    { 0x1F, (byte)0x8B }
+  };
+  private static final String[] RAW_MAGIC_TYPES = new String[]{
+    "image/png",
+    "image/gif",
+    "image/jpeg",
+    "application/pdf",
+    "application/zip",
+    "application/gzip"
+  };
   private static final String[] INDEX_NAMES = new String[]{
     "readme",
     "index"
@@ -55,18 +93,59 @@ public class PageBuilder{
     "HTTP/1.1 200 OK\r\n" +
     "Content-Type: text/html\r\n" +
     "\r\n";
+  private static final String RAW_BAD =
+    "HTTP/1.1 404 Not Found\r\n" +
+    "Content-Type: text/html\r\n" +
+    "\r\n";
+  private static final String RAW_HEAD =
+    "Accept-Ranges: bytes\r\n" +
+    "X-Content-Type-Options: nosniff\r\n" +
+    "Content-Security-Policy: default-src 'none'; sandbox\r\n";
   private static final String XML_HEAD =
     "HTTP/1.1 200 OK\r\n" +
     "Content-Type: application/xml\r\n" +
     "\r\n";
+  private static final String ATOM_HEAD =
+    "HTTP/1.1 200 OK\r\n" +
+    "Content-Type: application/atom+xml\r\n" +
+    "\r\n";
+  private static final String JSON_HEAD =
+    "HTTP/1.1 200 OK\r\n" +
+    "Content-Type: application/json\r\n" +
+    "\r\n";
+  private static final String JSON_BAD =
+    "HTTP/1.1 404 Not Found\r\n" +
+    "Content-Type: application/json\r\n" +
+    "\r\n";
+  private static final String JSON_LOADING =
+    "HTTP/1.1 503 Service Unavailable\r\n" +
+    "Content-Type: application/json\r\n" +
+    "Retry-After: 5\r\n" +
+    "\r\n";
+  private static final String DATE_RSS = "EEE, dd MMM yyyy HH:mm:ss Z";
+  private static final String DATE_ATOM = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+  private static final String DATE_DAY = "yyyy-MM-dd";
+  private static final String TREE_LINK_DIR = "<a href=\"tree:";
+  private static final String TREE_LINK_FILE = "<a href=\"blob:";
 
   private String indexBad;
+  private String indexLoading;
   private String reqPre;
   private String url;
   private int cacheMax;
+  private int feedLength;
+  private String title;
   private HashMap<String, Git> repos;
   private String pageHeader;
   private HashMap<String, Cache> cache;
+  private HashMap<String, String> treeCache;
+  private HashMap<String, String> overviewCache;
+  private HashMap<String, String> feedCache;
+  private HashMap<String, String> compareCache;
+  private HashMap<String, String> diffCache;
+  private HashMap<String, Long> activityStamps;
+  private HashMap<String, Git.Commit[]> activityRecent;
+  private Activity[] activity;
 
   /**
    * PageBuilder()
@@ -84,12 +163,14 @@ public class PageBuilder{
     for(int x = 0; x < config.get("page").get("css").length(); x++){
       css += config.get("page").get("css").get(x).value("");
     }
-    String title = config.get("page").get("title").value("Git Page");
+    title = config.get("page").get("title").value("Git Page");
     String logo = config.get("page").get("logo").value("");
     indexBad = config.get("page").get("error").value("Error");
+    indexLoading = config.get("page").get("loading").value("Loading");
     reqPre = config.get("server").get("url-sub").value("");
     url = config.get("server").get("url").value("127.0.0.1");
     cacheMax = Integer.parseInt(config.get("server").get("cache-max").value("65536"));
+    feedLength = Integer.parseInt(config.get("page").get("feed-length").value("16"));
     /* Pre-process the page header */
     pageHeader =
       /* Tell the browser what we are */
@@ -112,6 +193,14 @@ public class PageBuilder{
       "</tr></table>";
     /* Setup page cache */
     cache = new HashMap<String, Cache>();
+    treeCache = new HashMap<String, String>();
+    overviewCache = new HashMap<String, String>();
+    feedCache = new HashMap<String, String>();
+    compareCache = new HashMap<String, String>();
+    diffCache = new HashMap<String, String>();
+    activityStamps = new HashMap<String, Long>();
+    activityRecent = new HashMap<String, Git.Commit[]>();
+    activity = new Activity[0];
   }
 
   /**
@@ -121,8 +210,9 @@ public class PageBuilder{
    *
    * @param os The output stream to write the page to.
    * @param req The request being made of the page builder.
+   * @param range The requested byte range header, otherwise NULL.
    **/
-  public void generate(OutputStream os, String req) throws IOException{
+  public void generate(OutputStream os, String req, String range) throws IOException{
     /* Store entry timestamp */
     long start = System.nanoTime();
     long startMs = System.currentTimeMillis();
@@ -136,6 +226,9 @@ public class PageBuilder{
         ((c.timeout != 0 && c.timeout > startMs               ) ||
          (c.timeout == 0                                      ))
       ){
+        if(c.repo != null){
+          c.repo.touch();
+        }
         os.write(c.payload);
         /* Should we also output a footer? */
         if(c.footer){
@@ -163,20 +256,112 @@ public class PageBuilder{
         if(req.startsWith(pre)){
           reqSub = reqSub.substring(pre.length());
         }
+        /* Separate any query string from the path */
+        String query = "";
+        if(reqSub.indexOf('?') >= 0){
+          query = reqSub.substring(reqSub.indexOf('?') + 1);
+          reqSub = reqSub.substring(0, reqSub.indexOf('?'));
+        }
         String[] paths = reqSub.split("/");
+        /* Machine readable API, the repository follows the API prefix */
+        if(paths.length >= 2 && paths[1].equals("api")){
+          String api = genApi(paths, query);
+          if(api != null){
+            os.write(updateCache(req, paths.length >= 3 ? paths[2] : null, false, 0, api));
+          }else{
+            os.write((JSON_LOADING + "{\"error\":\"loading\"}").getBytes());
+          }
+          break;
+        }
+        /* Repositories not yet loaded get a placeholder */
+        if(paths.length >= 2 && repos.containsKey(paths[1])){
+          repos.get(paths[1]).activate();
+        }
+        if(
+          paths.length >= 2          &&
+          repos.containsKey(paths[1]) &&
+          !repos.get(paths[1]).ready()
+        ){
+          os.write((
+            genHeader(pre, paths[1]) +
+            indexLoading +
+            genFooter(start)
+          ).getBytes());
+          break;
+        }
+        /* Raw files are streamed directly and never cached as pages */
+        if(paths.length >= 5 && paths[2].equals("raw")){
+          genRaw(os, pre, paths[1], paths[3], decode(join(paths, 4)), range);
+          break;
+        }
+        /* Archives are streamed directly and never cached as pages */
+        if(paths.length == 4 && paths[2].equals("archive")){
+          genArchive(os, pre, paths[1], paths[3]);
+          break;
+        }
+        /* Feeds of the activity of all repositories */
+        if(
+          paths.length == 2 &&
+          !repos.containsKey(paths[1]) &&
+          (paths[1].equals("rss") || paths[1].equals("atom"))
+        ){
+          os.write(genActivityFeed(pre, paths[1].equals("atom")).getBytes());
+          break;
+        }
+        /* Feeds may select a reference and a path of any depth */
+        if(paths.length >= 3 && (paths[2].equals("rss") || paths[2].equals("atom"))){
+          os.write(updateCache(
+            req,
+            paths[1],
+            false,
+            0,
+            genFeed(pre, paths[1], paths[2].equals("atom"), join(paths, 3))
+          ));
+          break;
+        }
+        /* Compared revisions may contain forward slashes */
+        if(paths.length >= 4 && paths[2].equals("compare")){
+          os.write(updateCache(
+            req,
+            paths[1],
+            true,
+            0,
+            genHeader(pre, paths[1]) +
+            genCompare(pre, paths[1], decode(join(paths, 3)))
+          ));
+          os.write(genFooter(start).getBytes());
+          break;
+        }
+        /* Path history may be of any depth */
+        if(paths.length >= 4 && paths[2].equals("history")){
+          int page = 0;
+          try{
+            page = param(query, "page") != null ? Integer.parseInt(param(query, "page")) : 0;
+          }catch(NumberFormatException e){
+            /* Fail silently */
+            page = 0;
+          }
+          os.write(updateCache(
+            req,
+            paths[1],
+            true,
+            0,
+            genHeader(pre, paths[1]) +
+            genHistory(pre, paths[1], decode(join(paths, 3)), page)
+          ));
+          os.write(genFooter(start).getBytes());
+          break;
+        }
         /* Process the request */
         switch(paths.length){
           case 0 :
           case 1 :
-            os.write(updateCache(
-              req,
-              null,
-              true,
-              0,
+            /* The activity follows every repository, so is never cached */
+            os.write((
               genHeader(pre, null) +
-              genRoot(pre)
-            ));
-            os.write(genFooter(start).getBytes());
+              genRoot(pre) +
+              genFooter(start)
+            ).getBytes());
             break;
           case 2 :
             os.write(updateCache(
@@ -200,18 +385,53 @@ public class PageBuilder{
                   true,
                   0,
                   genHeader(pre, paths[1]) +
-                  genPage(pre, paths[1], 0)
+                  genPage(pre, paths[1], null, 0)
+                ));
+                os.write(genFooter(start).getBytes());
+                break;
+              case "refs" :
+                os.write(updateCache(
+                  req,
+                  paths[1],
+                  true,
+                  0,
+                  genHeader(pre, paths[1]) +
+                  genRefs(pre, paths[1])
+                ));
+                os.write(genFooter(start).getBytes());
+                break;
+              case "grep" :
+                os.write(updateCache(
+                  req,
+                  paths[1],
+                  true,
+                  0,
+                  genHeader(pre, paths[1]) +
+                  genGrep(pre, paths[1], param(query, "q"), param(query, "re") != null)
+                ));
+                os.write(genFooter(start).getBytes());
+                break;
+              case "stats" :
+                os.write(updateCache(
+                  req,
+                  paths[1],
+                  true,
+                  untilMidnight(paths[1]),
+                  genHeader(pre, paths[1]) +
+                  genStats(pre, paths[1])
                 ));
                 os.write(genFooter(start).getBytes());
                 break;
-              case "rss" :
+              case "search" :
                 os.write(updateCache(
                   req,
                   paths[1],
-                  false,
+                  true,
                   0,
-                  genRSS(pre, paths[1])
+                  genHeader(pre, paths[1]) +
+                  genSearch(pre, paths[1], param(query, "q"))
                 ));
+                os.write(genFooter(start).getBytes());
                 break;
               default :
                 os.write((
@@ -242,7 +462,18 @@ public class PageBuilder{
                   true,
                   0,
                   genHeader(pre, paths[1]) +
-                  genDiff(pre, paths[1], paths[3])
+                  genDiff(pre, paths[1], paths[3], -1)
+                ));
+                os.write(genFooter(start).getBytes());
+                break;
+              case "tree" :
+                os.write(updateCache(
+                  req,
+                  paths[1],
+                  true,
+                  0,
+                  genHeader(pre, paths[1]) +
+                  genTree(pre, paths[1], paths[3], "")
                 ));
                 os.write(genFooter(start).getBytes());
                 break;
@@ -260,7 +491,7 @@ public class PageBuilder{
                   true,
                   0,
                   genHeader(pre, paths[1]) +
-                  genPage(pre, paths[1], page)
+                  genPage(pre, paths[1], null, page)
                 ));
                 os.write(genFooter(start).getBytes());
                 break;
@@ -274,17 +505,168 @@ public class PageBuilder{
             }
             break;
           default :
-            os.write((
-              genHeader(pre, paths[1]) +
-              indexBad +
-              genFooter(start)
-            ).getBytes());
+            switch(paths[2]){
+              case "page" :
+                int page = 0;
+                try{
+                  page = Integer.parseInt(paths[3]);
+                }catch(NumberFormatException e){
+                  /* Fail silently */
+                  page = 0;
+                }
+                os.write(updateCache(
+                  req,
+                  paths[1],
+                  true,
+                  0,
+                  genHeader(pre, paths[1]) +
+                  genPage(pre, paths[1], join(paths, 4), page)
+                ));
+                os.write(genFooter(start).getBytes());
+                break;
+              case "tree" :
+                os.write(updateCache(
+                  req,
+                  paths[1],
+                  true,
+                  0,
+                  genHeader(pre, paths[1]) +
+                  genTree(pre, paths[1], paths[3], decode(join(paths, 4)))
+                ));
+                os.write(genFooter(start).getBytes());
+                break;
+              case "blob" :
+                os.write(updateCache(
+                  req,
+                  paths[1],
+                  true,
+                  0,
+                  genHeader(pre, paths[1]) +
+                  genBlob(pre, paths[1], paths[3], decode(join(paths, 4)))
+                ));
+                os.write(genFooter(start).getBytes());
+                break;
+              case "blame" :
+                os.write(updateCache(
+                  req,
+                  paths[1],
+                  true,
+                  0,
+                  genHeader(pre, paths[1]) +
+                  genBlame(pre, paths[1], paths[3], decode(join(paths, 4)))
+                ));
+                os.write(genFooter(start).getBytes());
+                break;
+              case "diff" :
+                int section = -1;
+                try{
+                  section = Integer.parseInt(paths[4]);
+                }catch(NumberFormatException e){
+                  /* Fail silently */
+                  section = -1;
+                }
+                os.write(updateCache(
+                  req,
+                  paths[1],
+                  true,
+                  0,
+                  genHeader(pre, paths[1]) +
+                  (section >= 0 ? genDiff(pre, paths[1], paths[3], section) : indexBad)
+                ));
+                os.write(genFooter(start).getBytes());
+                break;
+              default :
+                os.write((
+                  genHeader(pre, paths[1]) +
+                  indexBad +
+                  genFooter(start)
+                ).getBytes());
+                break;
+            }
             break;
         }
         break;
     }
   }
 
+  /**
+   * join()
+   *
+   * Join the remaining parts of a request path back together.
+   *
+   * @param paths The request path split by forward slash.
+   * @param x The index of the first part to be joined.
+   * @return The joined path, otherwise an empty String.
+   **/
+  private static String join(String[] paths, int x){
+    StringBuilder sb = new StringBuilder();
+    for(; x < paths.length; x++){
+      if(sb.length() > 0){
+        sb.append('/');
+      }
+      sb.append(paths[x]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * encode()
+   *
+   * Percent encode a path for use in a link.
+   *
+   * @param s The path to be encoded.
+   * @return The encoded path.
+   **/
+  private static String encode(String s){
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    StringBuilder sb = new StringBuilder(b.length);
+    for(int x = 0; x < b.length; x++){
+      char c = (char)(b[x] & 0xFF);
+      if(
+        (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+        (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' ||
+        c == '~' || c == '/'
+      ){
+        sb.append(c);
+      }else{
+        sb.append('%');
+        sb.append(Character.toUpperCase(Character.forDigit(c >> 4, 16)));
+        sb.append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * decode()
+   *
+   * Decode a percent encoded path from a request.
+   *
+   * @param s The path to be decoded.
+   * @return The decoded path.
+   **/
+  private static String decode(String s){
+    if(s.indexOf('%') < 0){
+      return s;
+    }
+    ByteArrayOutputStream b = new ByteArrayOutputStream(s.length());
+    for(int x = 0; x < s.length(); x++){
+      char c = s.charAt(x);
+      if(c == '%' && x + 2 < s.length()){
+        int h = Character.digit(s.charAt(x + 1), 16);
+        int l = Character.digit(s.charAt(x + 2), 16);
+        if(h >= 0 && l >= 0){
+          b.write((h << 4) | l);
+          x += 2;
+          continue;
+        }
+      }
+      byte[] raw = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+      b.write(raw, 0, raw.length);
+    }
+    return new String(b.toByteArray(), StandardCharsets.UTF_8);
+  }
+
   /**
    * updateCache()
    *
@@ -372,7 +754,30 @@ public class PageBuilder{
       header.append(    "/commit\">Commits</a> ");
       header.append(  "<a href=\"");
       header.append(    url);
-      header.append(    "/rss\">RSS</a>");
+      header.append(    "/refs\">Refs</a> ");
+      header.append(  "<a href=\"");
+      header.append(    url);
+      header.append(    "/search\">Search</a> ");
+      header.append(  "<a href=\"");
+      header.append(    url);
+      header.append(    "/grep\">Grep</a> ");
+      header.append(  "<a href=\"");
+      header.append(    url);
+      header.append(    "/stats\">Stats</a> ");
+      Git.Commit head = repos.get(proj).getHead();
+      if(head != null){
+        header.append("<a href=\"");
+        header.append(  url);
+        header.append(  "/tree/");
+        header.append(  head.hash);
+        header.append(  "\">Files</a> ");
+      }
+      header.append(  "<a href=\"");
+      header.append(    url);
+      header.append(    "/rss\">RSS</a> ");
+      header.append(  "<a href=\"");
+      header.append(    url);
+      header.append(    "/atom\">Atom</a>");
       header.append("</nav>");
     }
     return header.toString();
@@ -415,9 +820,143 @@ public class PageBuilder{
       rootHTML.append(  "</a></td></tr>");
     }
     rootHTML.append("</table>");
+    /* Latest commits across all repositories */
+    rootHTML.append("<nav class=\"sub\">Activity ");
+    rootHTML.append(  "<a href=\"");
+    rootHTML.append(    pre);
+    rootHTML.append(    "/rss\">RSS</a> ");
+    rootHTML.append(  "<a href=\"");
+    rootHTML.append(    pre);
+    rootHTML.append(    "/atom\">Atom</a>");
+    rootHTML.append("</nav>");
+    Activity[] items = activity();
+    rootHTML.append("<table>");
+    for(int x = 0; x < items.length; x++){
+      Git.Commit c = items[x].commit;
+      /* Reduce length of commit message */
+      String subject = shorten(c.subject, 32);
+      rootHTML.append("<tr>");
+      rootHTML.append(  "<td><a href=\"");
+      rootHTML.append(    pre);
+      rootHTML.append(    "/");
+      rootHTML.append(    items[x].proj);
+      rootHTML.append(    "\">");
+      rootHTML.append(      items[x].proj);
+      rootHTML.append(  "</a></td>");
+      rootHTML.append(  "<td><a href=\"");
+      rootHTML.append(    pre);
+      rootHTML.append(    "/");
+      rootHTML.append(    items[x].proj);
+      rootHTML.append(    "/commit/");
+      rootHTML.append(    c.hash);
+      rootHTML.append(    "\">");
+      rootHTML.append(      c.hash.substring(0, 7));
+      rootHTML.append(  "</a></td>");
+      rootHTML.append(  "<td>");
+      rootHTML.append(    c.commit_date.toString());
+      rootHTML.append(  "</td>");
+      rootHTML.append(  "<td>");
+      rootHTML.append(    c.author);
+      rootHTML.append(  "</td>");
+      rootHTML.append(  "<td>");
+      rootHTML.append(    subject);
+      rootHTML.append(  "</td>");
+      rootHTML.append("</tr>");
+    }
+    rootHTML.append("</table>");
     return rootHTML.toString();
   }
 
+  /**
+   * activity()
+   *
+   * Get the newest commits across all loaded repositories. Each repository
+   * keeps its own newest commits, only read again once it has been updated,
+   * and the lists are merged newest first through a heap holding a cursor
+   * per repository.
+   *
+   * @return The newest commits, newest first.
+   **/
+  private Activity[] activity(){
+    synchronized(activityRecent){
+      boolean changed = false;
+      for(String key : repos.keySet()){
+        Git git = repos.get(key);
+        Long stamp = activityStamps.get(key);
+        /* Avoid loading repositories just for the activity */
+        if(!git.ready() || (stamp != null && stamp == git.lastUpdate())){
+          continue;
+        }
+        activityStamps.put(key, git.lastUpdate());
+        activityRecent.put(key, recent(git));
+        changed = true;
+      }
+      if(!changed){
+        return activity;
+      }
+      /* Merge the lists, each cursor being a repository and an offset */
+      final String[] keys = activityRecent.keySet().toArray(new String[0]);
+      final Git.Commit[][] lists = new Git.Commit[keys.length][];
+      for(int x = 0; x < keys.length; x++){
+        lists[x] = activityRecent.get(keys[x]);
+      }
+      PriorityQueue<int[]> heap = new PriorityQueue<int[]>(
+        Math.max(1, keys.length),
+        new Comparator<int[]>(){
+          public int compare(int[] a, int[] b){
+            return lists[b[0]][b[1]].commit_date.compareTo(lists[a[0]][a[1]].commit_date);
+          }
+        }
+      );
+      for(int x = 0; x < lists.length; x++){
+        if(lists[x].length > 0){
+          heap.add(new int[]{ x, 0 });
+        }
+      }
+      ArrayList<Activity> res = new ArrayList<Activity>();
+      while(!heap.isEmpty() && res.size() < feedLength){
+        int[] cur = heap.poll();
+        Activity a = new Activity();
+        a.proj = keys[cur[0]];
+        a.commit = lists[cur[0]][cur[1]];
+        res.add(a);
+        if(++cur[1] < lists[cur[0]].length){
+          heap.add(cur);
+        }
+      }
+      activity = res.toArray(new Activity[0]);
+      return activity;
+    }
+  }
+
+  /**
+   * recent()
+   *
+   * Get the newest commits reachable from the head of a repository.
+   *
+   * @param git The repository.
+   * @return Up to the feed length of commits, newest first.
+   **/
+  private Git.Commit[] recent(Git git){
+    ArrayList<Git.Commit> res = new ArrayList<Git.Commit>();
+    int num = git.numCommits();
+    for(int p = 0; p * Git.pageSize() < num && res.size() < feedLength; p++){
+      Git.Commit[] logs = git.log(p);
+      for(int x = 0; x < logs.length && res.size() < feedLength; x++){
+        if(logs[x] != null && logs[x].commit_date != null){
+          res.add(logs[x]);
+        }
+      }
+    }
+    /* The history is walked by parents, the merge needs it by date */
+    res.sort(new Comparator<Git.Commit>(){
+      public int compare(Git.Commit a, Git.Commit b){
+        return b.commit_date.compareTo(a.commit_date);
+      }
+    });
+    return res.toArray(new Git.Commit[0]);
+  }
+
   /**
    * genOverview()
    *
@@ -432,18 +971,33 @@ public class PageBuilder{
     if(proj == null || !repos.containsKey(proj)){
       return indexBad;
     }
-    /* Find the overview page */
-    File file = null;
+    Git git = repos.get(proj);
+    Git.Commit c = git.getHead();
+    Git.Tree root = c != null ? git.tree(c.tree) : null;
+    if(root == null){
+      return "No recognized overview found.";
+    }
+    /* Find the overview page in the head tree */
+    Git.TreeEntry file = null;
     int ext = 0;
-    String[] files = repos.get(proj).entries(true);
-    for(int x = 0; x < files.length && file == null; x++){
-      File test = new File(files[x]);
+    for(int x = 0; x < root.entries.length && file == null; x++){
+      Git.TreeEntry test = root.entries[x];
+      /* Only regular files can be displayed */
+      int type = test.mode & Git.TreeEntry.MODE_TYPE;
+      if(
+        type == Git.TreeEntry.MODE_TREE ||
+        type == Git.TreeEntry.MODE_LINK ||
+        type == Git.TreeEntry.MODE_MODULE
+      ){
+        continue;
+      }
+      String name = test.name.toLowerCase();
       /* Loop index names */
       for(int i = 0; i < INDEX_NAMES.length && file == null; i++){
         /* Loop extensions */
         for(int e = 0; e < INDEX_EXTS.length && file == null; e++){
           String f = INDEX_NAMES[i] + "." + INDEX_EXTS[e];
-          if(test.getName().toLowerCase().equals(f)){
+          if(name.equals(f)){
             file = test;
             ext = e;
             break;
@@ -451,109 +1005,153 @@ public class PageBuilder{
         }
       }
     }
-    if(file != null){
-      StringBuilder overviewHTML = new StringBuilder();
-      /* Display repository stats */
-      overviewHTML.append("<nav class=\"sub\">");
-      overviewHTML.append(  "Commits: ");
-      overviewHTML.append(  Integer.toString(repos.get(proj).numCommits()));
-      Git.Commit c = repos.get(proj).getHead();
-      if(c != null){
-        overviewHTML.append(" | Latest: ");
-        overviewHTML.append("<a href=\"");
-        overviewHTML.append(  pre);
-        overviewHTML.append(  "/");
-        overviewHTML.append(  proj);
-        overviewHTML.append(  "/commit/");
-        overviewHTML.append(  c.hash);
-        overviewHTML.append(  "\">");
-        overviewHTML.append(    c.hash.substring(0, 7));
-        overviewHTML.append("</a>");
-        overviewHTML.append(" committed by ");
-        overviewHTML.append(c.author);
-        overviewHTML.append(", ");
-        overviewHTML.append(
-          TimeUnit.DAYS.convert(
-            System.currentTimeMillis() - c.author_date.getTime(),
-            TimeUnit.MILLISECONDS
-          )
-        );
-        overviewHTML.append(" days ago");
-      }
-      overviewHTML.append("</nav>");
-      /* Pre-markup for text file */
-      if(ext == 2){
-        overviewHTML.append("<pre><code>");
-      }else{
-        /* Otherwise lets make sure all JS is disabled */
-        overviewHTML.append("<script>");
-        overviewHTML.append(  "throw new Error(\"Disabled\");");
-        overviewHTML.append(  "return false;");
-        overviewHTML.append(  "die();");
-        overviewHTML.append(  "debugger;");
-        overviewHTML.append("</script>");
+    if(file == null){
+      return "No recognized overview found.";
+    }
+    StringBuilder overviewHTML = new StringBuilder();
+    /* Display repository stats */
+    overviewHTML.append("<nav class=\"sub\">");
+    overviewHTML.append(  "Commits: ");
+    overviewHTML.append(  Integer.toString(git.numCommits()));
+    overviewHTML.append(" | <a href=\"");
+    overviewHTML.append(  pre);
+    overviewHTML.append(  "/");
+    overviewHTML.append(  proj);
+    overviewHTML.append(  "/stats\">Contributors: ");
+    overviewHTML.append(  git.stats().contributors());
+    overviewHTML.append("</a>");
+    overviewHTML.append(" | Latest: ");
+    overviewHTML.append("<a href=\"");
+    overviewHTML.append(  pre);
+    overviewHTML.append(  "/");
+    overviewHTML.append(  proj);
+    overviewHTML.append(  "/commit/");
+    overviewHTML.append(  c.hash);
+    overviewHTML.append(  "\">");
+    overviewHTML.append(    c.hash.substring(0, 7));
+    overviewHTML.append("</a>");
+    overviewHTML.append(" committed by ");
+    overviewHTML.append(c.author);
+    overviewHTML.append(", ");
+    overviewHTML.append(
+      TimeUnit.DAYS.convert(
+        System.currentTimeMillis() - c.author_date.getTime(),
+        TimeUnit.MILLISECONDS
+      )
+    );
+    overviewHTML.append(" days ago");
+    overviewHTML.append("</nav>");
+    /* The rendering only depends on the file, so re-use it where possible */
+    String key = file.hash + "." + INDEX_EXTS[ext];
+    String body = null;
+    synchronized(overviewCache){
+      body = overviewCache.get(key);
+    }
+    if(body == null){
+      byte[] data = git.readBlob(file.hash, BLOB_VIEW_MAX);
+      if(data == null){
+        return indexBad;
       }
-      MarkState ms = new MarkState();
-      /* Load the file */
-      Scanner s = new Scanner(file);
-      while(s.hasNextLine()){
-        switch(ext){
-          /* Markdown */
-          case 0 :
-          case 1 :
-            overviewHTML.append(markup(s.nextLine(), ms));
-            break;
-          /* Plain text */
-          case 2 :
-            overviewHTML.append(sanitize(s.nextLine()));
-            overviewHTML.append("\n");
-            break;
-          /* HTML */
-          case 3 :
-          case 4 :
-            overviewHTML.append(s.nextLine());
-            break;
-          default :
-            Main.warn("Unsupported extension");
-            break;
+      body = genOverviewBody(data, ext);
+      synchronized(overviewCache){
+        if(overviewCache.size() > cacheMax){
+          overviewCache.clear();
         }
+        overviewCache.put(key, body);
       }
-      s.close();
-      /* Post-markup for text file */
-      if(ext == 2){
-        overviewHTML.append("</code></pre>");
-      }
-      return overviewHTML.toString();
-    }else{
-      return "No recognized overview found.";
     }
+    overviewHTML.append(body);
+    return overviewHTML.toString();
   }
 
   /**
-   * genPage()
+   * genOverviewBody()
    *
-   * Generate a given page for a given project, otherwise display an error.
+   * Render the contents of an overview file.
    *
-   * @param pre Set the pre-string for any links.
+   * @param data The contents of the file.
+   * @param ext The index into the recognized extensions of the file.
+   * @return The content.
+   **/
+  private String genOverviewBody(byte[] data, int ext) throws IOException{
+    StringBuilder overviewHTML = new StringBuilder(data.length + (data.length >> 2));
+    switch(ext){
+      /* Markdown */
+      case 0 :
+      case 1 :
+        (new Markdown(overviewHTML)).render(
+          new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8)
+        );
+        break;
+      /* Plain text */
+      case 2 :
+        overviewHTML.append("<pre><code>");
+        sanitize(new String(data, StandardCharsets.UTF_8), overviewHTML);
+        overviewHTML.append("</code></pre>");
+        break;
+      /* HTML */
+      case 3 :
+      case 4 :
+        /* Make sure all JS is disabled */
+        overviewHTML.append("<script>");
+        overviewHTML.append(  "throw new Error(\"Disabled\");");
+        overviewHTML.append(  "return false;");
+        overviewHTML.append(  "die();");
+        overviewHTML.append(  "debugger;");
+        overviewHTML.append("</script>");
+        overviewHTML.append(new String(data, StandardCharsets.UTF_8));
+        break;
+      default :
+        Main.warn("Unsupported extension");
+        break;
+    }
+    return overviewHTML.toString();
+  }
+
+  /**
+   * genPage()
+   *
+   * Generate a given page for a given project, otherwise display an error.
+   *
+   * @param pre Set the pre-string for any links.
    * @param proj The project name to be acted upon.
+   * @param ref The reference to list commits from, relative to "refs/". If
+   * NULL, HEAD is used.
    * @param page The page number of commits to display.
    * @return The content.
    **/
-  private String genPage(String pre, String proj, int page) throws IOException{
+  private String genPage(String pre, String proj, String ref, int page) throws IOException{
     /* Make sure the request params are valid */
     if(proj == null || !repos.containsKey(proj) || page < 0){
       return indexBad;
     }
+    String suffix = ref != null ? "/" + sanitize(ref) : "";
+    String fullRef = ref != null ? "refs/" + ref : "HEAD";
+    /* Find the last page from the length of the history */
+    int num = repos.get(proj).numCommits(fullRef);
+    int last = num > 0 ? (num - 1) / Git.pageSize() : 0;
     /* Generate pages navigation */
     StringBuilder pageHTML = new StringBuilder();
     pageHTML.append("<nav class=\"sub\">");
+    if(ref != null){
+      pageHTML.append(sanitize(ref));
+      pageHTML.append(": ");
+    }
     if(page > 0){
+      pageHTML.append("<a href=\"");
+      pageHTML.append(  pre);
+      pageHTML.append(  "/");
+      pageHTML.append(  proj);
+      pageHTML.append(  "/page/0");
+      pageHTML.append(  suffix);
+      pageHTML.append(  "\">First</a> < ");
       pageHTML.append("<a href=\"");
       pageHTML.append(  pre);
       pageHTML.append(  "/");
       pageHTML.append(  proj);
       pageHTML.append(  "/page/");
       pageHTML.append(  (page - 1));
+      pageHTML.append(  suffix);
       pageHTML.append(  "\">Prev</a> < ");
     }
     pageHTML.append("<a href=\"");
@@ -562,52 +1160,404 @@ public class PageBuilder{
     pageHTML.append(  proj);
     pageHTML.append(  "/page/");
     pageHTML.append(  page);
+    pageHTML.append(  suffix);
     pageHTML.append(  "\">");
     pageHTML.append(  page);
-    pageHTML.append(  "</a> > ");
-    pageHTML.append("<a href=\"");
+    pageHTML.append(  "</a>");
+    if(page < last){
+      pageHTML.append(" > <a href=\"");
+      pageHTML.append(  pre);
+      pageHTML.append(  "/");
+      pageHTML.append(  proj);
+      pageHTML.append(  "/page/");
+      pageHTML.append(  (page + 1));
+      pageHTML.append(  suffix);
+      pageHTML.append(  "\">Next</a> > ");
+      pageHTML.append("<a href=\"");
+      pageHTML.append(  pre);
+      pageHTML.append(  "/");
+      pageHTML.append(  proj);
+      pageHTML.append(  "/page/");
+      pageHTML.append(  last);
+      pageHTML.append(  suffix);
+      pageHTML.append(  "\">Last</a>");
+    }
+    pageHTML.append(" of ");
+    pageHTML.append(last);
+    pageHTML.append(" <a href=\"");
     pageHTML.append(  pre);
     pageHTML.append(  "/");
     pageHTML.append(  proj);
-    pageHTML.append(  "/page/");
-    pageHTML.append(  (page + 1));
-    pageHTML.append(  "\">Next</a>");
+    pageHTML.append(  "/rss");
+    pageHTML.append(  suffix);
+    pageHTML.append(  "\">RSS</a>");
     pageHTML.append("</nav>");
     /* Fill out table */
-    Git.Commit[] logs = repos.get(proj).log(page);
-    pageHTML.append("<table>");
+    genLog(pageHTML, pre, proj, repos.get(proj).log(fullRef, page));
+    return pageHTML.toString();
+  }
+
+  /**
+   * genLog()
+   *
+   * Generate a table of commits.
+   *
+   * @param logHTML The buffer to write the table to.
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param logs The commits to be listed, NULL entries are skipped.
+   **/
+  private static void genLog(StringBuilder logHTML, String pre, String proj, Git.Commit[] logs){
+    logHTML.append("<table>");
     for(int x = 0; x < logs.length; x++){
       if(logs[x] != null){
         /* Reduce length of commit message */
-        String subject = logs[x].subject;
-        if(subject != null && subject.length() > 32){
-          subject = subject.substring(0, 30) + "..";
-        }
+        String subject = shorten(logs[x].subject, 32);
         /* Write the entry */
-        pageHTML.append("<tr>");
-        pageHTML.append(  "<td><a href=\"");
-        pageHTML.append(    pre);
-        pageHTML.append(    "/");
-        pageHTML.append(    proj);
-        pageHTML.append(    "/commit/");
-        pageHTML.append(    logs[x].hash);
-        pageHTML.append(    "\">");
-        pageHTML.append(      logs[x].hash.substring(0, 7));
-        pageHTML.append(  "</a></td>");
-        pageHTML.append(  "<td>");
-        pageHTML.append(    logs[x].author_date.toString());
-        pageHTML.append(  "</td>");
-        pageHTML.append(  "<td>");
-        pageHTML.append(    logs[x].author);
-        pageHTML.append(  "</td>");
-        pageHTML.append(  "<td>");
-        pageHTML.append(    subject);
-        pageHTML.append(  "</td>");
-        pageHTML.append("</tr>");
-      }
-    }
-    pageHTML.append("</table>");
-    return pageHTML.toString();
+        logHTML.append("<tr>");
+        logHTML.append(  "<td><a href=\"");
+        logHTML.append(    pre);
+        logHTML.append(    "/");
+        logHTML.append(    proj);
+        logHTML.append(    "/commit/");
+        logHTML.append(    logs[x].hash);
+        logHTML.append(    "\">");
+        logHTML.append(      logs[x].hash.substring(0, 7));
+        logHTML.append(  "</a></td>");
+        logHTML.append(  "<td>");
+        logHTML.append(    logs[x].author_date.toString());
+        logHTML.append(  "</td>");
+        logHTML.append(  "<td>");
+        logHTML.append(    logs[x].author);
+        logHTML.append(  "</td>");
+        logHTML.append(  "<td>");
+        logHTML.append(    subject);
+        logHTML.append(  "</td>");
+        logHTML.append("</tr>");
+      }
+    }
+    logHTML.append("</table>");
+  }
+
+  /**
+   * genHistory()
+   *
+   * Generate a list of the commits that changed a given path, across all
+   * references.
+   *
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param path The path of the file or directory.
+   * @param page The page of commits to be displayed.
+   * @return The content.
+   **/
+  private String genHistory(String pre, String proj, String path, int page) throws IOException{
+    /* Make sure the request params are valid */
+    if(proj == null || !repos.containsKey(proj) || page < 0){
+      return indexBad;
+    }
+    /* Normalise the path as it is stored in the index */
+    String norm = "";
+    String[] parts = path.split("/");
+    for(int x = 0; x < parts.length; x++){
+      if(parts[x].length() > 0){
+        norm += (norm.length() > 0 ? "/" : "") + parts[x];
+      }
+    }
+    Git git = repos.get(proj);
+    int num = git.numPathCommits(norm);
+    int last = num > 0 ? (num - 1) / Git.pageSize() : 0;
+    String link = pre + "/" + proj + "/history/" + encode(norm) + "?page=";
+    StringBuilder historyHTML = new StringBuilder();
+    historyHTML.append("<nav class=\"sub\">");
+    historyHTML.append(  sanitize(norm));
+    historyHTML.append(  ": ");
+    if(page > 0){
+      historyHTML.append("<a href=\"");
+      historyHTML.append(  link);
+      historyHTML.append(  (page - 1));
+      historyHTML.append(  "\">Prev</a> < ");
+    }
+    historyHTML.append(page);
+    if(page < last){
+      historyHTML.append(" > <a href=\"");
+      historyHTML.append(  link);
+      historyHTML.append(  (page + 1));
+      historyHTML.append(  "\">Next</a>");
+    }
+    historyHTML.append(" of ");
+    historyHTML.append(last);
+    historyHTML.append(" (");
+    historyHTML.append(num);
+    historyHTML.append(" commits)");
+    historyHTML.append("</nav>");
+    genLog(historyHTML, pre, proj, git.pathLog(norm, page));
+    return historyHTML.toString();
+  }
+
+  /**
+   * genGrep()
+   *
+   * Generate a list of the lines of the files at the head that contain a
+   * string or match a regular expression.
+   *
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param q The search query, otherwise NULL.
+   * @param regex True if the query is a regular expression.
+   * @return The content.
+   **/
+  private String genGrep(String pre, String proj, String q, boolean regex) throws IOException{
+    /* Make sure the request params are valid */
+    if(proj == null || !repos.containsKey(proj)){
+      return indexBad;
+    }
+    q = q != null ? q : "";
+    Git git = repos.get(proj);
+    Git.Commit head = git.getHead();
+    ArrayList<Grep.Match> matches = Grep.search(git, q, regex, GREP_MAX);
+    StringBuilder grepHTML = new StringBuilder();
+    grepHTML.append("<nav class=\"sub\">");
+    grepHTML.append(  "<form action=\"");
+    grepHTML.append(    pre);
+    grepHTML.append(    "/");
+    grepHTML.append(    proj);
+    grepHTML.append(    "/grep\">");
+    grepHTML.append(    "<input name=\"q\" value=\"");
+    grepHTML.append(      sanitize(q));
+    grepHTML.append(    "\"> ");
+    grepHTML.append(    "<label><input type=\"checkbox\" name=\"re\"");
+    grepHTML.append(      regex ? " checked" : "");
+    grepHTML.append(    ">Regex</label> ");
+    if(matches == null){
+      grepHTML.append(  "Invalid or too expensive query");
+    }else{
+      grepHTML.append(  matches.size());
+      grepHTML.append(  matches.size() >= GREP_MAX ? "+" : "");
+      grepHTML.append(  " results");
+    }
+    grepHTML.append(  "</form>");
+    grepHTML.append("</nav>");
+    grepHTML.append("<table>");
+    for(int x = 0; matches != null && head != null && x < matches.size(); x++){
+      Grep.Match m = matches.get(x);
+      grepHTML.append("<tr>");
+      grepHTML.append(  "<td><a href=\"");
+      grepHTML.append(    pre);
+      grepHTML.append(    "/");
+      grepHTML.append(    proj);
+      grepHTML.append(    "/blob/");
+      grepHTML.append(    head.hash);
+      grepHTML.append(    "/");
+      grepHTML.append(    encode(m.path));
+      grepHTML.append(    "\">");
+      grepHTML.append(      sanitize(m.path));
+      grepHTML.append(      ":");
+      grepHTML.append(      m.line);
+      grepHTML.append(  "</a></td>");
+      grepHTML.append(  "<td><code>");
+      sanitize(m.text, grepHTML);
+      grepHTML.append(  "</code></td>");
+      grepHTML.append("</tr>");
+    }
+    grepHTML.append("</table>");
+    return grepHTML.toString();
+  }
+
+  /**
+   * untilMidnight()
+   *
+   * Get a cache timeout that ends at the next midnight, for pages that
+   * depend on the date. Timeouts count from the last update of the
+   * repository, not from when the page is generated.
+   *
+   * @param proj The project name.
+   * @return The timeout in milliseconds.
+   **/
+  private long untilMidnight(String proj){
+    long now = System.currentTimeMillis();
+    Git git = proj != null ? repos.get(proj) : null;
+    long from = git != null ? git.lastUpdate() : now;
+    return now - now % TIME_DAY_MS + TIME_DAY_MS - from;
+  }
+
+  /**
+   * genStats()
+   *
+   * Generate the activity of a project, as a heatmap of the commits per day
+   * over the last year, the commits of recent weeks and the authors with the
+   * most commits. Everything is read from running totals, so the cost does
+   * not depend on the length of the history.
+   *
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @return The content.
+   **/
+  private String genStats(String pre, String proj) throws IOException{
+    /* Make sure the request params are valid */
+    if(proj == null || !repos.containsKey(proj)){
+      return indexBad;
+    }
+    Stats stats = repos.get(proj).stats();
+    int today = Stats.day(new Date());
+    int week = Stats.week(today);
+    StringBuilder statsHTML = new StringBuilder();
+    statsHTML.append("<nav class=\"sub\">");
+    statsHTML.append(  "Commits: ");
+    statsHTML.append(  stats.commits());
+    statsHTML.append(  " | Contributors: ");
+    statsHTML.append(  stats.contributors());
+    statsHTML.append(  " | Active days: ");
+    statsHTML.append(  stats.activeDays());
+    statsHTML.append(  " of ");
+    statsHTML.append(  stats.span());
+    statsHTML.append("</nav>");
+    /* Scale the heatmap to the busiest day shown */
+    int first = week - STATS_WEEKS + 1;
+    int busiest = 1;
+    for(int x = first * 7 - 3; x <= today; x++){
+      busiest = Math.max(busiest, stats.onDay(x));
+    }
+    statsHTML.append("<table class=\"heat\">");
+    for(int d = 0; d < 7; d++){
+      statsHTML.append("<tr>");
+      for(int w = first; w <= week; w++){
+        int day = w * 7 - 3 + d;
+        if(day > today){
+          statsHTML.append("<td></td>");
+          continue;
+        }
+        int n = stats.onDay(day);
+        statsHTML.append("<td class=\"h");
+        statsHTML.append(  n > 0 ? (n * 4 + busiest - 1) / busiest : 0);
+        statsHTML.append(  "\" title=\"");
+        statsHTML.append(  formatDate(new Date(day * TIME_DAY_MS), DATE_DAY));
+        statsHTML.append(  ": ");
+        statsHTML.append(  n);
+        statsHTML.append(  "\"></td>");
+      }
+      statsHTML.append("</tr>");
+    }
+    statsHTML.append("</table>");
+    /* Recent weeks */
+    statsHTML.append("<table>");
+    statsHTML.append(  "<tr><th>Week of</th><th>Commits</th></tr>");
+    for(int w = week; w > week - STATS_WEEKS_LIST; w--){
+      statsHTML.append("<tr><td>");
+      statsHTML.append(  formatDate(new Date((w * 7 - 3) * TIME_DAY_MS), DATE_DAY));
+      statsHTML.append("</td><td>");
+      statsHTML.append(  stats.inWeek(w));
+      statsHTML.append("</td></tr>");
+    }
+    statsHTML.append("</table>");
+    /* Top authors */
+    String[] top = stats.top(STATS_AUTHORS);
+    statsHTML.append("<table>");
+    statsHTML.append(  "<tr><th>Author</th><th>Commits</th></tr>");
+    for(int x = 0; x < top.length; x++){
+      statsHTML.append("<tr><td>");
+      statsHTML.append(  top[x]);
+      statsHTML.append("</td><td>");
+      statsHTML.append(  stats.count(top[x]));
+      statsHTML.append("</td></tr>");
+    }
+    statsHTML.append("</table>");
+    return statsHTML.toString();
+  }
+
+  /**
+   * genSearch()
+   *
+   * Generate a list of the commits whose message contains all of the words
+   * searched for.
+   *
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param q The search query, otherwise NULL.
+   * @return The content.
+   **/
+  private String genSearch(String pre, String proj, String q) throws IOException{
+    /* Make sure the request params are valid */
+    if(proj == null || !repos.containsKey(proj)){
+      return indexBad;
+    }
+    q = q != null ? q : "";
+    Git.Commit[] logs = repos.get(proj).search(q, SEARCH_MAX);
+    StringBuilder searchHTML = new StringBuilder();
+    searchHTML.append("<nav class=\"sub\">");
+    searchHTML.append(  "<form action=\"");
+    searchHTML.append(    pre);
+    searchHTML.append(    "/");
+    searchHTML.append(    proj);
+    searchHTML.append(    "/search\">");
+    searchHTML.append(    "<input name=\"q\" value=\"");
+    searchHTML.append(      sanitize(q));
+    searchHTML.append(    "\"> ");
+    searchHTML.append(    logs.length);
+    searchHTML.append(    logs.length >= SEARCH_MAX ? "+" : "");
+    searchHTML.append(    " results");
+    searchHTML.append(  "</form>");
+    searchHTML.append("</nav>");
+    genLog(searchHTML, pre, proj, logs);
+    return searchHTML.toString();
+  }
+
+  /**
+   * genRefs()
+   *
+   * Generate a list of the branches and tags for a given project.
+   *
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @return The content.
+   **/
+  private String genRefs(String pre, String proj) throws IOException{
+    /* Make sure the request params are valid */
+    if(proj == null || !repos.containsKey(proj)){
+      return indexBad;
+    }
+    Git git = repos.get(proj);
+    String head = git.getHeadRef();
+    String[] groups = new String[]{ "heads", "tags" };
+    String[] titles = new String[]{ "Branches", "Tags" };
+    StringBuilder refsHTML = new StringBuilder();
+    for(int g = 0; g < groups.length; g++){
+      String[] refs = git.getRefs("refs/" + groups[g] + "/");
+      refsHTML.append("<h2>");
+      refsHTML.append(  titles[g]);
+      refsHTML.append("</h2>");
+      refsHTML.append("<table>");
+      for(int x = 0; x < refs.length; x++){
+        String name = sanitize(refs[x].substring(5));
+        String hash = git.getRef(refs[x]);
+        refsHTML.append("<tr>");
+        refsHTML.append(  "<td><a href=\"");
+        refsHTML.append(    pre);
+        refsHTML.append(    "/");
+        refsHTML.append(    proj);
+        refsHTML.append(    "/page/0/");
+        refsHTML.append(    name);
+        refsHTML.append(    "\">");
+        refsHTML.append(      name.substring(groups[g].length() + 1));
+        refsHTML.append(  "</a>");
+        if(refs[x].equals(head)){
+          refsHTML.append(" (HEAD)");
+        }
+        refsHTML.append(  "</td>");
+        refsHTML.append(  "<td><a href=\"");
+        refsHTML.append(    pre);
+        refsHTML.append(    "/");
+        refsHTML.append(    proj);
+        refsHTML.append(    "/commit/");
+        refsHTML.append(    hash);
+        refsHTML.append(    "\">");
+        refsHTML.append(      hash.substring(0, 7));
+        refsHTML.append(  "</a></td>");
+        refsHTML.append("</tr>");
+      }
+      refsHTML.append("</table>");
+    }
+    return refsHTML.toString();
   }
 
   /**
@@ -665,18 +1615,44 @@ public class PageBuilder{
     commitHTML.append(    "\">");
     commitHTML.append(    commit.hash);
     commitHTML.append(  "</a></td></tr>");
-    commitHTML.append(  "<tr><td>Tree</td><td>");
-    commitHTML.append(    commit.tree);
-    commitHTML.append(  "</a></td></tr>");
-    commitHTML.append(  "<tr><td>Parents</td><td><a href=\"");
+    commitHTML.append(  "<tr><td>Tree</td><td><a href=\"");
     commitHTML.append(    pre);
     commitHTML.append(    "/");
     commitHTML.append(    proj);
-    commitHTML.append(    "/commit/");
-    commitHTML.append(    commit.parent);
+    commitHTML.append(    "/tree/");
+    commitHTML.append(    commit.hash);
     commitHTML.append(    "\">");
-    commitHTML.append(    commit.parent);
+    commitHTML.append(    commit.tree);
     commitHTML.append(  "</a></td></tr>");
+    commitHTML.append(  "<tr><td>Archive</td><td>");
+    commitHTML.append(    "<a href=\"");
+    commitHTML.append(      pre);
+    commitHTML.append(      "/");
+    commitHTML.append(      proj);
+    commitHTML.append(      "/archive/");
+    commitHTML.append(      commit.hash);
+    commitHTML.append(      ".zip\">zip</a> ");
+    commitHTML.append(    "<a href=\"");
+    commitHTML.append(      pre);
+    commitHTML.append(      "/");
+    commitHTML.append(      proj);
+    commitHTML.append(      "/archive/");
+    commitHTML.append(      commit.hash);
+    commitHTML.append(      ".tar.gz\">tar.gz</a>");
+    commitHTML.append(  "</td></tr>");
+    commitHTML.append(  "<tr><td>Parents</td><td>");
+    for(int x = 0; x < commit.parents.length; x++){
+      commitHTML.append(  "<a href=\"");
+      commitHTML.append(    pre);
+      commitHTML.append(    "/");
+      commitHTML.append(    proj);
+      commitHTML.append(    "/commit/");
+      commitHTML.append(    commit.parents[x]);
+      commitHTML.append(    "\">");
+      commitHTML.append(    commit.parents[x]);
+      commitHTML.append(  "</a> ");
+    }
+    commitHTML.append(  "</td></tr>");
     commitHTML.append(  "<tr><td>Author Name</td><td>");
     commitHTML.append(    commit.author);
     commitHTML.append(  "</td></tr>");
@@ -703,244 +1679,1490 @@ public class PageBuilder{
   }
 
   /**
-   * genDiff()
+   * genPath()
    *
-   * Generate the code difference for a given commit.
+   * Generate the navigation for a path below a commit or tree, linking each
+   * directory along the way.
    *
    * @param pre Set the pre-string for any links.
    * @param proj The project name to be acted upon.
-   * @param commit The commit to display a summary for.
+   * @param hash The commit or tree hash the path is relative to.
+   * @param path The path to be displayed.
+   * @param tree True if the path is a directory, otherwise false.
+   * @return The content.
+   **/
+  private String genPath(String pre, String proj, String hash, String path, boolean tree){
+    StringBuilder pathHTML = new StringBuilder();
+    pathHTML.append("<nav class=\"sub\">");
+    pathHTML.append("<a href=\"");
+    pathHTML.append(  pre);
+    pathHTML.append(  "/");
+    pathHTML.append(  proj);
+    pathHTML.append(  "/tree/");
+    pathHTML.append(  hash);
+    pathHTML.append(  "\">");
+    pathHTML.append(  hash.substring(0, 7));
+    pathHTML.append("</a>");
+    String[] parts = path.split("/");
+    String sub = "";
+    for(int x = 0; x < parts.length; x++){
+      if(parts[x].length() <= 0){
+        continue;
+      }
+      sub += "/" + encode(parts[x]);
+      pathHTML.append(" / <a href=\"");
+      pathHTML.append(  pre);
+      pathHTML.append(  "/");
+      pathHTML.append(  proj);
+      pathHTML.append(  tree || x < parts.length - 1 ? "/tree/" : "/blob/");
+      pathHTML.append(  hash);
+      pathHTML.append(  sub);
+      pathHTML.append(  "\">");
+      pathHTML.append(  sanitize(parts[x]));
+      pathHTML.append("</a>");
+    }
+    if(sub.length() > 0){
+      pathHTML.append(" <a href=\"");
+      pathHTML.append(  pre);
+      pathHTML.append(  "/");
+      pathHTML.append(  proj);
+      pathHTML.append(  "/history");
+      pathHTML.append(  sub);
+      pathHTML.append(  "\">History</a>");
+    }
+    pathHTML.append("</nav>");
+    return pathHTML.toString();
+  }
+
+  /**
+   * genTree()
+   *
+   * Generate a directory listing for a path below a commit or tree. The
+   * listing is cached by tree hash and shared between every commit that
+   * contains the same tree, its links are completed with the commit and path
+   * of the request when it is displayed.
+   *
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param hash The commit or tree hash the path is relative to.
+   * @param path The path of the directory to be listed.
    * @return The content.
    **/
-  private String genDiff(String pre, String proj, String commit) throws IOException{
+  private String genTree(String pre, String proj, String hash, String path) throws IOException{
     /* Make sure the request params are valid */
     if(
       proj == null             ||
       !repos.containsKey(proj) ||
-      commit == null           ||
-      !Git.validCommit(commit)
+      hash == null             ||
+      !Git.validCommit(hash)
     ){
       return indexBad;
     }
-    /* Generate pages navigation */
-    StringBuilder diffHTML = new StringBuilder();
-    diffHTML.append("<nav class=\"sub\">");
-    diffHTML.append("<a href=\"");
-    diffHTML.append(  pre);
-    diffHTML.append(  "/");
-    diffHTML.append(  proj);
-    diffHTML.append(  "/commit/");
-    diffHTML.append(  commit);
-    diffHTML.append(  "\">Summary</a> ");
-    diffHTML.append("<a href=\"");
-    diffHTML.append(  pre);
-    diffHTML.append(  "/");
-    diffHTML.append(  proj);
-    diffHTML.append(  "/diff/");
-    diffHTML.append(  commit);
-    diffHTML.append(  "\">Diff</a>");
-    diffHTML.append("</nav>");
-    /* Generate details */
-    String diff = repos.get(proj).diff(commit);
-    diffHTML.append("<pre><code>");
-    diffHTML.append(  sanitize(diff));
-    diffHTML.append("</code></pre>");
-    return diffHTML.toString();
+    Git git = repos.get(proj);
+    Git.TreeEntry te = git.resolve(hash, path);
+    if(te == null || (te.mode & Git.TreeEntry.MODE_TYPE) != Git.TreeEntry.MODE_TREE){
+      return indexBad;
+    }
+    /* Check for a cached listing */
+    String key = proj + "/" + te.hash;
+    String listing = null;
+    synchronized(treeCache){
+      listing = treeCache.get(key);
+    }
+    if(listing == null){
+      Git.Tree tree = git.tree(te.hash);
+      if(tree == null){
+        return indexBad;
+      }
+      StringBuilder treeHTML = new StringBuilder();
+      treeHTML.append("<table>");
+      /* List directories first, then everything else */
+      for(int d = 0; d < 2; d++){
+        for(int x = 0; x < tree.entries.length; x++){
+          Git.TreeEntry e = tree.entries[x];
+          int type = e.mode & Git.TreeEntry.MODE_TYPE;
+          if((type == Git.TreeEntry.MODE_TREE) != (d == 0)){
+            continue;
+          }
+          String name = sanitize(e.name);
+          String link = encode(e.name);
+          treeHTML.append("<tr><td>");
+          treeHTML.append(  String.format("%06o", e.mode));
+          treeHTML.append("</td><td>");
+          switch(type){
+            case Git.TreeEntry.MODE_MODULE :
+              treeHTML.append(name);
+              treeHTML.append(" @ ");
+              treeHTML.append(e.hash.substring(0, 7));
+              break;
+            case Git.TreeEntry.MODE_TREE :
+              treeHTML.append(TREE_LINK_DIR);
+              treeHTML.append(  link);
+              treeHTML.append(  "\">");
+              treeHTML.append(  name);
+              treeHTML.append(  "/</a>");
+              break;
+            default :
+              treeHTML.append(TREE_LINK_FILE);
+              treeHTML.append(  link);
+              treeHTML.append(  "\">");
+              treeHTML.append(  name);
+              treeHTML.append(  "</a>");
+              break;
+          }
+          treeHTML.append("</td><td>");
+          Git.Blob b = git.blob(e.hash);
+          if(b != null){
+            treeHTML.append(b.size);
+          }
+          treeHTML.append("</td></tr>");
+        }
+      }
+      treeHTML.append("</table>");
+      listing = treeHTML.toString();
+      synchronized(treeCache){
+        if(treeCache.size() > cacheMax){
+          treeCache.clear();
+        }
+        treeCache.put(key, listing);
+      }
+    }
+    /* Names are sanitized, so only the links can contain the markers */
+    String dir = "/";
+    String[] parts = path.split("/");
+    for(int x = 0; x < parts.length; x++){
+      if(parts[x].length() > 0){
+        dir += encode(parts[x]) + "/";
+      }
+    }
+    String base = "<a href=\"" + pre + "/" + proj;
+    listing = listing
+      .replace(TREE_LINK_DIR, base + "/tree/" + hash + dir)
+      .replace(TREE_LINK_FILE, base + "/blob/" + hash + dir);
+    return genPath(pre, proj, hash, path, true) + listing;
   }
 
   /**
-   * sanitize()
+   * genBlob()
    *
-   * Ensure that we sanitize any Strings from Git to not contain HTML.
+   * Generate the contents of a file below a commit or tree.
    *
-   * @param s The string to be sanitized.
-   * @return The sanitized string.
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param hash The commit or tree hash the path is relative to.
+   * @param path The path of the file to be displayed.
+   * @return The content.
    **/
-  public static String sanitize(String s){
-    StringBuilder res = new StringBuilder();
-    int x = 0;
-    int i = x;
-    /* Search and replace special characters */
-    for(; x < s.length(); x++){
-      switch(s.charAt(x)){
-        case '&' :
-          res.append(s.substring(i, x));
-          res.append("&amp;");;
-          i = x + 1;
-          break;
-        case '<' :
-          res.append(s.substring(i, x));
-          res.append("&lt;");;
-          i = x + 1;
-          break;
-        case '>' :
-          res.append(s.substring(i, x));
-          res.append("&gt;");;
-          i = x + 1;
-          break;
+  private String genBlob(String pre, String proj, String hash, String path) throws IOException{
+    /* Make sure the request params are valid */
+    if(
+      proj == null             ||
+      !repos.containsKey(proj) ||
+      hash == null             ||
+      !Git.validCommit(hash)
+    ){
+      return indexBad;
+    }
+    Git git = repos.get(proj);
+    Git.TreeEntry te = git.resolve(hash, path);
+    if(te == null || (te.mode & Git.TreeEntry.MODE_TYPE) == Git.TreeEntry.MODE_TREE){
+      return indexBad;
+    }
+    byte[] data = git.readBlob(te.hash, BLOB_VIEW_MAX);
+    if(data == null){
+      return indexBad;
+    }
+    StringBuilder blobHTML = new StringBuilder();
+    blobHTML.append(genPath(pre, proj, hash, path, false));
+    blobHTML.append("<nav class=\"sub\"><a href=\"");
+    blobHTML.append(  pre);
+    blobHTML.append(  "/");
+    blobHTML.append(  proj);
+    blobHTML.append(  "/raw/");
+    blobHTML.append(  hash);
+    blobHTML.append(  "/");
+    blobHTML.append(  encode(path));
+    blobHTML.append(  "\">Raw</a> <a href=\"");
+    blobHTML.append(  pre);
+    blobHTML.append(  "/");
+    blobHTML.append(  proj);
+    blobHTML.append(  "/blame/");
+    blobHTML.append(  hash);
+    blobHTML.append(  "/");
+    blobHTML.append(  encode(path));
+    blobHTML.append(  "\">Blame</a></nav>");
+    /* Check for binary data */
+    for(int x = 0; x < data.length && x < BLOB_BINARY_CHECK; x++){
+      if(data[x] == 0){
+        blobHTML.append("Binary file not shown.");
+        return blobHTML.toString();
       }
     }
-    /* Compose remaining parts of string */
-    if(x != i){
-      res.append(s.substring(i, x));
+    blobHTML.append("<pre><code>");
+    String[] lines = Highlight.html(te.hash, path, new String(data, StandardCharsets.UTF_8));
+    for(int x = 0; x < lines.length; x++){
+      blobHTML.append(lines[x]);
+      blobHTML.append('\n');
     }
-    return res.toString();
+    blobHTML.append("</code></pre>");
+    Git.Blob b = git.blob(te.hash);
+    if(b != null && b.size > data.length){
+      blobHTML.append("[-- FILE TOO LONG --]");
+    }
+    return blobHTML.toString();
   }
 
   /**
-   * markup()
+   * genBlame()
    *
-   * Provide very basic markup for markdown files.
+   * Generate the lines of a file below a commit alongside the commit that
+   * last changed each of them.
    *
-   * @param s The input line and ignore the global context.
-   * @param ms The current markdown parser state.
-   * @return The marked up line.
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param hash The commit hash the path is relative to.
+   * @param path The path of the file.
+   * @return The content.
    **/
-  private static String markup(String s, MarkState ms){
-    /* Check line is worth parsing */
-    if(s == null){
-      return s;
-    }
-    /* If line is blank, throw a new line in */
-    if(s.length() <= 0){
-      return "<br>";
+  private String genBlame(String pre, String proj, String hash, String path) throws IOException{
+    /* Make sure the request params are valid */
+    if(
+      proj == null             ||
+      !repos.containsKey(proj) ||
+      hash == null             ||
+      !Git.validCommit(hash)
+    ){
+      return indexBad;
     }
-    /* Check pre depth 3 */
-    if(s.length() >= 3){
-      /* Pre: Check for code */
-      if(s.charAt(0) == '`' && s.charAt(1) == '`' && s.charAt(2) == '`'){
-        if(!ms.code){
-          ms.code = true;
-          return "<pre><code>";
-        }else{
-          ms.code = false;
-          return "</code></pre>";
-        }
+    Git git = repos.get(proj);
+    /* Normalise the path as it is stored in the index */
+    String norm = "";
+    String[] parts = path.split("/");
+    for(int x = 0; x < parts.length; x++){
+      if(parts[x].length() > 0){
+        norm += (norm.length() > 0 ? "/" : "") + parts[x];
       }
     }
-    /* If we're processing a code block we know what to do */
-    if(ms.code){
-      return sanitize(s) + "\n";
+    Git.TreeEntry te = git.resolve(hash, norm);
+    byte[] data = te != null ? git.readBlob(te.hash, BLOB_VIEW_MAX) : null;
+    if(data == null){
+      return indexBad;
     }
-    /* Check pre depth 2 */
-    if(s.length() >= 2){
-      /* Pre: Check for headers */
-      if(s.charAt(0) == '#'){
-        /* Check for H2 */
-        if(s.charAt(1) != '#'){
-          s = "<h1>" + s + "</h1>";
-        }else{
-          s = "<h2>" + s + "</h2>";
-        }
+    StringBuilder blameHTML = new StringBuilder();
+    blameHTML.append(genPath(pre, proj, hash, norm, false));
+    /* Check for binary data */
+    for(int x = 0; x < data.length && x < BLOB_BINARY_CHECK; x++){
+      if(data[x] == 0){
+        blameHTML.append("Binary file not shown.");
+        return blameHTML.toString();
       }
     }
-    /* Check pre depth 4 */
-    if(s.length() >= 4){
-      /* Pre: Check for code */
-      if(s.charAt(0) == s.charAt(1) && s.charAt(2) == s.charAt(3) && s.charAt(0) == ' '){
-        return "<pre><code>" + sanitize(s) + "</code></pre><br>";
+    String[] origins = git.blame(hash, norm);
+    if(origins == null){
+      blameHTML.append("[-- FILE TOO LONG --]");
+      return blameHTML.toString();
+    }
+    String[] lines = Highlight.html(te.hash, norm, new String(data, StandardCharsets.UTF_8));
+    blameHTML.append("<table>");
+    for(int x = 0; x < lines.length && x < origins.length; x++){
+      blameHTML.append("<tr>");
+      blameHTML.append(  "<td>");
+      /* Only label the first line of each run from the same commit */
+      if(x == 0 || !origins[x].equals(origins[x - 1])){
+        Git.Commit c = git.commit(origins[x]);
+        blameHTML.append("<a href=\"");
+        blameHTML.append(  pre);
+        blameHTML.append(  "/");
+        blameHTML.append(  proj);
+        blameHTML.append(  "/commit/");
+        blameHTML.append(  origins[x]);
+        blameHTML.append(  "\">");
+        blameHTML.append(    origins[x].substring(0, 7));
+        blameHTML.append("</a> ");
+        blameHTML.append(c != null ? c.author : "");
       }
+      blameHTML.append(  "</td>");
+      blameHTML.append(  "<td>");
+      blameHTML.append(    x + 1);
+      blameHTML.append(  "</td>");
+      blameHTML.append(  "<td><pre>");
+      blameHTML.append(    lines[x]);
+      blameHTML.append(  "</pre></td>");
+      blameHTML.append("</tr>");
     }
-    /* Return whatever we have left */
-    return s + "<br>";
+    blameHTML.append("</table>");
+    return blameHTML.toString();
   }
 
   /**
-   * genRSS()
+   * genRaw()
    *
-   * Generate an RSS feed for a given project.
+   * Write the raw contents of a file below a commit or tree directly to the
+   * client, honouring a single byte range if requested. Small files are
+   * served from the repository blob cache, larger files are streamed from
+   * the object store without being held in memory.
    *
+   * @param os The output stream to write the file to.
    * @param pre Set the pre-string for any links.
    * @param proj The project name to be acted upon.
-   * @return The content.
+   * @param hash The commit or tree hash the path is relative to.
+   * @param path The path of the file to be served.
+   * @param range The requested byte range header, otherwise NULL.
    **/
-  private String genRSS(String pre, String proj) throws IOException{
+  private void genRaw(
+    OutputStream os,
+    String pre,
+    String proj,
+    String hash,
+    String path,
+    String range
+  ) throws IOException{
+    /* Make sure the request params are valid */
+    Git git = proj != null ? repos.get(proj) : null;
+    Git.TreeEntry te = null;
+    if(git != null && hash != null && Git.validCommit(hash)){
+      te = git.resolve(hash, path);
+    }
+    Git.Blob b = null;
+    if(te != null){
+      int type = te.mode & Git.TreeEntry.MODE_TYPE;
+      if(type != Git.TreeEntry.MODE_TREE && type != Git.TreeEntry.MODE_MODULE){
+        b = git.blob(te.hash);
+      }
+    }
+    if(b == null){
+      os.write((RAW_BAD + indexBad).getBytes());
+      return;
+    }
+    /* Small files are kept inflated, otherwise just peek at the start */
+    byte[] data = git.cachedBlob(te.hash);
+    byte[] peek = data;
+    if(peek == null){
+      peek = git.readBlob(te.hash, BLOB_BINARY_CHECK);
+      if(peek == null){
+        os.write((RAW_BAD + indexBad).getBytes());
+        return;
+      }
+    }
+    /* Figure out which part of the file to send */
+    long[] r = parseRange(range, b.size);
+    StringBuilder head = new StringBuilder();
+    if(r != null && r[0] < 0){
+      head.append("HTTP/1.1 416 Range Not Satisfiable\r\n");
+      head.append("Content-Range: bytes */");
+      head.append(b.size);
+      head.append("\r\n");
+      head.append(RAW_HEAD);
+      head.append("Content-Length: 0\r\n");
+      head.append("\r\n");
+      os.write(head.toString().getBytes());
+      return;
+    }
+    long first = r != null ? r[0] : 0;
+    long len = r != null ? r[1] - r[0] + 1 : b.size;
+    if(r != null){
+      head.append("HTTP/1.1 206 Partial Content\r\n");
+      head.append("Content-Range: bytes ");
+      head.append(r[0]);
+      head.append("-");
+      head.append(r[1]);
+      head.append("/");
+      head.append(b.size);
+      head.append("\r\n");
+    }else{
+      head.append("HTTP/1.1 200 OK\r\n");
+    }
+    head.append("Content-Type: ");
+    head.append(mimeType(peek));
+    head.append("\r\n");
+    head.append("Content-Length: ");
+    head.append(len);
+    head.append("\r\n");
+    head.append(RAW_HEAD);
+    head.append("\r\n");
+    os.write(head.toString().getBytes());
+    if(data != null){
+      os.write(data, (int)first, (int)len);
+    }else{
+      git.writeBlob(te.hash, os, first, len);
+    }
+  }
+
+  /**
+   * genArchive()
+   *
+   * Write a snapshot archive of a commit directly to the client. The archive
+   * of the current head is usually cached on disk and sent as is, otherwise
+   * the archive is generated as it is sent.
+   *
+   * @param os The output stream to write the archive to.
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param name The commit hash, branch, tag or HEAD, followed by the archive
+   * extension.
+   **/
+  private void genArchive(OutputStream os, String pre, String proj, String name) throws IOException{
+    /* Make sure the request params are valid */
+    Git git = proj != null ? repos.get(proj) : null;
+    String type = null;
+    if(name.endsWith("." + Archive.TYPE_ZIP)){
+      type = Archive.TYPE_ZIP;
+    }else if(name.endsWith("." + Archive.TYPE_TAR_GZ)){
+      type = Archive.TYPE_TAR_GZ;
+    }
+    Git.Commit c = null;
+    if(git != null && type != null){
+      c = git.revision(decode(name.substring(0, name.length() - type.length() - 1)));
+    }
+    if(c == null){
+      os.write((RAW_BAD + indexBad).getBytes());
+      return;
+    }
+    FileInputStream fis = Archive.open(git, c, type);
+    StringBuilder head = new StringBuilder();
+    head.append("HTTP/1.1 200 OK\r\n");
+    head.append("Content-Type: ");
+    head.append(type.equals(Archive.TYPE_ZIP) ? "application/zip" : "application/gzip");
+    head.append("\r\n");
+    head.append("Content-Disposition: attachment; filename=\"");
+    head.append(Archive.name(proj, c).replaceAll("[^A-Za-z0-9._-]", "_"));
+    head.append(".");
+    head.append(type);
+    head.append("\"\r\n");
+    if(fis != null){
+      head.append("Content-Length: ");
+      head.append(fis.getChannel().size());
+      head.append("\r\n");
+    }
+    head.append("\r\n");
+    os.write(head.toString().getBytes());
+    if(fis != null){
+      Archive.transfer(fis, os);
+    }else{
+      (new Archive(git, proj, c)).write(type, os);
+    }
+  }
+
+  /**
+   * parseRange()
+   *
+   * Parse a byte range header. Only a single range is supported, anything
+   * else is ignored and the whole file is served.
+   *
+   * @param range The range header value, can be NULL.
+   * @param size The size of the file the range applies to.
+   * @return The first and last byte of the range inclusive, NULL if the whole
+   * file should be served, otherwise negative values if the range cannot be
+   * satisfied.
+   **/
+  private static long[] parseRange(String range, long size){
+    if(range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0){
+      return null;
+    }
+    int split = range.indexOf('-');
+    if(split < 0){
+      return null;
+    }
+    String a = range.substring(6, split).trim();
+    String b = range.substring(split + 1).trim();
+    long first;
+    long last;
+    try{
+      if(a.length() <= 0){
+        /* Suffix range, the last N bytes */
+        long n = Long.parseLong(b);
+        if(n <= 0){
+          return new long[]{ -1, -1 };
+        }
+        first = Math.max(0, size - n);
+        last = size - 1;
+      }else{
+        first = Long.parseLong(a);
+        last = b.length() > 0 ? Long.parseLong(b) : size - 1;
+      }
+    }catch(NumberFormatException e){
+      return null;
+    }
+    if(first >= size){
+      return new long[]{ -1, -1 };
+    }
+    if(first < 0 || last < first){
+      return null;
+    }
+    return new long[]{ first, Math.min(last, size - 1) };
+  }
+
+  /**
+   * mimeType()
+   *
+   * Sniff the content type of a file from the start of its contents. Only a
+   * few well known binary formats are recognized, all text is served as
+   * plain text so that nothing in a repository is rendered as a page.
+   *
+   * @param head The start of the file.
+   * @return The content type.
+   **/
+  private static String mimeType(byte[] head){
+    for(int m = 0; m < RAW_MAGIC.length; m++){
+      byte[] magic = RAW_MAGIC[m];
+      int x = 0;
+      while(x < magic.length && x < head.length && head[x] == magic[x]){
+        x++;
+      }
+      if(x == magic.length){
+        return RAW_MAGIC_TYPES[m];
+      }
+    }
+    for(int x = 0; x < head.length && x < BLOB_BINARY_CHECK; x++){
+      if(head[x] == 0){
+        return "application/octet-stream";
+      }
+    }
+    return "text/plain; charset=utf-8";
+  }
+
+  /**
+   * genDiff()
+   *
+   * Generate the code difference for a given commit against its first
+   * parent. The difference is split into a section per file with an index of
+   * the changed files. Sections are shown inline until the page reaches its
+   * size budget, the rest are linked and only rendered once requested, so
+   * large commits stay quick to open.
+   *
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param commit The commit to display a summary for.
+   * @param section The file section to display alone, otherwise -1 for the
+   * index.
+   * @return The content.
+   **/
+  private String genDiff(String pre, String proj, String commit, int section) throws IOException{
+    /* Make sure the request params are valid */
+    if(
+      proj == null             ||
+      !repos.containsKey(proj) ||
+      commit == null           ||
+      !Git.validCommit(commit)
+    ){
+      return indexBad;
+    }
+    Git git = repos.get(proj);
+    Git.Commit c = git.commit(commit);
+    if(c == null){
+      return indexBad;
+    }
+    Git.Commit parent = c.parents.length > 0 ? git.commit(c.parents[0]) : null;
+    ArrayList<Git.Change> changes = git.changes(parent != null ? parent.tree : null, c.tree);
+    if(section >= changes.size()){
+      return indexBad;
+    }
+    /* Generate pages navigation */
+    StringBuilder diffHTML = new StringBuilder();
+    diffHTML.append("<nav class=\"sub\">");
+    diffHTML.append("<a href=\"");
+    diffHTML.append(  pre);
+    diffHTML.append(  "/");
+    diffHTML.append(  proj);
+    diffHTML.append(  "/commit/");
+    diffHTML.append(  commit);
+    diffHTML.append(  "\">Summary</a> ");
+    diffHTML.append("<a href=\"");
+    diffHTML.append(  pre);
+    diffHTML.append(  "/");
+    diffHTML.append(  proj);
+    diffHTML.append(  "/diff/");
+    diffHTML.append(  commit);
+    diffHTML.append(  "\">Diff</a>");
+    /* Step between the files of a single section */
+    if(section >= 0){
+      if(section > 0){
+        diffHTML.append(" <a href=\"");
+        diffHTML.append(  pre);
+        diffHTML.append(  "/");
+        diffHTML.append(  proj);
+        diffHTML.append(  "/diff/");
+        diffHTML.append(  commit);
+        diffHTML.append(  "/");
+        diffHTML.append(  section - 1);
+        diffHTML.append(  "\">Previous</a>");
+      }
+      if(section + 1 < changes.size()){
+        diffHTML.append(" <a href=\"");
+        diffHTML.append(  pre);
+        diffHTML.append(  "/");
+        diffHTML.append(  proj);
+        diffHTML.append(  "/diff/");
+        diffHTML.append(  commit);
+        diffHTML.append(  "/");
+        diffHTML.append(  section + 1);
+        diffHTML.append(  "\">Next</a>");
+      }
+    }
+    diffHTML.append("</nav>");
+    if(section >= 0){
+      diffHTML.append(genDiffSection(git, proj, commit, changes.get(section), section));
+      return diffHTML.toString();
+    }
+    /* Render sections until the page budget is spent */
+    String[] inline = new String[changes.size()];
+    int size = 0;
+    for(int x = 0; x < changes.size() && size < DIFF_INLINE_MAX; x++){
+      inline[x] = genDiffSection(git, proj, commit, changes.get(x), x);
+      size += inline[x].length();
+    }
+    /* Generate the file index */
+    diffHTML.append("<table>");
+    for(int x = 0; x < changes.size(); x++){
+      Git.Change ch = changes.get(x);
+      diffHTML.append("<tr><td>");
+      diffHTML.append(  ch.before == null ? "added" : ch.after == null ? "deleted" : "modified");
+      diffHTML.append("</td><td><a href=\"");
+      if(inline[x] != null){
+        diffHTML.append("#f");
+      }else{
+        diffHTML.append(pre);
+        diffHTML.append("/");
+        diffHTML.append(proj);
+        diffHTML.append("/diff/");
+        diffHTML.append(commit);
+        diffHTML.append("/");
+      }
+      diffHTML.append(  x);
+      diffHTML.append(  "\">");
+      sanitize(ch.path, diffHTML);
+      diffHTML.append("</a></td></tr>");
+    }
+    diffHTML.append("</table>");
+    for(int x = 0; x < inline.length && inline[x] != null; x++){
+      diffHTML.append(inline[x]);
+    }
+    if(changes.size() > 0 && inline[changes.size() - 1] == null){
+      diffHTML.append("<p>Further files are linked from the index above.</p>");
+    }
+    return diffHTML.toString();
+  }
+
+  /**
+   * genDiffSection()
+   *
+   * Generate the difference of a single file of a commit, caching the result
+   * as the commit can never change.
+   *
+   * @param git The repository the commit belongs to.
+   * @param proj The project name to be acted upon.
+   * @param commit The commit hash.
+   * @param c The change to the file.
+   * @param section The index of the file within the commit.
+   * @return The section content.
+   **/
+  private String genDiffSection(Git git, String proj, String commit, Git.Change c, int section){
+    String key = proj + "/" + commit + "/" + section;
+    String body;
+    synchronized(diffCache){
+      body = diffCache.get(key);
+    }
+    if(body == null){
+      StringBuilder diff = new StringBuilder();
+      genChange(diff, git, c);
+      /* Cut at a line end so that no markup is left open */
+      if(diff.length() > DIFF_MAX){
+        diff.setLength(diff.lastIndexOf("\n", DIFF_MAX) + 1);
+        diff.append("[-- DIFF TOO LONG --]");
+      }
+      StringBuilder sectionHTML = new StringBuilder(diff.length() + 32);
+      sectionHTML.append("<pre id=\"f");
+      sectionHTML.append(  section);
+      sectionHTML.append(  "\"><code>");
+      sectionHTML.append(  diff);
+      sectionHTML.append("</code></pre>");
+      body = sectionHTML.toString();
+      synchronized(diffCache){
+        if(diffCache.size() > cacheMax){
+          diffCache.clear();
+        }
+        diffCache.put(key, body);
+      }
+    }
+    return body;
+  }
+
+  /**
+   * genCompare()
+   *
+   * Generate the commits and the combined difference between two revisions.
+   * Only subtrees that differ are read, and the result is cached by the pair
+   * of commits so that names resolving to the same commits share it.
+   *
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param range The revisions to compare, separated by two full stops.
+   * @return The content.
+   **/
+  private String genCompare(String pre, String proj, String range) throws IOException{
+    /* Make sure the request params are valid */
+    int split = range.indexOf("..");
+    if(proj == null || !repos.containsKey(proj) || split < 0){
+      return indexBad;
+    }
+    Git git = repos.get(proj);
+    Git.Commit a = git.revision(range.substring(0, split));
+    Git.Commit b = git.revision(range.substring(split + 2));
+    if(a == null || b == null){
+      return indexBad;
+    }
+    String key = proj + "/" + a.hash + ".." + b.hash;
+    String body;
+    synchronized(compareCache){
+      body = compareCache.get(key);
+    }
+    if(body == null){
+      Git.Commit[] logs = git.range(a.hash, b.hash, COMPARE_MAX);
+      ArrayList<Git.Change> changes = git.changes(a.tree, b.tree);
+      StringBuilder compareHTML = new StringBuilder();
+      compareHTML.append("<nav class=\"sub\">");
+      compareHTML.append(  "<a href=\"");
+      compareHTML.append(    pre);
+      compareHTML.append(    "/");
+      compareHTML.append(    proj);
+      compareHTML.append(    "/commit/");
+      compareHTML.append(    a.hash);
+      compareHTML.append(    "\">");
+      compareHTML.append(    a.hash.substring(0, 7));
+      compareHTML.append(  "</a>..<a href=\"");
+      compareHTML.append(    pre);
+      compareHTML.append(    "/");
+      compareHTML.append(    proj);
+      compareHTML.append(    "/commit/");
+      compareHTML.append(    b.hash);
+      compareHTML.append(    "\">");
+      compareHTML.append(    b.hash.substring(0, 7));
+      compareHTML.append(  "</a>: ");
+      compareHTML.append(  logs.length);
+      compareHTML.append(  logs.length >= COMPARE_MAX ? "+" : "");
+      compareHTML.append(  " commits, ");
+      compareHTML.append(  changes.size());
+      compareHTML.append(  " files changed");
+      compareHTML.append("</nav>");
+      genLog(compareHTML, pre, proj, logs);
+      compareHTML.append("<pre><code>");
+      int diffStart = compareHTML.length();
+      for(int x = 0; x < changes.size(); x++){
+        if(compareHTML.length() - diffStart >= DIFF_MAX){
+          compareHTML.append("\n[-- DIFF TOO LONG --]");
+          break;
+        }
+        genChange(compareHTML, git, changes.get(x));
+      }
+      compareHTML.append("</code></pre>");
+      body = compareHTML.toString();
+      synchronized(compareCache){
+        if(compareCache.size() > cacheMax){
+          compareCache.clear();
+        }
+        compareCache.put(key, body);
+      }
+    }
+    return body;
+  }
+
+  /**
+   * genChange()
+   *
+   * Write the difference of a single file in unified format as HTML, with
+   * the lines of both sides highlighted.
+   *
+   * @param diffHTML The buffer to write the difference to.
+   * @param git The repository the file belongs to.
+   * @param c The change to the file.
+   **/
+  private static void genChange(StringBuilder diffHTML, Git git, Git.Change c){
+    StringBuilder diff = new StringBuilder();
+    diff.append("diff --git a/");
+    diff.append(c.path);
+    diff.append(" b/");
+    diff.append(c.path);
+    diff.append("\n");
+    if(c.before == null){
+      diff.append("new file mode ");
+      diff.append(String.format("%06o", c.after.mode));
+      diff.append("\n");
+    }else if(c.after == null){
+      diff.append("deleted file mode ");
+      diff.append(String.format("%06o", c.before.mode));
+      diff.append("\n");
+    }else if(c.before.mode != c.after.mode){
+      diff.append("old mode ");
+      diff.append(String.format("%06o", c.before.mode));
+      diff.append("\nnew mode ");
+      diff.append(String.format("%06o", c.after.mode));
+      diff.append("\n");
+    }
+    if(c.before != null && c.after != null && c.before.hash.equals(c.after.hash)){
+      sanitize(diff.toString(), diffHTML);
+      return;
+    }
+    String a = diffText(git, c.before);
+    String b = diffText(git, c.after);
+    if(a == null || b == null){
+      diff.append("Binary or large files differ\n");
+      sanitize(diff.toString(), diffHTML);
+      return;
+    }
+    diff.append(c.before != null ? "--- a/" + c.path : "--- /dev/null");
+    diff.append("\n");
+    diff.append(c.after != null ? "+++ b/" + c.path : "+++ /dev/null");
+    diff.append("\n");
+    sanitize(diff.toString(), diffHTML);
+    Diff.unified(
+      diffHTML,
+      Diff.lines(a),
+      Diff.lines(b),
+      DIFF_CONTEXT,
+      Highlight.html(diffBlob(c.before), c.path, a),
+      Highlight.html(diffBlob(c.after), c.path, b)
+    );
+  }
+
+  /**
+   * diffText()
+   *
+   * Read the text of one side of a changed file.
+   *
+   * @param git The repository the file belongs to.
+   * @param te The tree entry of the file, otherwise NULL if absent.
+   * @return The text, otherwise NULL if binary or too large.
+   **/
+  private static String diffText(Git git, Git.TreeEntry te){
+    if(te == null){
+      return "";
+    }
+    /* Submodules are shown by the commit they point to */
+    if(diffBlob(te) == null){
+      return "Subproject commit " + te.hash + "\n";
+    }
+    Git.Blob b = git.blob(te.hash);
+    byte[] data = b != null && b.size <= DIFF_FILE_MAX ? git.readBlob(te.hash, DIFF_FILE_MAX) : null;
+    if(data == null){
+      return null;
+    }
+    for(int x = 0; x < data.length && x < BLOB_BINARY_CHECK; x++){
+      if(data[x] == 0){
+        return null;
+      }
+    }
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * diffBlob()
+   *
+   * Get the blob hash of one side of a changed file.
+   *
+   * @param te The tree entry of the file, otherwise NULL if absent.
+   * @return The blob hash, otherwise NULL if absent or a submodule.
+   **/
+  private static String diffBlob(Git.TreeEntry te){
+    if(te == null || (te.mode & Git.TreeEntry.MODE_TYPE) == Git.TreeEntry.MODE_MODULE){
+      return null;
+    }
+    return te.hash;
+  }
+
+  /**
+   * sanitize()
+   *
+   * Ensure that we sanitize any Strings from Git to not contain HTML. Strings
+   * that don't need escaping are returned as they are without copying.
+   *
+   * @param s The string to be sanitized.
+   * @return The sanitized string.
+   **/
+  public static String sanitize(String s){
+    /* Fast path, look for the first character that needs escaping */
+    int x = 0;
+    int len = s.length();
+    while(x < len){
+      char c = s.charAt(x);
+      if(c <= '>' && (c == '&' || c == '<' || c == '>' || c == '"' || c == '\'')){
+        break;
+      }
+      x++;
+    }
+    if(x >= len){
+      return s;
+    }
+    StringBuilder res = new StringBuilder(len + 16);
+    res.append(s, 0, x);
+    sanitize(s, x, res);
+    return res.toString();
+  }
+
+  /**
+   * sanitize()
+   *
+   * Sanitize a String straight into an existing buffer, avoiding an
+   * intermediate copy for large Strings.
+   *
+   * @param s The string to be sanitized.
+   * @param res The buffer to append the sanitized string to.
+   **/
+  public static void sanitize(String s, StringBuilder res){
+    sanitize(s, 0, res);
+  }
+
+  /**
+   * sanitize()
+   *
+   * Sanitize the remainder of a String into an existing buffer.
+   *
+   * @param s The string to be sanitized.
+   * @param x The offset to start sanitizing from.
+   * @param res The buffer to append the sanitized string to.
+   **/
+  private static void sanitize(String s, int x, StringBuilder res){
+    int i = x;
+    int len = s.length();
+    /* Search and replace special characters */
+    for(; x < len; x++){
+      char c = s.charAt(x);
+      /* Everything we escape is at or below '>', skip the rest quickly */
+      if(c > '>'){
+        continue;
+      }
+      String rep;
+      switch(c){
+        case '&' :
+          rep = "&amp;";
+          break;
+        case '<' :
+          rep = "&lt;";
+          break;
+        case '>' :
+          rep = "&gt;";
+          break;
+        case '"' :
+          rep = "&quot;";
+          break;
+        case '\'' :
+          rep = "&#39;";
+          break;
+        default :
+          continue;
+      }
+      res.append(s, i, x);
+      res.append(rep);
+      i = x + 1;
+    }
+    /* Compose remaining parts of string */
+    res.append(s, i, len);
+  }
+
+  /**
+   * unsanitize()
+   *
+   * Reverse sanitize(), for values stored sanitized that are needed as they
+   * were originally.
+   *
+   * @param s The sanitized string.
+   * @return The original string.
+   **/
+  public static String unsanitize(String s){
+    if(s == null || s.indexOf('&') < 0){
+      return s;
+    }
+    return s
+      .replace("&lt;", "<")
+      .replace("&gt;", ">")
+      .replace("&quot;", "\"")
+      .replace("&#39;", "'")
+      .replace("&amp;", "&");
+  }
+
+  /**
+   * shorten()
+   *
+   * Shorten a sanitized String for display, never cutting an escaped
+   * character in half.
+   *
+   * @param s The sanitized string, may be null.
+   * @param max The length above which the string is shortened.
+   * @return The string, shortened with a trailing ".." if too long.
+   **/
+  public static String shorten(String s, int max){
+    if(s == null || s.length() <= max){
+      return s;
+    }
+    int cut = max - 2;
+    /* Move the cut before any escaped character it falls inside */
+    int amp = s.lastIndexOf('&', cut - 1);
+    if(amp >= 0 && s.indexOf(';', amp) >= cut){
+      cut = amp;
+    }
+    return s.substring(0, cut) + "..";
+  }
+
+  /**
+   * bench()
+   *
+   * Benchmark the sanitizer against large diff-like Strings, both with and
+   * without characters to be escaped. The throughput of each case is printed
+   * to the standard out.
+   **/
+  public static void bench(){
+    /* Build a large diff, roughly the size of a big commit */
+    StringBuilder plain = new StringBuilder();
+    StringBuilder code = new StringBuilder();
+    for(int x = 0; plain.length() < 8 * 1024 * 1024; x++){
+      plain.append("+    int value").append(x).append(" = compute(value, 42); // update\n");
+      code.append("+    if(a < b && c > d){ s = \"<tag attr='").append(x).append("'>\"; }\n");
+    }
+    String[] names = new String[]{ "plain", "escaped" };
+    String[] input = new String[]{ plain.toString(), code.toString() };
+    for(int t = 0; t < input.length; t++){
+      long best = Long.MAX_VALUE;
+      int out = 0;
+      for(int r = 0; r < 20; r++){
+        long start = System.nanoTime();
+        StringBuilder sb = new StringBuilder(input[t].length() * 2);
+        sanitize(input[t], sb);
+        out += sb.length() + sanitize(input[t]).length();
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      System.out.println(
+        "  " + names[t] + ": " + (input[t].length() >> 20) + "MB x2 in " +
+        (best / 1000000) + "ms, " +
+        ((input[t].length() * 2L * 1000000000L / Math.max(best, 1)) >> 20) + "MB/s" +
+        " (" + out + ")"
+      );
+    }
+  }
+
+  /**
+   * genApi()
+   *
+   * Generate a JSON response describing the repositories, a page of the log,
+   * a commit or a tree.
+   *
+   * @param paths The request path split by forward slash, starting with the
+   * API prefix.
+   * @param query The query string of the request.
+   * @return The content, otherwise NULL if the repository is still loading.
+   **/
+  private String genApi(String[] paths, String query){
+    StringBuilder json = new StringBuilder();
+    JSON.Writer w = new JSON.Writer(json);
+    /* List the repositories */
+    if(paths.length == 2){
+      json.append(JSON_HEAD);
+      w.obj(null).arr("repos");
+      for(String key : repos.keySet()){
+        w.str(null, key);
+      }
+      w.end().end();
+      return json.toString();
+    }
+    Git git = repos.get(paths[2]);
+    if(git == null){
+      return JSON_BAD + "{\"error\":\"not found\"}";
+    }
+    git.activate();
+    if(!git.ready()){
+      return null;
+    }
+    String type = paths.length >= 4 ? paths[3] : "";
+    switch(type){
+      case "log" :
+        if(paths.length != 4){
+          break;
+        }
+        String ref = param(query, "ref");
+        String fullRef = ref != null ? "refs/" + ref : "HEAD";
+        int page = 0;
+        try{
+          page = param(query, "page") != null ? Integer.parseInt(param(query, "page")) : 0;
+        }catch(NumberFormatException e){
+          /* Fail silently */
+          page = 0;
+        }
+        int num = git.numCommits(fullRef);
+        if(page < 0 || (ref != null && num <= 0)){
+          break;
+        }
+        json.append(JSON_HEAD);
+        w.obj(null)
+          .str("ref", fullRef)
+          .num("page", page)
+          .num("pages", num > 0 ? (num - 1) / Git.pageSize() + 1 : 0)
+          .arr("commits");
+        Git.Commit[] logs = git.log(fullRef, page);
+        for(int x = 0; x < logs.length; x++){
+          if(logs[x] != null){
+            apiCommit(w, logs[x]);
+          }
+        }
+        w.end().end();
+        return json.toString();
+      case "commit" :
+        if(paths.length != 5){
+          break;
+        }
+        Git.Commit c = git.commit(paths[4]);
+        if(c == null){
+          break;
+        }
+        json.append(JSON_HEAD);
+        apiCommit(w, c);
+        return json.toString();
+      case "tree" :
+        if(paths.length < 5 || !Git.validCommit(paths[4])){
+          break;
+        }
+        Git.TreeEntry te = git.resolve(paths[4], decode(join(paths, 5)));
+        Git.Tree tree = te != null ? git.tree(te.hash) : null;
+        if(tree == null){
+          break;
+        }
+        json.append(JSON_HEAD);
+        w.obj(null)
+          .str("hash", tree.hash)
+          .arr("entries");
+        for(int x = 0; x < tree.entries.length; x++){
+          Git.TreeEntry e = tree.entries[x];
+          String kind;
+          switch(e.mode & Git.TreeEntry.MODE_TYPE){
+            case Git.TreeEntry.MODE_TREE :
+              kind = "tree";
+              break;
+            case Git.TreeEntry.MODE_MODULE :
+              kind = "commit";
+              break;
+            case Git.TreeEntry.MODE_LINK :
+              kind = "link";
+              break;
+            default :
+              kind = "blob";
+              break;
+          }
+          w.obj(null)
+            .str("mode", String.format("%06o", e.mode))
+            .str("type", kind)
+            .str("name", e.name)
+            .str("hash", e.hash);
+          Git.Blob b = git.blob(e.hash);
+          if(b != null){
+            w.num("size", b.size);
+          }
+          w.end();
+        }
+        w.end().end();
+        return json.toString();
+    }
+    return JSON_BAD + "{\"error\":\"not found\"}";
+  }
+
+  /**
+   * apiCommit()
+   *
+   * Write the details of a commit as a JSON object.
+   *
+   * @param w The JSON writer.
+   * @param c The commit to be written.
+   **/
+  private static void apiCommit(JSON.Writer w, Git.Commit c){
+    w.obj(null)
+      .str("hash", c.hash)
+      .str("tree", c.tree)
+      .arr("parents");
+    for(int x = 0; x < c.parents.length; x++){
+      w.str(null, c.parents[x]);
+    }
+    w.end()
+      .obj("author")
+        .str("name", unsanitize(c.author))
+        .str("email", unsanitize(c.author_email))
+        .str("date", formatDate(c.author_date, DATE_ATOM))
+      .end()
+      .obj("committer")
+        .str("name", unsanitize(c.commit))
+        .str("email", unsanitize(c.commit_email))
+        .str("date", formatDate(c.commit_date, DATE_ATOM))
+      .end()
+      .str("subject", unsanitize(c.subject))
+    .end();
+  }
+
+  /**
+   * param()
+   *
+   * Get the value of a parameter from a query string.
+   *
+   * @param query The query string, without the leading question mark.
+   * @param key The name of the parameter.
+   * @return The decoded value, otherwise NULL if not present.
+   **/
+  private static String param(String query, String key){
+    String[] pairs = query.split("&");
+    for(int x = 0; x < pairs.length; x++){
+      int eq = pairs[x].indexOf('=');
+      String k = eq >= 0 ? pairs[x].substring(0, eq) : pairs[x];
+      if(k.equals(key)){
+        return eq >= 0 ? decode(pairs[x].substring(eq + 1).replace('+', ' ')) : "";
+      }
+    }
+    return null;
+  }
+
+  /**
+   * genFeed()
+   *
+   * Generate an RSS or Atom feed for a given project. Each item is rendered
+   * once per commit and cached, so a feed is just assembled from fragments.
+   *
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param atom True for an Atom feed, otherwise RSS.
+   * @param sel The reference to follow, relative to "refs/", optionally
+   * followed by "/-/" and a path to limit the feed to. An empty String
+   * follows HEAD, "-/<path>" limits HEAD to a path.
+   * @return The content.
+   **/
+  private String genFeed(String pre, String proj, boolean atom, String sel) throws IOException{
     /* Make sure the request params are valid */
     if(proj == null || !repos.containsKey(proj)){
       return "";
     }
+    Git git = repos.get(proj);
+    /* Split the selection into a reference and a path */
+    String ref = sel.length() > 0 ? sel : null;
+    String path = null;
+    if(sel.equals("-") || sel.startsWith("-/")){
+      ref = null;
+      path = sel.substring(1);
+    }else if(sel.indexOf("/-/") >= 0){
+      ref = sel.substring(0, sel.indexOf("/-/"));
+      path = sel.substring(sel.indexOf("/-/") + 2);
+    }
+    if(path != null){
+      /* Normalise the path as it is stored in the index */
+      String[] parts = decode(path).split("/");
+      path = "";
+      for(int x = 0; x < parts.length; x++){
+        if(parts[x].length() > 0){
+          path += (path.length() > 0 ? "/" : "") + parts[x];
+        }
+      }
+      path = path.length() > 0 ? path : null;
+    }
+    String fullRef = ref != null ? "refs/" + ref : "HEAD";
+    /* Collect the newest commits, those changing the path from its index */
+    ArrayList<Git.Commit> items = new ArrayList<Git.Commit>();
+    if(path != null){
+      /* The index covers all references, most of it may need skipping */
+      Git.Commit[] logs = git.pathLog(path);
+      for(int x = 0; x < logs.length && items.size() < feedLength; x++){
+        if(logs[x] != null && git.reachable(fullRef, logs[x])){
+          items.add(logs[x]);
+        }
+      }
+    }else{
+      int num = git.numCommits(fullRef);
+      for(int p = 0; p * Git.pageSize() < num && items.size() < feedLength; p++){
+        Git.Commit[] logs = git.log(fullRef, p);
+        for(int x = 0; x < logs.length && items.size() < feedLength; x++){
+          if(logs[x] != null){
+            items.add(logs[x]);
+          }
+        }
+      }
+    }
+    String link = url + pre + "/" + proj;
+    String title = sanitize(proj) +
+      (ref != null ? " " + sanitize(ref) : "") +
+      (path != null ? " /" + sanitize(path) : "");
     StringBuilder xml = new StringBuilder();
     /* Send the header early */
-    xml.append(XML_HEAD);
-    /* Generate RSS headers */
-    xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?><rss version=\"2.0\"><channel>");
-    xml.append("<title>");
-    xml.append(  proj);
-    xml.append("</title>");
-    xml.append("<description>RSS feed for commits to ");
-    xml.append(  proj);
-    xml.append(".</description>");
-    xml.append("<link>");
-      xml.append(url);
-      xml.append(pre);
-      xml.append("/");
-      xml.append(proj);
-    xml.append("</link>");
-    Git.Commit[] logs = repos.get(proj).log(0);
-    for(int x = logs.length - 1; x >= 0; x--){
-      if(logs[x] != null){
-        /* Reduce length of commit message */
-        String subject = logs[x].subject;
-        if(subject != null && subject.length() > 32){
-          subject = subject.substring(0, 30) + "..";
-        }
-        /* Write the item entry */
-        xml.append("<item>");
-        xml.append(  "<title>");
-        xml.append(    subject);
-        xml.append(  "</title>");
-        xml.append(  "<author>");
-        xml.append(    logs[x].author);
-        xml.append(  "</author>");
-        xml.append(  "<pubDate>");
-        xml.append(    intToDay(logs[x].author_date.getDay()));
-        xml.append(    ", ");
-        xml.append(    logs[x].author_date.toGMTString());
-        xml.append(  "</pubDate>");
-        xml.append(  "<description>");
-        xml.append(    logs[x].subject);
-        xml.append(  "</description>");
-        xml.append(  "<link>");
-        xml.append(    url);
-        xml.append(    pre);
-        xml.append(    "/");
-        xml.append(    proj);
-        xml.append(    "/commit/");
-        xml.append(    logs[x].hash);
-        xml.append(  "</link>");
-        xml.append("</item>");
-      }
-    }
-    /* Generate RSS footers */
-    xml.append("</channel></rss>");
+    xml.append(atom ? ATOM_HEAD : XML_HEAD);
+    if(atom){
+      xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>");
+      xml.append("<feed xmlns=\"http://www.w3.org/2005/Atom\">");
+      xml.append("<title>");
+      xml.append(  title);
+      xml.append("</title>");
+      xml.append("<id>");
+      xml.append(  link);
+      xml.append(  "/atom/");
+      xml.append(  sanitize(sel));
+      xml.append("</id>");
+      xml.append("<link href=\"");
+      xml.append(  link);
+      xml.append("\"/>");
+      xml.append("<updated>");
+      xml.append(  formatDate(items.size() > 0 ? items.get(0).commit_date : new Date(0), DATE_ATOM));
+      xml.append("</updated>");
+    }else{
+      xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?><rss version=\"2.0\"><channel>");
+      xml.append("<title>");
+      xml.append(  title);
+      xml.append("</title>");
+      xml.append("<description>RSS feed for commits to ");
+      xml.append(  title);
+      xml.append(".</description>");
+      xml.append("<link>");
+      xml.append(  link);
+      xml.append("</link>");
+    }
+    for(int x = 0; x < items.size(); x++){
+      xml.append(genFeedItem(pre, proj, atom, items.get(x)));
+    }
+    xml.append(atom ? "</feed>" : "</channel></rss>");
     return xml.toString();
   }
 
   /**
-   * intToDay()
+   * genActivityFeed()
+   *
+   * Generate an RSS or Atom feed of the newest commits across all
+   * repositories, assembled from the same cached items as the feed of each
+   * repository.
    *
-   * Helper functions for the RSS feed.
+   * @param pre Set the pre-string for any links.
+   * @param atom True for an Atom feed, otherwise RSS.
+   * @return The content.
    **/
-  private static String intToDay(int day){
-    switch(day){
-      case 0 :
-        return "Sun";
-      case 1 :
-        return "Mon";
-      case 2 :
-        return "Tue";
-      case 3 :
-        return "Wed";
-      case 4 :
-        return "Thu";
-      case 5 :
-        return "Fri";
-      case 6 :
-        return "Sat";
-      case 7 :
-        return "Sun";
-      default :
-        return "";
+  private String genActivityFeed(String pre, boolean atom){
+    Activity[] items = activity();
+    String link = url + pre + "/";
+    StringBuilder xml = new StringBuilder();
+    xml.append(atom ? ATOM_HEAD : XML_HEAD);
+    if(atom){
+      xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>");
+      xml.append("<feed xmlns=\"http://www.w3.org/2005/Atom\">");
+      xml.append("<title>");
+      xml.append(  title);
+      xml.append("</title>");
+      xml.append("<id>");
+      xml.append(  link);
+      xml.append(  "atom");
+      xml.append("</id>");
+      xml.append("<link href=\"");
+      xml.append(  link);
+      xml.append("\"/>");
+      xml.append("<updated>");
+      xml.append(  formatDate(items.length > 0 ? items[0].commit.commit_date : new Date(0), DATE_ATOM));
+      xml.append("</updated>");
+    }else{
+      xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?><rss version=\"2.0\"><channel>");
+      xml.append("<title>");
+      xml.append(  title);
+      xml.append("</title>");
+      xml.append("<description>RSS feed for commits to all repositories of ");
+      xml.append(  title);
+      xml.append(".</description>");
+      xml.append("<link>");
+      xml.append(  link);
+      xml.append("</link>");
+    }
+    for(int x = 0; x < items.length; x++){
+      xml.append(genFeedItem(pre, items[x].proj, atom, items[x].commit));
+    }
+    xml.append(atom ? "</feed>" : "</channel></rss>");
+    return xml.toString();
+  }
+
+  /**
+   * genFeedItem()
+   *
+   * Generate a single feed item for a commit. Commits never change, so the
+   * item is cached for as long as the cache allows.
+   *
+   * @param pre Set the pre-string for any links.
+   * @param proj The project name to be acted upon.
+   * @param atom True for an Atom entry, otherwise an RSS item.
+   * @param c The commit to be described.
+   * @return The content.
+   **/
+  private String genFeedItem(String pre, String proj, boolean atom, Git.Commit c){
+    String key = proj + (atom ? "/atom/" : "/rss/") + c.hash;
+    String item = null;
+    synchronized(feedCache){
+      item = feedCache.get(key);
     }
+    if(item != null){
+      return item;
+    }
+    String link = url + pre + "/" + proj + "/commit/" + c.hash;
+    StringBuilder xml = new StringBuilder();
+    if(atom){
+      xml.append("<entry>");
+      xml.append(  "<title>");
+      xml.append(    c.subject);
+      xml.append(  "</title>");
+      xml.append(  "<id>");
+      xml.append(    link);
+      xml.append(  "</id>");
+      xml.append(  "<link href=\"");
+      xml.append(    link);
+      xml.append(  "\"/>");
+      xml.append(  "<updated>");
+      xml.append(    formatDate(c.commit_date, DATE_ATOM));
+      xml.append(  "</updated>");
+      xml.append(  "<author><name>");
+      xml.append(    c.author);
+      xml.append(  "</name><email>");
+      xml.append(    c.author_email);
+      xml.append(  "</email></author>");
+      xml.append(  "<summary>");
+      xml.append(    c.subject);
+      xml.append(  "</summary>");
+      xml.append("</entry>");
+    }else{
+      xml.append("<item>");
+      xml.append(  "<title>");
+      xml.append(    c.subject);
+      xml.append(  "</title>");
+      xml.append(  "<author>");
+      xml.append(    c.author_email);
+      xml.append(    " (");
+      xml.append(    c.author);
+      xml.append(    ")");
+      xml.append(  "</author>");
+      xml.append(  "<pubDate>");
+      xml.append(    formatDate(c.commit_date, DATE_RSS));
+      xml.append(  "</pubDate>");
+      xml.append(  "<description>");
+      xml.append(    c.subject);
+      xml.append(  "</description>");
+      xml.append(  "<link>");
+      xml.append(    link);
+      xml.append(  "</link>");
+      xml.append(  "<guid>");
+      xml.append(    link);
+      xml.append(  "</guid>");
+      xml.append("</item>");
+    }
+    item = xml.toString();
+    synchronized(feedCache){
+      if(feedCache.size() > cacheMax){
+        feedCache.clear();
+      }
+      feedCache.put(key, item);
+    }
+    return item;
+  }
+
+  /**
+   * formatDate()
+   *
+   * Format a date in UTC for use in a feed.
+   *
+   * @param d The date to be formatted.
+   * @param format The date format, one of the DATE_* formats.
+   * @return The formatted date.
+   **/
+  private static String formatDate(Date d, String format){
+    SimpleDateFormat sdf = new SimpleDateFormat(format, Locale.US);
+    sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return sdf.format(d);
   }
 }
@@ -0,0 +1,348 @@
+package b.gp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Search.java
+ *
+ * An inverted index from keys, such as the words of a commit message or the
+ * paths a commit changed, to commits. Each commit is given a position in the
+ * order it is added and positions never change, so postings only ever grow at
+ * the end and are kept as delta encoded variable length integers. Adding the
+ * commits of a refresh only costs the new commits.
+ **/
+public class Search{
+  /**
+   * Postings.Search.java
+   *
+   * The ascending positions of the commits indexed under a key.
+   **/
+  private static class Postings{
+    public byte[] data = new byte[POSTINGS_INIT];
+    public int len = 0;
+    public int count = 0;
+    public int last = -1;
+
+    /**
+     * add()
+     *
+     * Append a position, ignoring repeats of the last position.
+     *
+     * @param pos The position, must not be lower than the last added.
+     **/
+    public void add(int pos){
+      if(pos == last){
+        return;
+      }
+      if(len + VARINT_MAX > data.length){
+        data = Arrays.copyOf(data, data.length * 2);
+      }
+      int delta = pos - last;
+      while(delta >= 0x80){
+        data[len++] = (byte)((delta & 0x7F) | 0x80);
+        delta >>>= 7;
+      }
+      data[len++] = (byte)delta;
+      last = pos;
+      ++count;
+    }
+
+    /**
+     * decode()
+     *
+     * Expand the positions.
+     *
+     * @return The ascending positions.
+     **/
+    public int[] decode(){
+      int[] res = new int[count];
+      int pos = -1;
+      int ptr = 0;
+      for(int x = 0; x < count; x++){
+        int delta = 0;
+        int shift = 0;
+        byte b;
+        do{
+          b = data[ptr++];
+          delta |= (b & 0x7F) << shift;
+          shift += 7;
+        }while((b & 0x80) != 0);
+        pos += delta;
+        res[x] = pos;
+      }
+      return res;
+    }
+  }
+
+  private static final int POSTINGS_INIT = 4;
+  private static final int TOKEN_MIN = 2;
+  private static final int TOKEN_MAX = 32;
+  private static final int VARINT_MAX = 5;
+
+  private ArrayList<String> hashes;
+  private HashSet<String> indexed;
+  private HashMap<String, Postings> index;
+
+  /**
+   * Search()
+   *
+   * Initialize an empty index.
+   **/
+  public Search(){
+    hashes = new ArrayList<String>();
+    indexed = new HashSet<String>();
+    index = new HashMap<String, Postings>();
+  }
+
+  /**
+   * contains()
+   *
+   * Check whether a commit has already been indexed.
+   *
+   * @param hash The commit hash.
+   * @return True if indexed, otherwise false.
+   **/
+  public synchronized boolean contains(String hash){
+    return indexed.contains(hash);
+  }
+
+  /**
+   * size()
+   *
+   * Get the number of commits indexed.
+   *
+   * @return The number of commits.
+   **/
+  public synchronized int size(){
+    return hashes.size();
+  }
+
+  /**
+   * add()
+   *
+   * Index a commit message. Commits should be added oldest first, so that
+   * results can be returned newest first.
+   *
+   * @param hash The commit hash.
+   * @param message The raw commit message.
+   **/
+  public void add(String hash, String message){
+    addKeys(hash, tokens(message));
+  }
+
+  /**
+   * addKeys()
+   *
+   * Index a commit under the given keys. Commits should be added oldest
+   * first, so that results can be returned newest first.
+   *
+   * @param hash The commit hash.
+   * @param keys The keys the commit should be found by.
+   **/
+  public synchronized void addKeys(String hash, String[] keys){
+    if(indexed.contains(hash)){
+      return;
+    }
+    int pos = hashes.size();
+    hashes.add(hash);
+    indexed.add(hash);
+    for(int x = 0; x < keys.length; x++){
+      Postings p = index.get(keys[x]);
+      if(p == null){
+        p = new Postings();
+        index.put(keys[x], p);
+      }
+      p.add(pos);
+    }
+  }
+
+  /**
+   * count()
+   *
+   * Get the number of commits indexed under a key.
+   *
+   * @param key The key to be looked up.
+   * @return The number of commits.
+   **/
+  public synchronized int count(String key){
+    Postings p = index.get(key);
+    return p != null ? p.count : 0;
+  }
+
+  /**
+   * lookup()
+   *
+   * Get a range of the commits indexed under a key.
+   *
+   * @param key The key to be looked up.
+   * @param start The number of newest commits to skip.
+   * @param max The maximum number of results.
+   * @return The commit hashes, newest first.
+   **/
+  public synchronized String[] lookup(String key, int start, int max){
+    Postings p = index.get(key);
+    if(p == null || start < 0 || start >= p.count){
+      return new String[0];
+    }
+    int[] pos = p.decode();
+    String[] hs = new String[Math.min(pos.length - start, max)];
+    for(int x = 0; x < hs.length; x++){
+      hs[x] = hashes.get(pos[pos.length - 1 - start - x]);
+    }
+    return hs;
+  }
+
+  /**
+   * find()
+   *
+   * Find the commits whose message contains every token of the query.
+   *
+   * @param query The search query.
+   * @param max The maximum number of results.
+   * @return The matching commit hashes, newest first.
+   **/
+  public synchronized String[] find(String query, int max){
+    String[] tokens = tokens(query);
+    if(tokens.length <= 0){
+      return new String[0];
+    }
+    /* Intersect from the rarest token, so the candidates only shrink */
+    Postings[] ps = new Postings[tokens.length];
+    for(int x = 0; x < tokens.length; x++){
+      ps[x] = index.get(tokens[x]);
+      if(ps[x] == null){
+        return new String[0];
+      }
+    }
+    int rare = 0;
+    for(int x = 1; x < ps.length; x++){
+      if(ps[x].count < ps[rare].count){
+        rare = x;
+      }
+    }
+    int[] res = ps[rare].decode();
+    int len = res.length;
+    for(int x = 0; x < ps.length && len > 0; x++){
+      if(x == rare){
+        continue;
+      }
+      int[] other = ps[x].decode();
+      int n = 0;
+      int y = 0;
+      for(int z = 0; z < len; z++){
+        while(y < other.length && other[y] < res[z]){
+          ++y;
+        }
+        if(y < other.length && other[y] == res[z]){
+          res[n++] = res[z];
+        }
+      }
+      len = n;
+    }
+    /* Newest commits have the highest positions */
+    String[] hs = new String[Math.min(len, max)];
+    for(int x = 0; x < hs.length; x++){
+      hs[x] = hashes.get(res[len - 1 - x]);
+    }
+    return hs;
+  }
+
+  /**
+   * tokens()
+   *
+   * Split a string into its unique lowercase words. Words too short to be
+   * useful are dropped and long words are truncated.
+   *
+   * @param s The string to be split.
+   * @return The unique tokens.
+   **/
+  private static String[] tokens(String s){
+    HashSet<String> res = new HashSet<String>();
+    StringBuilder tok = new StringBuilder();
+    for(int x = 0; x <= s.length(); x++){
+      char c = x < s.length() ? s.charAt(x) : ' ';
+      if(Character.isLetterOrDigit(c)){
+        if(tok.length() < TOKEN_MAX){
+          tok.append(Character.toLowerCase(c));
+        }
+      }else if(tok.length() > 0){
+        if(tok.length() >= TOKEN_MIN){
+          res.add(tok.toString());
+        }
+        tok.setLength(0);
+      }
+    }
+    return res.toArray(new String[0]);
+  }
+
+  /**
+   * assurt()
+   *
+   * A very simple assertion method for testing that the index isn't
+   * regressing.
+   *
+   * @param r The result to test.
+   * @return Pass through for the result value.
+   **/
+  private static boolean assurt(boolean r){
+    System.out.println(
+      "[" + (r ? "PASS" : "FAIL") + "] " +
+      Thread.currentThread().getStackTrace()[2].getClassName() + "->" +
+      Thread.currentThread().getStackTrace()[2].getMethodName() + "::" +
+      Thread.currentThread().getStackTrace()[2].getLineNumber()
+    );
+    return r;
+  }
+
+  /**
+   * test()
+   *
+   * Test that the index works as expected. The result of each test and a
+   * summary is printed to the standard out, as well as a boolean indicating
+   * test success.
+   *
+   * @return The result of performing the tests, true if success, otherwise
+   * false.
+   **/
+  public static boolean test(){
+    boolean r = true;
+    Search s = new Search();
+    s.add("a", "Fix the parser\n\nThe parser broke on empty input.");
+    s.add("b", "Add a README");
+    s.add("c", "Parser: faster tokens, fix README typo");
+    s.add("a", "Added twice");
+    r &= assurt(s.size() == 3);
+    r &= assurt(s.contains("b") && !s.contains("d"));
+    r &= assurt(Arrays.equals(s.find("parser", 10), new String[]{ "c", "a" }));
+    r &= assurt(Arrays.equals(s.find("FIX readme", 10), new String[]{ "c" }));
+    r &= assurt(Arrays.equals(s.find("empty", 10), new String[]{ "a" }));
+    r &= assurt(Arrays.equals(s.find("parser", 1), new String[]{ "c" }));
+    r &= assurt(s.find("twice", 10).length == 0);
+    r &= assurt(s.find("missing parser", 10).length == 0);
+    r &= assurt(s.find("a !", 10).length == 0);
+    /* Arbitrary keys */
+    Search k = new Search();
+    k.addKeys("a", new String[]{ "src", "src/A.java" });
+    k.addKeys("b", new String[]{ "README" });
+    k.addKeys("c", new String[]{ "src", "src/A.java", "src/B.java" });
+    r &= assurt(k.count("src") == 2 && k.count("src/B.java") == 1 && k.count("x") == 0);
+    r &= assurt(Arrays.equals(k.lookup("src", 0, 10), new String[]{ "c", "a" }));
+    r &= assurt(Arrays.equals(k.lookup("src", 1, 10), new String[]{ "a" }));
+    r &= assurt(k.lookup("src", 2, 10).length == 0 && k.lookup("x", 0, 10).length == 0);
+    /* Positions large enough to need several bytes each */
+    Search big = new Search();
+    for(int x = 0; x < 100000; x++){
+      big.add("h" + x, x % 1000 == 0 ? "rare common" : "common");
+    }
+    String[] found = big.find("rare", 1000);
+    r &= assurt(found.length == 100 && found[0].equals("h99000") && found[99].equals("h0"));
+    r &= assurt(big.find("common rare", 1000).length == 100);
+    /* Print result */
+    System.out.println("");
+    System.out.println("  Tests " + (r ? "PASSED" : "FAILED"));
+    return r;
+  }
+}
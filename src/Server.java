@@ -119,6 +119,7 @@ public class Server extends Thread{
       byte[] buff = new byte[headSize];
       is.read(buff);
       String req = new String(buff);
+      String range = header(req, "Range");
       int reqA = req.indexOf(' ') + 1;
       int reqB = req.indexOf(' ', reqA);
       if(reqA != reqB && reqB > 0){
@@ -127,7 +128,7 @@ public class Server extends Thread{
         req = "?";
       }
       /* Generate a new page */
-      pb.generate(os, req);
+      pb.generate(os, req, range);
       /* Skip rest of input (up to a maximum) */
       int a = is.available();
       a = a < maxInput ? a : maxInput;
@@ -139,4 +140,31 @@ public class Server extends Thread{
       /* Do nothing */
     }
   }
+
+  /**
+   * header()
+   *
+   * Find the value of a given header in the request. Only the part of the
+   * request that was read is searched.
+   *
+   * @param head The raw request head.
+   * @param name The name of the header, matched case insensitively.
+   * @return The header value, otherwise NULL if not present.
+   **/
+  private static String header(String head, String name){
+    String find = "\n" + name.toLowerCase() + ":";
+    int a = head.toLowerCase().indexOf(find);
+    if(a < 0){
+      return null;
+    }
+    a += find.length();
+    int b = head.indexOf('\r', a);
+    if(b < 0){
+      b = head.indexOf('\n', a);
+    }
+    if(b < 0){
+      return null;
+    }
+    return head.substring(a, b).trim();
+  }
 }
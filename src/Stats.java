@@ -0,0 +1,272 @@
+package b.gp;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Stats.java
+ *
+ * Running totals of a repository's activity. Each commit is added once as it
+ * is read, updating the commits per day, per week and per author in place,
+ * so reading the statistics never walks the history. Authors are kept ranked
+ * by their number of commits, an author only moving up past those they have
+ * overtaken.
+ **/
+public class Stats{
+  /**
+   * Author.Stats.java
+   *
+   * The running total of a single author.
+   **/
+  private static class Author{
+    public String name;
+    public int count = 0;
+    public int rank;
+  }
+
+  private static final long DAY_MS = 24 * 60 * 60 * 1000;
+
+  private int commits;
+  private HashMap<String, Author> authors;
+  private ArrayList<Author> ranking;
+  private HashMap<Integer, Integer> days;
+  private HashMap<Integer, Integer> weeks;
+  private int first;
+  private int last;
+
+  /**
+   * Stats()
+   *
+   * Initialize empty statistics.
+   **/
+  public Stats(){
+    commits = 0;
+    authors = new HashMap<String, Author>();
+    ranking = new ArrayList<Author>();
+    days = new HashMap<Integer, Integer>();
+    weeks = new HashMap<Integer, Integer>();
+    first = Integer.MAX_VALUE;
+    last = Integer.MIN_VALUE;
+  }
+
+  /**
+   * day()
+   *
+   * Get the day number of a date, counted in UTC from the Unix epoch.
+   *
+   * @param d The date.
+   * @return The day number.
+   **/
+  public static int day(Date d){
+    return (int)Math.floorDiv(d.getTime(), DAY_MS);
+  }
+
+  /**
+   * week()
+   *
+   * Get the week number of a day, with weeks starting on a Monday.
+   *
+   * @param day The day number.
+   * @return The week number.
+   **/
+  public static int week(int day){
+    /* The epoch was a Thursday */
+    return Math.floorDiv(day + 3, 7);
+  }
+
+  /**
+   * add()
+   *
+   * Add a commit to the totals.
+   *
+   * @param author The name of the author.
+   * @param date The date the commit was authored.
+   **/
+  public synchronized void add(String author, Date date){
+    ++commits;
+    Author a = authors.get(author);
+    if(a == null){
+      a = new Author();
+      a.name = author;
+      a.rank = ranking.size();
+      authors.put(author, a);
+      ranking.add(a);
+    }
+    ++a.count;
+    /* Move up past any authors that have just been overtaken */
+    while(a.rank > 0 && ranking.get(a.rank - 1).count < a.count){
+      Author b = ranking.get(a.rank - 1);
+      ranking.set(a.rank, b);
+      ranking.set(a.rank - 1, a);
+      ++b.rank;
+      --a.rank;
+    }
+    int d = day(date);
+    days.put(d, onDay(d) + 1);
+    weeks.put(week(d), inWeek(week(d)) + 1);
+    first = Math.min(first, d);
+    last = Math.max(last, d);
+  }
+
+  /**
+   * commits()
+   *
+   * Get the number of commits added.
+   *
+   * @return The number of commits.
+   **/
+  public synchronized int commits(){
+    return commits;
+  }
+
+  /**
+   * contributors()
+   *
+   * Get the number of distinct authors.
+   *
+   * @return The number of authors.
+   **/
+  public synchronized int contributors(){
+    return ranking.size();
+  }
+
+  /**
+   * activeDays()
+   *
+   * Get the number of days with at least one commit.
+   *
+   * @return The number of days.
+   **/
+  public synchronized int activeDays(){
+    return days.size();
+  }
+
+  /**
+   * span()
+   *
+   * Get the number of days from the first commit to the last, inclusive.
+   *
+   * @return The number of days, otherwise zero if there are no commits.
+   **/
+  public synchronized int span(){
+    return commits > 0 ? last - first + 1 : 0;
+  }
+
+  /**
+   * onDay()
+   *
+   * Get the number of commits on a day.
+   *
+   * @param day The day number.
+   * @return The number of commits.
+   **/
+  public synchronized int onDay(int day){
+    Integer n = days.get(day);
+    return n != null ? n : 0;
+  }
+
+  /**
+   * inWeek()
+   *
+   * Get the number of commits in a week.
+   *
+   * @param week The week number.
+   * @return The number of commits.
+   **/
+  public synchronized int inWeek(int week){
+    Integer n = weeks.get(week);
+    return n != null ? n : 0;
+  }
+
+  /**
+   * top()
+   *
+   * Get the authors with the most commits.
+   *
+   * @param max The maximum number of authors.
+   * @return The author names, most commits first.
+   **/
+  public synchronized String[] top(int max){
+    String[] res = new String[Math.min(max, ranking.size())];
+    for(int x = 0; x < res.length; x++){
+      res[x] = ranking.get(x).name;
+    }
+    return res;
+  }
+
+  /**
+   * count()
+   *
+   * Get the number of commits by an author.
+   *
+   * @param author The name of the author.
+   * @return The number of commits.
+   **/
+  public synchronized int count(String author){
+    Author a = authors.get(author);
+    return a != null ? a.count : 0;
+  }
+
+  /**
+   * assurt()
+   *
+   * A very simple assertion method for testing that the statistics aren't
+   * regressing.
+   *
+   * @param r The result to test.
+   * @return Pass through for the result value.
+   **/
+  private static boolean assurt(boolean r){
+    System.out.println(
+      "[" + (r ? "PASS" : "FAIL") + "] " +
+      Thread.currentThread().getStackTrace()[2].getClassName() + "->" +
+      Thread.currentThread().getStackTrace()[2].getMethodName() + "::" +
+      Thread.currentThread().getStackTrace()[2].getLineNumber()
+    );
+    return r;
+  }
+
+  /**
+   * test()
+   *
+   * Test that the statistics work as expected. The result of each test and
+   * a summary is printed to the standard out, as well as a boolean
+   * indicating test success.
+   *
+   * @return The result of performing the tests, true if success, otherwise
+   * false.
+   **/
+  public static boolean test(){
+    boolean r = true;
+    /* Days and weeks */
+    r &= assurt(day(new Date(0)) == 0 && day(new Date(DAY_MS - 1)) == 0);
+    r &= assurt(day(new Date(-1)) == -1);
+    /* 1970-01-04 was a Sunday and 1970-01-05 a Monday */
+    r &= assurt(week(3) == 0 && week(4) == 1 && week(10) == 1 && week(11) == 2);
+    r &= assurt(week(-3) == 0 && week(-4) == -1);
+    /* Totals */
+    Stats s = new Stats();
+    r &= assurt(s.commits() == 0 && s.span() == 0 && s.top(4).length == 0);
+    s.add("a", new Date(0));
+    s.add("b", new Date(DAY_MS * 4));
+    s.add("b", new Date(DAY_MS * 4 + 1));
+    s.add("c", new Date(DAY_MS * 9));
+    r &= assurt(s.commits() == 4 && s.contributors() == 3);
+    r &= assurt(s.activeDays() == 3 && s.span() == 10);
+    r &= assurt(s.onDay(4) == 2 && s.onDay(5) == 0);
+    r &= assurt(s.inWeek(0) == 1 && s.inWeek(1) == 3 && s.inWeek(2) == 0);
+    /* Ranking follows the counts as authors overtake each other */
+    String[] top = s.top(2);
+    r &= assurt(top.length == 2 && top[0].equals("b") && top[1].equals("a"));
+    s.add("c", new Date(0));
+    s.add("c", new Date(0));
+    top = s.top(4);
+    r &= assurt(top.length == 3 && top[0].equals("c") && top[1].equals("b") && top[2].equals("a"));
+    r &= assurt(s.count("c") == 3 && s.count("d") == 0);
+    /* Print result */
+    System.out.println("");
+    System.out.println("  Tests " + (r ? "PASSED" : "FAILED"));
+    return r;
+  }
+}